@@ -1,24 +1,42 @@
 package com.example.musicstore;
 
+import com.example.musicstore.models.SaleResult;
+import com.example.musicstore.utils.ConnectionPool;
+import com.example.musicstore.utils.ResultTable;
+
 import java.sql.*;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Класс для работы с базой данных музыкального магазина
  * Обеспечивает подключение к БД и выполнение SQL-запросов
  */
 public class Database {
-    // Параметры подключения к базе данных
-    private static final String URL = "jdbc:mysql://localhost:3306/music_store";
-    private static final String USER = "root";
-    private static final String PASSWORD = "mysql";
+
+    // Размер порции строк при потоковом чтении
+    public static final int DEFAULT_FETCH_SIZE = Integer.getInteger("musicstore.db.fetchSize", 1000);
+    // Количество строк в одном пакете пакетной записи
+    public static final int DEFAULT_BATCH_SIZE = Integer.getInteger("musicstore.db.batchSize", 500);
+    // Количество строк между фиксациями транзакции при пакетной записи
+    public static final int DEFAULT_COMMIT_SIZE = Integer.getInteger("musicstore.db.commitSize", 5000);
+
+    /**
+     * Получение соединения из общего пула
+     * Параметры подключения задаются источником utils.DatabaseBackend (musicstore.db.backend)
+     */
+    private static Connection getConnection() throws SQLException {
+        return com.example.musicstore.utils.Database.getConnection();
+    }
 
     /**
      * Тестирование подключения к базе данных
      * @return true если подключение успешно, false в случае ошибки
      */
     public static boolean testConnection() {
-        try (Connection conn = DriverManager.getConnection(URL, USER, PASSWORD)) {
+        try (Connection conn = getConnection()) {
             return true;
         } catch (SQLException e) {
             System.err.println("Connection failed: " + e.getMessage());
@@ -34,22 +52,11 @@ public class Database {
     public static List<Map<String, Object>> executeQuery(String query) {
         List<Map<String, Object>> resultList = new ArrayList<>();
 
-        try (Connection conn = DriverManager.getConnection(URL, USER, PASSWORD);
+        try (Connection conn = getConnection();
              Statement stmt = conn.createStatement();
              ResultSet rs = stmt.executeQuery(query)) {
 
-            ResultSetMetaData metaData = rs.getMetaData();
-            int columnCount = metaData.getColumnCount();
-
-            while (rs.next()) {
-                Map<String, Object> row = new HashMap<>();
-                for (int i = 1; i <= columnCount; i++) {
-                    String columnName = metaData.getColumnLabel(i);
-                    Object value = rs.getObject(i);
-                    row.put(columnName, value != null ? value : "");
-                }
-                resultList.add(row);
-            }
+            resultList = ResultTable.from(rs);
         } catch (SQLException e) {
             System.err.println("Query failed: " + e.getMessage());
             System.err.println("Query: " + query);
@@ -64,7 +71,7 @@ public class Database {
      * @return true если запрос выполнен успешно, false в случае ошибки
      */
     public static boolean executeUpdate(String query) {
-        try (Connection conn = DriverManager.getConnection(URL, USER, PASSWORD);
+        try (Connection conn = getConnection();
              Statement stmt = conn.createStatement()) {
 
             int rowsAffected = stmt.executeUpdate(query);
@@ -76,14 +83,297 @@ public class Database {
         }
     }
 
+    /**
+     * Выполнение SQL запроса INSERT с возвратом сгенерированного ключа
+     * @param query SQL запрос для выполнения
+     * @return идентификатор добавленной строки или -1 в случае ошибки
+     */
+    public static long executeInsert(String query) {
+        try (Connection conn = getConnection();
+             Statement stmt = conn.createStatement()) {
+
+            if (stmt.executeUpdate(query, Statement.RETURN_GENERATED_KEYS) == 0) {
+                return -1;
+            }
+            try (ResultSet keys = stmt.getGeneratedKeys()) {
+                return keys.next() ? keys.getLong(1) : -1;
+            }
+        } catch (SQLException e) {
+            System.err.println("Insert failed: " + e.getMessage());
+            System.err.println("Query: " + query);
+            return -1;
+        }
+    }
+
+    /**
+     * Выполнение параметризованного запроса с возвратом результата
+     * Подготовленный запрос кэшируется на соединении пула, поэтому повторные
+     * вызовы с тем же текстом SQL не разбираются сервером заново
+     * @param sql SQL запрос с параметрами "?"
+     * @param params значения параметров
+     * @return список карт (Map) с результатами запроса (пустой в случае ошибки)
+     */
+    public static List<Map<String, Object>> query(String sql, Object... params) {
+        List<Map<String, Object>> resultList = queryOrNull(sql, params);
+        return resultList != null ? resultList : new ArrayList<>();
+    }
+
+    /**
+     * То же, что query, но ошибка запроса отличается от пустого результата
+     * @return список карт (Map) с результатами запроса или null в случае ошибки
+     */
+    public static List<Map<String, Object>> queryOrNull(String sql, Object... params) {
+        try (Connection conn = getConnection()) {
+            PreparedStatement stmt = ConnectionPool.prepareCached(conn, sql, false);
+            bindParameters(stmt, params);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return ResultTable.from(rs);
+            }
+        } catch (SQLException e) {
+            System.err.println("Query failed: " + e.getMessage());
+            System.err.println("Query: " + sql + " " + Arrays.toString(params));
+            return null;
+        }
+    }
+
+    /**
+     * Выполнение параметризованного запроса на обновление данных (INSERT, UPDATE, DELETE)
+     * @param sql SQL запрос с параметрами "?"
+     * @param params значения параметров
+     * @return true если запрос затронул хотя бы одну строку, false в случае ошибки
+     */
+    public static boolean update(String sql, Object... params) {
+        try (Connection conn = getConnection()) {
+            PreparedStatement stmt = ConnectionPool.prepareCached(conn, sql, false);
+            bindParameters(stmt, params);
+            return stmt.executeUpdate() > 0;
+        } catch (SQLException e) {
+            System.err.println("Update failed: " + e.getMessage());
+            System.err.println("Query: " + sql + " " + Arrays.toString(params));
+            return false;
+        }
+    }
+
+    /**
+     * Пакетное выполнение запроса для множества наборов параметров
+     * Используются размеры пакета и фиксации по умолчанию
+     * @param sql SQL запрос с параметрами "?"
+     * @param rows наборы значений параметров, по одному на строку
+     * @return количество затронутых строк или -1 в случае ошибки
+     */
+    public static int executeBatch(String sql, List<Object[]> rows) {
+        return executeBatch(sql, rows, DEFAULT_BATCH_SIZE, DEFAULT_COMMIT_SIZE);
+    }
+
+    /**
+     * Пакетное выполнение запроса для множества наборов параметров
+     * Строки отправляются на сервер пакетами по batchSize (драйвер MySQL объединяет
+     * пакет INSERT в один многострочный запрос), транзакция фиксируется каждые
+     * commitSize строк и в конце. При ошибке откатывается незафиксированная часть.
+     * @param sql SQL запрос с параметрами "?"
+     * @param rows наборы значений параметров, по одному на строку
+     * @param batchSize количество строк в одном пакете
+     * @param commitSize количество строк между фиксациями транзакции
+     * @return количество затронутых строк или -1 в случае ошибки
+     */
+    public static int executeBatch(String sql, List<Object[]> rows, int batchSize, int commitSize) {
+        if (rows.isEmpty()) return 0;
+        if (batchSize <= 0 || commitSize <= 0) {
+            throw new IllegalArgumentException("Некорректный размер пакета: batch=" + batchSize + ", commit=" + commitSize);
+        }
+
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            conn.setAutoCommit(false);
+            int affected = 0;
+            int pending = 0;
+            int uncommitted = 0;
+            try {
+                for (Object[] row : rows) {
+                    bindParameters(stmt, row);
+                    stmt.addBatch();
+                    pending++;
+                    uncommitted++;
+
+                    if (pending >= batchSize) {
+                        affected += countAffected(stmt.executeBatch());
+                        pending = 0;
+                    }
+                    if (uncommitted >= commitSize) {
+                        if (pending > 0) {
+                            affected += countAffected(stmt.executeBatch());
+                            pending = 0;
+                        }
+                        conn.commit();
+                        uncommitted = 0;
+                    }
+                }
+                if (pending > 0) {
+                    affected += countAffected(stmt.executeBatch());
+                }
+                conn.commit();
+                return affected;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            System.err.println("Batch failed: " + e.getMessage());
+            System.err.println("Query: " + sql + " (rows: " + rows.size() + ")");
+            return -1;
+        }
+    }
+
+    /**
+     * Подсчет затронутых строк по результату executeBatch
+     * SUCCESS_NO_INFO (многострочный INSERT после объединения пакета) считается за одну строку
+     */
+    private static int countAffected(int[] counts) {
+        int affected = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                affected += count;
+            } else if (count == Statement.SUCCESS_NO_INFO) {
+                affected++;
+            }
+        }
+        return affected;
+    }
+
+    /**
+     * Потоковое чтение результата запроса
+     * Строки читаются с сервера порциями по fetchSize через однонаправленный курсор
+     * и не накапливаются в памяти. Соединение остается занятым до закрытия потока,
+     * поэтому поток нужно использовать в try-with-resources.
+     * @param sql SQL запрос с параметрами "?"
+     * @param fetchSize количество строк в одной порции
+     * @param params значения параметров
+     * @return поток строк, закрывающий курсор и соединение при close()
+     * @throws IllegalStateException если запрос не выполнен или строка не прочитана
+     */
+    public static Stream<Map<String, Object>> stream(String sql, int fetchSize, Object... params) {
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            conn = getConnection();
+            stmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            stmt.setFetchSize(fetchSize);
+            bindParameters(stmt, params);
+            rs = stmt.executeQuery();
+
+            final ResultSet cursor = rs;
+            final ResultTable.Schema schema = ResultTable.Schema.of(rs.getMetaData());
+            Spliterator<Map<String, Object>> rows = new Spliterators.AbstractSpliterator<Map<String, Object>>(
+                    Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+                @Override
+                public boolean tryAdvance(Consumer<? super Map<String, Object>> action) {
+                    try {
+                        if (!cursor.next()) return false;
+                        action.accept(ResultTable.readRow(schema, cursor));
+                        return true;
+                    } catch (SQLException e) {
+                        throw new IllegalStateException("Ошибка чтения строки: " + e.getMessage(), e);
+                    }
+                }
+            };
+
+            final Connection openConn = conn;
+            final Statement openStmt = stmt;
+            return StreamSupport.stream(rows, false).onClose(() -> closeQuietly(cursor, openStmt, openConn));
+        } catch (SQLException e) {
+            System.err.println("Query: " + sql + " " + Arrays.toString(params));
+            closeQuietly(rs, stmt, conn);
+            throw new IllegalStateException("Ошибка выполнения запроса: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Потоковая обработка результата запроса построчно
+     * @param sql SQL запрос с параметрами "?"
+     * @param fetchSize количество строк в одной порции
+     * @param callback обработчик, вызываемый для каждой строки
+     * @param params значения параметров
+     * @return количество обработанных строк или -1 в случае ошибки
+     */
+    public static long forEachRow(String sql, int fetchSize, Consumer<Map<String, Object>> callback, Object... params) {
+        long count = 0;
+        try (Stream<Map<String, Object>> rows = stream(sql, fetchSize, params)) {
+            Iterator<Map<String, Object>> it = rows.iterator();
+            while (it.hasNext()) {
+                callback.accept(it.next());
+                count++;
+            }
+            return count;
+        } catch (IllegalStateException e) {
+            System.err.println("Stream processing failed after " + count + " rows: " + e.getMessage());
+            return -1;
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable... resources) {
+        for (AutoCloseable resource : resources) {
+            if (resource == null) continue;
+            try {
+                resource.close();
+            } catch (Exception e) {
+                System.err.println("Close failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Подстановка значений параметров в подготовленный запрос
+     */
+    private static void bindParameters(PreparedStatement stmt, Object[] params) throws SQLException {
+        if (params == null) return;
+        for (int i = 0; i < params.length; i++) {
+            stmt.setObject(i + 1, params[i]);
+        }
+    }
+
+    // Есть ли в таблице musicians колонка full_name (null - еще не проверено)
+    private static volatile Boolean musicianFullNameColumn;
+
+    /**
+     * Выражение полного имени музыканта ("Имя Отчество Фамилия") для запросов
+     * Колонку full_name создает миграция db/migrations/001_musicians_full_name.sql,
+     * которая применяется вручную. В базе без нее используется то же выражение,
+     * что и в определении колонки (результат тот же, но без индекса)
+     * @param alias псевдоним таблицы musicians в запросе или null
+     */
+    public static String musicianFullName(String alias) {
+        String prefix = alias == null ? "" : alias + ".";
+        if (hasMusicianFullNameColumn()) {
+            return prefix + "full_name";
+        }
+        return "CONCAT_WS(' ', " + prefix + "first_name, NULLIF(" + prefix + "middle_name, ''), " + prefix + "last_name)";
+    }
+
+    /**
+     * Проверка колонки musicians.full_name (один раз за запуск)
+     */
+    public static boolean hasMusicianFullNameColumn() {
+        Boolean result = musicianFullNameColumn;
+        if (result == null) {
+            result = com.example.musicstore.utils.Database.columnExists("musicians", "full_name");
+            musicianFullNameColumn = result;
+            if (!result) {
+                System.out.println("В таблице musicians нет колонки full_name (миграция 001_musicians_full_name.sql " +
+                        "не применена): полное имя собирается в запросе");
+            }
+        }
+        return result;
+    }
+
     /**
      * Получение количества произведений, исполняемых ансамблем
      * @param ensembleName название ансамбля
      * @return количество произведений
      */
     public static int getEnsembleCompositionsCount(String ensembleName) {
-        String query = "SELECT COUNT(DISTINCT p.composition_id) as count FROM ensembles e JOIN performances p ON e.ensemble_id = p.ensemble_id WHERE e.name = '" + ensembleName + "'";
-        List<Map<String, Object>> result = executeQuery(query);
+        String query = "SELECT COUNT(DISTINCT p.composition_id) as count FROM ensembles e JOIN performances p ON e.ensemble_id = p.ensemble_id WHERE e.name = ?";
+        List<Map<String, Object>> result = query(query, ensembleName);
         if (!result.isEmpty() && result.get(0).get("count") != null) {
             Object count = result.get(0).get("count");
             return convertToInt(count);
@@ -97,8 +387,8 @@ public class Database {
      * @return список пластинок
      */
     public static List<Map<String, Object>> getEnsembleRecords(String ensembleName) {
-        String query = "SELECT DISTINCT r.* FROM records r JOIN record_tracks rt ON r.record_id = rt.record_id JOIN performances p ON rt.composition_id = p.composition_id JOIN ensembles e ON p.ensemble_id = e.ensemble_id WHERE e.name = '" + ensembleName + "'";
-        return executeQuery(query);
+        String query = "SELECT DISTINCT r.* FROM records r JOIN record_tracks rt ON r.record_id = rt.record_id JOIN performances p ON rt.composition_id = p.composition_id JOIN ensembles e ON p.ensemble_id = e.ensemble_id WHERE e.name = ?";
+        return query(query, ensembleName);
     }
 
     /**
@@ -108,19 +398,122 @@ public class Database {
      * @return true если обновление успешно, false в случае ошибки
      */
     public static boolean updateRecordSales(int recordId, int additionalSales) {
-        // Получение текущего количества продаж
-        String selectQuery = "SELECT current_year_sales FROM records WHERE record_id = " + recordId;
-        List<Map<String, Object>> currentData = executeQuery(selectQuery);
+        return sellRecord(recordId, additionalSales).isSuccess();
+    }
+
+    /**
+     * Продажа пластинки
+     * Продажи увеличиваются, а остаток уменьшается одним условным UPDATE, поэтому
+     * одновременные продажи с разных рабочих мест не теряются, а остаток не уходит
+     * в минус. Итоговые значения читаются в той же транзакции, пока строка
+     * заблокирована обновлением.
+     * @param recordId идентификатор пластинки
+     * @param quantity количество проданных экземпляров
+     * @return результат продажи с новыми значениями продаж и остатка
+     */
+    public static SaleResult sellRecord(int recordId, int quantity) {
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Количество должно быть положительным: " + quantity);
+        }
 
-        if (currentData.isEmpty()) return false;
+        String updateQuery = "UPDATE records SET current_year_sales = current_year_sales + ?, " +
+                "remaining_stock = remaining_stock - ? WHERE record_id = ? AND remaining_stock >= ?";
+        String totalsQuery = "SELECT current_year_sales, remaining_stock FROM records WHERE record_id = ?";
 
-        Object salesObj = currentData.get(0).get("current_year_sales");
-        int currentSales = convertToInt(salesObj);
-        int newSales = currentSales + additionalSales;
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                PreparedStatement update = ConnectionPool.prepareCached(conn, updateQuery, false);
+                bindParameters(update, new Object[]{quantity, quantity, recordId, quantity});
+                int updated = update.executeUpdate();
 
-        // Обновление данных о продажах
-        String updateQuery = "UPDATE records SET current_year_sales = " + newSales + " WHERE record_id = " + recordId;
-        return executeUpdate(updateQuery);
+                PreparedStatement totals = ConnectionPool.prepareCached(conn, totalsQuery, false);
+                bindParameters(totals, new Object[]{recordId});
+                SaleResult result;
+                try (ResultSet rs = totals.executeQuery()) {
+                    if (!rs.next()) {
+                        result = SaleResult.failure(SaleResult.Status.NOT_FOUND, recordId);
+                    } else {
+                        SaleResult.Status status = updated > 0 ? SaleResult.Status.OK : SaleResult.Status.INSUFFICIENT_STOCK;
+                        result = new SaleResult(status, recordId, rs.getInt("current_year_sales"), rs.getInt("remaining_stock"));
+                    }
+                }
+                conn.commit();
+                return result;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            System.err.println("Sale failed: " + e.getMessage());
+            System.err.println("Record: " + recordId + ", quantity: " + quantity);
+            return SaleResult.failure(SaleResult.Status.ERROR, recordId);
+        }
+    }
+
+    /**
+     * Пакетное применение накопленных продаж
+     * Накопленное количество - сумма отдельных продаж, поэтому при нехватке остатка
+     * пластинка не отклоняется целиком, как в sellRecord: списывается столько, сколько
+     * есть на складе, а отклоняется только остаток. Строки пластинок блокируются
+     * (SELECT ... FOR UPDATE) в порядке возрастания идентификатора, чтобы одновременные
+     * пакеты с разных рабочих мест не блокировали друг друга; затем все UPDATE
+     * отправляются одним пакетом и фиксируются одной транзакцией.
+     * @param deltas количество проданных экземпляров по идентификатору пластинки
+     * @return непримененная часть продаж по пластинке (нехватка остатка или отсутствие
+     *         пластинки), либо null, если пакет не записан из-за ошибки базы данных
+     */
+    public static Map<Integer, Long> applySalesBatch(Map<Integer, Long> deltas) {
+        Map<Integer, Long> rejected = new HashMap<>();
+        if (deltas.isEmpty()) return rejected;
+
+        List<Integer> recordIds = new ArrayList<>(deltas.keySet());
+        Collections.sort(recordIds);
+        String lockSql = "SELECT record_id, remaining_stock FROM records WHERE record_id IN (" +
+                String.join(", ", Collections.nCopies(recordIds.size(), "?")) + ") ORDER BY record_id FOR UPDATE";
+        String updateSql = "UPDATE records SET current_year_sales = current_year_sales + ?, " +
+                "remaining_stock = remaining_stock - ? WHERE record_id = ? AND remaining_stock >= ?";
+
+        try (Connection conn = getConnection();
+             PreparedStatement lock = conn.prepareStatement(lockSql);
+             PreparedStatement update = conn.prepareStatement(updateSql)) {
+            conn.setAutoCommit(false);
+            try {
+                bindParameters(lock, recordIds.toArray());
+                Map<Integer, Long> stock = new HashMap<>();
+                try (ResultSet rs = lock.executeQuery()) {
+                    while (rs.next()) {
+                        stock.put(rs.getInt("record_id"), rs.getLong("remaining_stock"));
+                    }
+                }
+
+                int updates = 0;
+                for (Integer recordId : recordIds) {
+                    long quantity = deltas.get(recordId);
+                    long applied = Math.max(0, Math.min(quantity, stock.getOrDefault(recordId, 0L)));
+                    if (applied < quantity) {
+                        rejected.put(recordId, quantity - applied);
+                    }
+                    if (applied > 0) {
+                        bindParameters(update, new Object[]{applied, applied, recordId, applied});
+                        update.addBatch();
+                        updates++;
+                    }
+                }
+                if (updates > 0) {
+                    update.executeBatch();
+                }
+                conn.commit();
+                return rejected;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            System.err.println("Sales batch failed: " + e.getMessage());
+            System.err.println("Records: " + recordIds);
+            return null;
+        }
     }
 
     /**
@@ -141,4 +534,4 @@ public class Database {
         }
         return 0;
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
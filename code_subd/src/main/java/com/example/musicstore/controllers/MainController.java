@@ -1,10 +1,24 @@
 package com.example.musicstore.controllers;
 
 import com.example.musicstore.Database;
+import com.example.musicstore.services.DetailPrefetcher;
+import com.example.musicstore.services.EntityCache;
+import com.example.musicstore.services.LookupList;
+import com.example.musicstore.services.NameIndex;
+import com.example.musicstore.services.QueryResultCache;
+import com.example.musicstore.services.SalesAccumulator;
+import com.example.musicstore.services.SalesLeaderboard;
+import com.example.musicstore.services.TableChangeMonitor;
+import com.example.musicstore.utils.DbExecutor;
+import com.example.musicstore.utils.ImageCache;
+import com.example.musicstore.utils.ImageManifest;
+import com.example.musicstore.utils.ImagePipeline;
+import com.example.musicstore.utils.ImageStore;
 import com.example.musicstore.utils.UserActionLogger;
 import javafx.collections.FXCollections;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
+import javafx.scene.Node;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
@@ -19,8 +33,7 @@ import javafx.scene.image.ImageView;
 import java.io.File;
 import java.io.InputStream;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
+import java.nio.file.Paths;
 import javafx.stage.FileChooser;
 
 import java.io.IOException;
@@ -28,6 +41,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 /**
  * Главный контроллер приложения MusicStore
@@ -65,12 +87,54 @@ public class MainController {
 
     // Новые элементы для отображения деталей записи
     @FXML private ImageView detailImageView;
+    @FXML private ProgressBar imageProgressBar;
     @FXML private TextArea detailDescriptionArea;
     @FXML
     Label detailTitleLabel;
 
     private String currentUserEmail;
 
+    // Фоновые запросы вкладок: при уходе с вкладки незавершенные запросы отменяются
+    private final Map<Tab, DbExecutor.TaskGroup> tabTasks = new HashMap<>();
+    // Фоновые запросы элементов вне вкладок
+    private final DbExecutor.TaskGroup backgroundTasks = new DbExecutor.TaskGroup("общие");
+    // Запросы панели деталей: отменяются при выборе другой записи
+    private final DbExecutor.TaskGroup detailTasks = new DbExecutor.TaskGroup("детали");
+    // Номер последней предзагрузки соседних строк: более ранние предзагрузки прекращаются
+    private final AtomicLong prefetchGeneration = new AtomicLong();
+    // Номер последней загрузки изображения: результат предыдущей загрузки не показывается
+    private final AtomicLong imageRequest = new AtomicLong();
+
+    // Журнал действий и обновление лидеров продаж после записи накопленных продаж
+    private final SalesAccumulator.FlushListener salesFlushListener = (applied, rejected) -> {
+        String report = logSalesFlushed(applied, rejected);
+        DbExecutor.FX.execute(() -> onSalesFlushed(applied, report));
+    };
+
+    // Обновление вкладок при изменении таблиц в базе (в том числе с других рабочих мест)
+    private final TableChangeMonitor.ChangeListener tableChangeListener = tables ->
+            DbExecutor.FX.execute(() -> onTablesChanged(tables));
+
+    // Таблицы базы, из которых вкладка показывает данные
+    private static final Map<String, Set<String>> TAB_TABLES = Map.of(
+            "Все данные", Set.of("ensembles", "musicians", "compositions", "records", QueryResultCache.SALES),
+            "Состав ансамблей", Set.of("ensemble_members", "ensembles", "musicians"),
+            "Исполнения", Set.of("performances", "ensembles", "compositions"),
+            "Треки на пластинках", Set.of("record_tracks", "records", "compositions"),
+            "Аналитика", Set.of("ensembles", "musicians", "compositions", "records",
+                    "ensemble_members", "performances", "record_tracks", QueryResultCache.SALES),
+            "История действий", Set.of("user_actions"));
+
+    // Вкладки, данные которых изменились с последней загрузки
+    // При переключении загружается только устаревшая вкладка
+    private final Set<String> dirtyTabs = new HashSet<>(TAB_TABLES.keySet());
+
+    // Ключи свойств таблицы для индикатора загрузки
+    private static final String LOAD_KEY = "musicstore.load";
+    private static final String PLACEHOLDER_KEY = "musicstore.placeholder";
+    // Наибольшее число изменений, при котором список таблицы изменяется построчно
+    private static final int PATCH_LIMIT = 500;
+
     /**
      * Метод инициализации контроллера
      * Выполняется при загрузке FXML файла
@@ -78,60 +142,49 @@ public class MainController {
     @FXML
     public void initialize() {
 
-        // Проверка подключения к базе данных
-        if (!Database.testConnection()) {
-            showAlert("Ошибка", "Нет подключения к БД");
-            return;
-
-        }
-
         // Настройка интерфейса
         setupTables();
-        loadAllData();
-        populateAllSelectors();
         setupTableSelectionListeners();
+        bindSelectors();
 
 
         // Скрываем контейнер с изображением при запуске
 
-        // Обработчик смены вкладок
+        // Обработчик смены вкладок: запросы покинутой вкладки отменяются,
+        // новая вкладка загружается, только если ее данные устарели
         tabPane.getSelectionModel().selectedItemProperty().addListener((obs, oldTab, newTab) -> {
-            if (newTab != null) {
+            if (oldTab != null && tabTasks.containsKey(oldTab) && tabTasks.get(oldTab).cancelAll() > 0) {
+                // Загрузка прервана - данные вкладки неполные
+                dirtyTabs.add(oldTab.getText());
+            }
+            if (newTab != null && dirtyTabs.contains(newTab.getText())) {
                 refreshCurrentTab();
             }
         });
-        debugImagePaths();
-    }
-
-    /**
-     * Метод для отладки - проверяет доступность путей изображений
-     */
-    private void debugImagePaths() {
-        String[] entityTypes = {"ensembles", "musicians", "compositions", "records"};
-        String[] testNames = {"Test Ensemble", "John Doe", "Test Composition", "Test Record"};
-
-        System.out.println("=== ПРОВЕРКА ПУТЕЙ ИЗОБРАЖЕНИЙ ===");
-
-        for (int i = 0; i < entityTypes.length; i++) {
-            String imageName = generateImageFileName(testNames[i]);
-            String imagePath = "/musicstore/iamges/" + entityTypes[i] + "/" + imageName;
-
-            System.out.println("Проверка пути: " + imagePath);
 
-            InputStream stream = getClass().getResourceAsStream(imagePath);
-            if (stream != null) {
-                System.out.println("✓ Изображение доступно: " + imagePath);
-            } else {
-                System.out.println("✗ Изображение не найдено: " + imagePath);
+        SalesAccumulator.getInstance().addFlushListener(salesFlushListener);
+        TableChangeMonitor.getInstance().addChangeListener(tableChangeListener);
 
-                // Проверяем существование папки
-                String folderPath = "/musicstore/iamges/" + entityTypes[i] + "/";
-                InputStream folderStream = getClass().getResourceAsStream(folderPath);
-                System.out.println("  Папка существует: " + (folderStream != null ? "ДА" : "НЕТ"));
+        // Проверка подключения к базе данных и загрузка данных в фоне
+        loadAsync(backgroundTasks, () -> {
+            boolean connected = Database.testConnection();
+            // Схема проверяется здесь, а не при первом запросе в потоке JavaFX
+            if (connected) {
+                Database.hasMusicianFullNameColumn();
             }
-        }
-
-        System.out.println("=== КОНЕЦ ПРОВЕРКИ ===");
+            return connected;
+        }, connected -> {
+            if (!connected) {
+                showAlert("Ошибка", "Нет подключения к БД");
+                return;
+            }
+            populateAllSelectors();
+            // Остальные вкладки загрузятся при первом переходе на них
+            refreshCurrentTab();
+            TableChangeMonitor.getInstance().start();
+        });
+        // Перечень локальных изображений строится один раз, дальше его обновляет отслеживание папок
+        DbExecutor.run(ImageManifest.getInstance()::start);
     }
 
     /**
@@ -142,6 +195,7 @@ public class MainController {
         ensemblesTable.getSelectionModel().selectedItemProperty().addListener((obs, oldSelection, newSelection) -> {
             if (newSelection != null) {
                 showEntityDetails(newSelection, "Ансамбль");
+                prefetchNeighbours(ensemblesTable, "Ансамбль");
             } else {
                 clearDetails(); // Очищаем при снятии выбора
             }
@@ -151,6 +205,7 @@ public class MainController {
         musiciansTable.getSelectionModel().selectedItemProperty().addListener((obs, oldSelection, newSelection) -> {
             if (newSelection != null) {
                 showEntityDetails(newSelection, "Музыкант");
+                prefetchNeighbours(musiciansTable, "Музыкант");
             } else {
                 clearDetails(); // Очищаем при снятии выбора
             }
@@ -160,6 +215,7 @@ public class MainController {
         compositionsTable.getSelectionModel().selectedItemProperty().addListener((obs, oldSelection, newSelection) -> {
             if (newSelection != null) {
                 showEntityDetails(newSelection, "Произведение");
+                prefetchNeighbours(compositionsTable, "Произведение");
             } else {
                 clearDetails(); // Очищаем при снятии выбора
             }
@@ -169,6 +225,7 @@ public class MainController {
         recordsTable.getSelectionModel().selectedItemProperty().addListener((obs, oldSelection, newSelection) -> {
             if (newSelection != null) {
                 showEntityDetails(newSelection, "Пластинка");
+                prefetchNeighbours(recordsTable, "Пластинка");
             } else {
                 clearDetails(); // Очищаем при снятии выбора
             }
@@ -218,6 +275,7 @@ public class MainController {
 
         try {
             // ВСЕГДА очищаем перед загрузкой новых данных
+            detailTasks.cancelAll();
             clearDetails();
 
             switch (entityType) {
@@ -273,22 +331,22 @@ public class MainController {
         details.append("Описание:\n").append(description).append("\n\n");
 
         // Добавляем информацию о составе
-        String membersQuery = "SELECT CONCAT(m.first_name, ' ', m.last_name) as musician_name, em.role " +
-                "FROM ensemble_members em " +
-                "JOIN musicians m ON em.musician_id = m.musician_id " +
-                "WHERE em.ensemble_id = (SELECT ensemble_id FROM ensembles WHERE name = '" + sanitize(name) + "')";
+        DetailSource source = detailSourceFor(ensemble, "Ансамбль");
+
+        detailDescriptionArea.setText(details + "Загрузка...");
+        loadEntityImage(source.imageEntity, source.imageType);
 
-        List<Map<String, Object>> members = Database.executeQuery(membersQuery);
-        if (!members.isEmpty()) {
-            details.append("Состав ансамбля:\n");
-            for (Map<String, Object> member : members) {
-                details.append("• ").append(member.get("musician_name"))
-                        .append(" - ").append(member.get("role")).append("\n");
+        loadDetails(source, members -> {
+            if (!members.isEmpty()) {
+                details.append("Состав ансамбля:\n");
+                for (Map<String, Object> member : members) {
+                    details.append("• ").append(member.get("musician_name"))
+                            .append(" - ").append(member.get("role")).append("\n");
+                }
             }
-        }
 
-        detailDescriptionArea.setText(details.toString());
-        loadEntityImage(name, "ensembles");
+            detailDescriptionArea.setText(details.toString());
+        });
     }
 
     /**
@@ -315,26 +373,25 @@ public class MainController {
             details.append("Биография:\n").append(bio).append("\n\n");
         }
 
-        // Добавляем информацию об ансамблях с новым запросом
-        String ensemblesQuery = "SELECT e.name as ensemble_name, em.role " +
-                "FROM ensemble_members em " +
-                "JOIN ensembles e ON em.ensemble_id = e.ensemble_id " +
-                "WHERE em.musician_id = (SELECT musician_id FROM musicians WHERE first_name = '" + sanitize(firstName) +
-                "' AND last_name = '" + sanitize(lastName) + "')";
+        // Добавляем информацию об ансамблях
+        DetailSource source = detailSourceFor(musician, "Музыкант");
 
-        List<Map<String, Object>> ensembles = Database.executeQuery(ensemblesQuery);
-        if (!ensembles.isEmpty()) {
-            details.append("Участвует в ансамблях:\n");
-            for (Map<String, Object> ensemble : ensembles) {
-                details.append("• ").append(ensemble.get("ensemble_name"))
-                        .append(" - ").append(ensemble.get("role")).append("\n");
+        detailDescriptionArea.setText(details + "Загрузка...");
+        loadEntityImage(source.imageEntity, source.imageType);
+
+        loadDetails(source, ensembles -> {
+            if (!ensembles.isEmpty()) {
+                details.append("Участвует в ансамблях:\n");
+                for (Map<String, Object> ensemble : ensembles) {
+                    details.append("• ").append(ensemble.get("ensemble_name"))
+                            .append(" - ").append(ensemble.get("role")).append("\n");
+                }
+            } else {
+                details.append("Не участвует в ансамблях\n");
             }
-        } else {
-            details.append("Не участвует в ансамблях\n");
-        }
 
-        detailDescriptionArea.setText(details.toString());
-        loadEntityImage(firstName + " " + lastName, "musicians");
+            detailDescriptionArea.setText(details.toString());
+        });
     }
 
     /**
@@ -350,26 +407,26 @@ public class MainController {
         details.append("Год создания: ").append(year).append("\n\n");
 
         // Добавляем информацию об исполнениях
-        String performancesQuery = "SELECT e.name as ensemble_name, p.arrangement " +
-                "FROM performances p " +
-                "JOIN ensembles e ON p.ensemble_id = e.ensemble_id " +
-                "WHERE p.composition_id = (SELECT composition_id FROM compositions WHERE title = '" + sanitize(title) + "')";
-
-        List<Map<String, Object>> performances = Database.executeQuery(performancesQuery);
-        if (!performances.isEmpty()) {
-            details.append("Исполняется ансамблями:\n");
-            for (Map<String, Object> performance : performances) {
-                details.append("• ").append(performance.get("ensemble_name"));
-                String arrangement = safeGetString(performance, "arrangement");
-                if (!arrangement.isEmpty()) {
-                    details.append(" (").append(arrangement).append(")");
+        DetailSource source = detailSourceFor(composition, "Произведение");
+
+        detailDescriptionArea.setText(details + "Загрузка...");
+        loadEntityImage(source.imageEntity, source.imageType);
+
+        loadDetails(source, performances -> {
+            if (!performances.isEmpty()) {
+                details.append("Исполняется ансамблями:\n");
+                for (Map<String, Object> performance : performances) {
+                    details.append("• ").append(performance.get("ensemble_name"));
+                    String arrangement = safeGetString(performance, "arrangement");
+                    if (!arrangement.isEmpty()) {
+                        details.append(" (").append(arrangement).append(")");
+                    }
+                    details.append("\n");
                 }
-                details.append("\n");
             }
-        }
 
-        detailDescriptionArea.setText(details.toString());
-        loadEntityImage(title, "compositions");
+            detailDescriptionArea.setText(details.toString());
+        });
     }
 
     /**
@@ -393,105 +450,210 @@ public class MainController {
         details.append("Остаток на складе: ").append(stock).append("\n\n");
 
         // Добавляем информацию о треках
-        String tracksQuery = "SELECT c.title as composition_title, rt.track_number " +
-                "FROM record_tracks rt " +
-                "JOIN compositions c ON rt.composition_id = c.composition_id " +
-                "WHERE rt.record_id = (SELECT record_id FROM records WHERE title = '" + sanitize(title) + "') " +
-                "ORDER BY rt.track_number";
+        DetailSource source = detailSourceFor(record, "Пластинка");
+
+        detailDescriptionArea.setText(details + "Загрузка...");
+        loadEntityImage(source.imageEntity, source.imageType);
 
-        List<Map<String, Object>> tracks = Database.executeQuery(tracksQuery);
-        if (!tracks.isEmpty()) {
-            details.append("Треки:\n");
-            for (Map<String, Object> track : tracks) {
-                details.append(track.get("track_number")).append(". ")
-                        .append(track.get("composition_title")).append("\n");
+        loadDetails(source, tracks -> {
+            if (!tracks.isEmpty()) {
+                details.append("Треки:\n");
+                for (Map<String, Object> track : tracks) {
+                    details.append(track.get("track_number")).append(". ")
+                            .append(track.get("composition_title")).append("\n");
+                }
             }
-        }
 
-        detailDescriptionArea.setText(details.toString());
-        loadEntityImage(title, "records");
+            detailDescriptionArea.setText(details.toString());
+        });
     }
 
+    // Запросы деталей записей и таблицы, от которых они зависят
+    private static final String MUSICIAN_ENSEMBLES_QUERY = "SELECT e.name as ensemble_name, em.role " +
+            "FROM ensemble_members em " +
+            "JOIN ensembles e ON em.ensemble_id = e.ensemble_id " +
+            "WHERE em.musician_id = (SELECT musician_id FROM musicians WHERE first_name = ? AND last_name = ?)";
+    private static final String COMPOSITION_PERFORMANCES_QUERY = "SELECT e.name as ensemble_name, p.arrangement " +
+            "FROM performances p " +
+            "JOIN ensembles e ON p.ensemble_id = e.ensemble_id " +
+            "WHERE p.composition_id = (SELECT composition_id FROM compositions WHERE title = ?)";
+    private static final String RECORD_TRACKS_QUERY = "SELECT c.title as composition_title, rt.track_number " +
+            "FROM record_tracks rt " +
+            "JOIN compositions c ON rt.composition_id = c.composition_id " +
+            "WHERE rt.record_id = (SELECT record_id FROM records WHERE title = ?) " +
+            "ORDER BY rt.track_number";
+
     /**
-     * Загрузка изображения для сущности - ИСПРАВЛЕННАЯ ВЕРСИЯ
+     * Запрос деталей и изображение строки таблицы
+     * Используется и для показа выбранной строки, и для предзагрузки соседних
      */
-    private void loadEntityImage(String entityName, String entityType) {
-        try {
-            // Сначала очищаем текущее изображение
-            detailImageView.setImage(null);
-
-            // Показываем контейнер с изображением
-            showImageContainer();
+    private static final class DetailSource {
+        final String sql;
+        final Set<String> dependsOn;
+        final Object[] params;
+        final String imageType;
+        final String imageEntity;
 
-            // Формируем путь к изображению - ТОЛЬКО в папке musicians для музыкантов
-            String imageName = generateImageFileName(entityName);
-            String imagePath = "/musicstore/iamges/" + entityType + "/" + imageName;
-
-            System.out.println("🔄 Загрузка изображения для " + entityType + " '" + entityName + "'");
-            System.out.println("   Путь: " + imagePath);
-
-            // Пытаемся загрузить изображение из ресурсов
-            InputStream imageStream = getClass().getResourceAsStream(imagePath);
-            if (imageStream != null) {
-                System.out.println("✅ InputStream создан успешно");
-                Image image = new Image(imageStream);
-                if (!image.isError()) {
-                    detailImageView.setImage(image);
-                    System.out.println("✅ УСПЕХ: Изображение загружено для " + entityName);
-                    return;
-                } else {
-                    System.out.println("❌ Ошибка загрузки изображения (Image error)");
-                }
-            } else {
-                System.out.println("❌ InputStream = null - файл не найден по пути: " + imagePath);
+        DetailSource(String sql, Set<String> dependsOn, Object[] params, String imageType, String imageEntity) {
+            this.sql = sql;
+            this.dependsOn = dependsOn;
+            this.params = params;
+            this.imageType = imageType;
+            this.imageEntity = imageEntity;
+        }
+    }
 
-                // ДОПОЛНИТЕЛЬНАЯ ОТЛАДКА: проверим существование папки
-                debugResourceAccess(imagePath);
+    private DetailSource detailSourceFor(Map<String, Object> entity, String entityType) {
+        switch (entityType) {
+            case "Ансамбль": {
+                String name = safeGetString(entity, "name");
+                String membersQuery = "SELECT " + Database.musicianFullName("m") + " as musician_name, em.role " +
+                        "FROM ensemble_members em " +
+                        "JOIN musicians m ON em.musician_id = m.musician_id " +
+                        "WHERE em.ensemble_id = (SELECT ensemble_id FROM ensembles WHERE name = ?)";
+                return new DetailSource(membersQuery, Set.of("ensembles", "musicians", "ensemble_members"),
+                        new Object[]{name}, "ensembles", name);
+            }
+            case "Музыкант": {
+                String firstName = safeGetString(entity, "first_name");
+                String lastName = safeGetString(entity, "last_name");
+                return new DetailSource(MUSICIAN_ENSEMBLES_QUERY, Set.of("ensembles", "musicians", "ensemble_members"),
+                        new Object[]{firstName, lastName}, "musicians", firstName + " " + lastName);
+            }
+            case "Произведение": {
+                String title = safeGetString(entity, "title");
+                return new DetailSource(COMPOSITION_PERFORMANCES_QUERY, Set.of("ensembles", "compositions", "performances"),
+                        new Object[]{title}, "compositions", title);
+            }
+            case "Пластинка": {
+                String title = safeGetString(entity, "title");
+                return new DetailSource(RECORD_TRACKS_QUERY, Set.of("records", "compositions", "record_tracks"),
+                        new Object[]{title}, "records", title);
             }
+            default:
+                throw new IllegalArgumentException("Неизвестный тип сущности: " + entityType);
+        }
+    }
 
-            // Если изображение не найдено, просто очищаем
-            loadDefaultImage(entityType);
-
-        } catch (Exception e) {
-            System.err.println("💥 Ошибка загрузки изображения для " + entityType + ": " + entityName);
-            e.printStackTrace();
-            loadDefaultImage(entityType);
+    /**
+     * Загрузка деталей выбранной записи
+     * Если детали уже загружены заранее (DetailPrefetcher), они показываются сразу
+     */
+    private void loadDetails(DetailSource source, Consumer<List<Map<String, Object>>> onResult) {
+        DetailPrefetcher prefetcher = DetailPrefetcher.getInstance();
+        List<Map<String, Object>> ready = prefetcher.peek(source.sql, source.params);
+        if (ready != null) {
+            onResult.accept(ready);
+            return;
         }
+        loadAsync(detailTasks, () -> prefetcher.query(source.sql, source.dependsOn, source.params).get(), onResult);
     }
 
+    /**
+     * Предзагрузка деталей и изображений соседних строк таблицы
+     * Запросы соседних строк запускаются сразу, изображения декодируются по очереди,
+     * начиная с ближайших строк; при выборе другой строки предзагрузка прекращается
+     */
+    private void prefetchNeighbours(TableView<Map<String, Object>> table, String entityType) {
+        int selected = table.getSelectionModel().getSelectedIndex();
+        List<Map<String, Object>> items = table.getItems();
+        if (selected < 0) return;
+
+        List<DetailSource> sources = new ArrayList<>();
+        List<String> imageNames = new ArrayList<>();
+        for (int distance = 1; distance <= DetailPrefetcher.NEIGHBOUR_ROWS; distance++) {
+            for (int index : new int[]{selected + distance, selected - distance}) {
+                if (index >= 0 && index < items.size()) {
+                    DetailSource source = detailSourceFor(items.get(index), entityType);
+                    sources.add(source);
+                    imageNames.add(generateImageFileName(source.imageEntity));
+                }
+            }
+        }
+
+        long generation = prefetchGeneration.incrementAndGet();
+        ImagePipeline.Size fitting = fittingImageSize();
+        DbExecutor.run(() -> {
+            for (DetailSource source : sources) {
+                DetailPrefetcher.getInstance().prefetch(source.sql, source.dependsOn, source.params);
+            }
+            for (int i = 0; i < sources.size() && prefetchGeneration.get() == generation; i++) {
+                findImage(sources.get(i).imageType, imageNames.get(i), fitting);
+            }
+        });
+    }
 
     /**
-     * Отладочный метод для проверки доступа к ресурсам
+     * Загрузка изображения для сущности - ИСПРАВЛЕННАЯ ВЕРСИЯ
      */
-    private void debugResourceAccess(String imagePath) {
-        try {
-            System.out.println("=== ОТЛАДКА ДОСТУПА К РЕСУРСАМ ===");
+    private void loadEntityImage(String entityName, String entityType) {
+        long request = imageRequest.incrementAndGet();
 
-            // Проверяем доступ к корневой папке ресурсов
-            String rootPath = "/musicstore/";
-            InputStream rootStream = getClass().getResourceAsStream(rootPath);
-            System.out.println("Доступ к корневой папке " + rootPath + ": " + (rootStream != null ? "ЕСТЬ" : "НЕТ"));
+        // Показываем контейнер с изображением
+        showImageContainer();
 
-            // Проверяем доступ к папке images
-            String imagesPath = "/musicstore/iamges/";
-            InputStream imagesStream = getClass().getResourceAsStream(imagesPath);
-            System.out.println("Доступ к папке images " + imagesPath + ": " + (imagesStream != null ? "ЕСТЬ" : "НЕТ"));
+        // Формируем путь к изображению - ТОЛЬКО в папке musicians для музыкантов
+        String imageName = generateImageFileName(entityName);
+        String imagePath = "/musicstore/iamges/" + entityType + "/" + imageName;
 
-            // Пытаемся получить URL ресурса
-            java.net.URL resourceUrl = getClass().getResource(imagePath);
-            System.out.println("URL ресурса " + imagePath + ": " + resourceUrl);
+        System.out.println("🔄 Загрузка изображения для " + entityType + " '" + entityName + "'");
+        System.out.println("   Путь: " + imagePath);
 
-            // Пытаемся получить URL папки
-            java.net.URL folderUrl = getClass().getResource("/musicstore/iamges/");
-            System.out.println("URL папки images: " + folderUrl);
+        // Уже декодированное изображение показывается сразу; поиск в базе, на диске
+        // и декодирование выполняются в фоновом потоке
+        ImagePipeline.Size fitting = fittingImageSize();
+        detailImageView.setImage(peekImage(entityType, imageName, fitting));
 
-            System.out.println("=== КОНЕЦ ОТЛАДКИ ===");
+        loadAsync(detailTasks, () -> findImage(entityType, imageName, fitting), image -> {
+            if (imageRequest.get() != request) return;
+            if (image != null) {
+                detailImageView.setImage(image);
+                System.out.println("✅ УСПЕХ: Изображение загружено для " + entityName);
+            } else {
+                // Если изображение не найдено, просто очищаем
+                loadDefaultImage(entityType);
+            }
+        });
+    }
 
-        } catch (Exception e) {
-            System.err.println("Ошибка при отладке доступа к ресурсам: " + e.getMessage());
+    private ImagePipeline.Size fittingImageSize() {
+        return ImagePipeline.Size.fitting(detailImageView.getFitWidth(), detailImageView.getFitHeight());
+    }
+
+    /**
+     * Поиск наименьшей копии изображения, заполняющей область просмотра (в фоновом потоке)
+     * Если такой копии нет (изображение добавлено до появления копий), берется
+     * следующий размер, в конце - оригинал
+     */
+    private static Image findImage(String entityType, String imageName, ImagePipeline.Size fitting) {
+        ImagePipeline.Size[] sizes = ImagePipeline.Size.values();
+        for (int i = fitting.ordinal(); i < sizes.length; i++) {
+            Image image = ImageCache.getInstance().get(entityType, sizes[i].fileName(imageName));
+            if (image != null) return image;
+        }
+        return null;
+    }
+
+    /**
+     * То же, что findImage, но только среди уже декодированных изображений (для потока JavaFX)
+     */
+    private static Image peekImage(String entityType, String imageName, ImagePipeline.Size fitting) {
+        ImagePipeline.Size[] sizes = ImagePipeline.Size.values();
+        for (int i = fitting.ordinal(); i < sizes.length; i++) {
+            Image image = ImageCache.getInstance().peek(entityType, sizes[i].fileName(imageName));
+            if (image != null) return image;
         }
+        return null;
     }
 
+    /**
+     * Сброс всех размеров изображения в кэше (в фоновом потоке: обновляет перечень файлов)
+     */
+    private static void invalidateImage(String entityType, String imageName) {
+        for (ImagePipeline.Size size : ImagePipeline.Size.values()) {
+            ImageCache.getInstance().invalidate(entityType, size.fileName(imageName));
+        }
+    }
 
     /**
      * Загрузка изображения по умолчанию - ИСПРАВЛЕННЫЙ ПУТЬ
@@ -655,56 +817,251 @@ public class MainController {
 
 
     /**
-     * Загрузка всех данных из базы данных в таблицы
-     */
-    private void loadAllData() {
-        // Загрузка основных сущностей
-        ensemblesTable.setItems(loadData("SELECT * FROM ensembles"));
-        musiciansTable.setItems(loadData("SELECT * FROM musicians"));
-        compositionsTable.setItems(loadData("SELECT * FROM compositions"));
-        recordsTable.setItems(loadData("SELECT * FROM records"));
-
-        // Загрузка связей и дополнительных данных
-        loadRelationData();
-        showSalesLeaders();
-    }
-
-    /**
-     * Метод загрузки связей между данными - С ОБНОВЛЕННЫМ ЗАПРОСОМ ДЛЯ ОТЧЕСТВА
+     * Загрузка состава ансамблей
      */
-    private void loadRelationData() {
-        // Загрузка состава ансамблей - обновленный запрос для отчества
-        String ensembleMembersQuery = "SELECT e.name as ensemble_name, " +
-                "CONCAT(m.first_name, " +
-                "CASE WHEN m.middle_name IS NOT NULL AND m.middle_name != '' THEN ' ' || m.middle_name ELSE '' END, " +
-                "' ', m.last_name) as musician_name, em.role " +
+    private void loadEnsembleMembers() {
+        loadTable(ensembleMembersTable, "SELECT e.name as ensemble_name, " + Database.musicianFullName("m") + " as musician_name, em.role " +
                 "FROM ensemble_members em " +
                 "JOIN ensembles e ON em.ensemble_id = e.ensemble_id " +
                 "JOIN musicians m ON em.musician_id = m.musician_id " +
-                "ORDER BY e.name, em.role";
-
-        ensembleMembersTable.setItems(loadData(ensembleMembersQuery));
+                "ORDER BY e.name, em.role");
+    }
 
-        // Загрузка исполнений
-        String performancesQuery = "SELECT e.name as ensemble_name, c.title as composition_title, p.arrangement " +
+    /**
+     * Загрузка исполнений
+     */
+    private void loadPerformances() {
+        loadTable(performancesTable, "SELECT e.name as ensemble_name, c.title as composition_title, p.arrangement " +
                 "FROM performances p " +
                 "JOIN ensembles e ON p.ensemble_id = e.ensemble_id " +
                 "JOIN compositions c ON p.composition_id = c.composition_id " +
-                "ORDER BY e.name, c.title";
-        performancesTable.setItems(loadData(performancesQuery));
+                "ORDER BY e.name, c.title");
+    }
 
-        // Загрузка треков на пластинках
-        String recordTracksQuery = "SELECT r.title as record_title, c.title as composition_title, rt.track_number " +
+    /**
+     * Загрузка треков на пластинках
+     */
+    private void loadRecordTracks() {
+        loadTable(recordTracksTable, "SELECT r.title as record_title, c.title as composition_title, rt.track_number " +
                 "FROM record_tracks rt " +
                 "JOIN records r ON rt.record_id = r.record_id " +
                 "JOIN compositions c ON rt.composition_id = c.composition_id " +
-                "ORDER BY r.title, rt.track_number";
-        recordTracksTable.setItems(loadData(recordTracksQuery));
+                "ORDER BY r.title, rt.track_number");
+    }
+
+    /**
+     * Заполнение таблиц основных сущностей из кэша
+     */
+    private void loadEntityTables() {
+        loadTable(ensemblesTable, EntityCache.ENSEMBLES);
+        loadTable(musiciansTable, EntityCache.MUSICIANS);
+        loadTable(compositionsTable, EntityCache.COMPOSITIONS);
+        loadTable(recordsTable, EntityCache.RECORDS);
+    }
+
+    /**
+     * Отметка об изменении таблиц базы данных
+     * Вкладки, показывающие эти таблицы, считаются устаревшими; открытая вкладка
+     * обновляется сразу, остальные - при переходе на них.
+     * Вызывается в потоке JavaFX после изменения данных в приложении или в базе
+     * @param tables имена измененных таблиц
+     */
+    private void markTablesChanged(String... tables) {
+        QueryResultCache.ANALYTICS.invalidate(tables);
+        DetailPrefetcher.getInstance().invalidate(tables);
+        for (Map.Entry<String, Set<String>> entry : TAB_TABLES.entrySet()) {
+            for (String table : tables) {
+                if (entry.getValue().contains(table)) {
+                    dirtyTabs.add(entry.getKey());
+                    break;
+                }
+            }
+        }
+        Tab selectedTab = tabPane.getSelectionModel().getSelectedItem();
+        if (selectedTab != null && dirtyTabs.contains(selectedTab.getText())) {
+            refreshCurrentTab();
+        }
+    }
+
+    /**
+     * Фоновая загрузка строк кэша в таблицу
+     * Список таблицы изменяется на месте (patchRows), поэтому перерисовываются только
+     * изменившиеся строки, а прокрутка таблицы сохраняется
+     */
+    private CompletableFuture<Void> loadTable(TableView<Map<String, Object>> table, EntityCache cache) {
+        return loadRows(table, cache::getAll, rows -> patchRows(table.getItems(), rows, cache.getIdColumn()));
+    }
+
+    /**
+     * Приведение списка таблицы к строкам кэша с минимальным числом изменений
+     * Строки обоих списков идут по возрастанию ключа; строка, объект которой
+     * не изменился, не трогается. При большом числе изменений (например, после
+     * полной перезагрузки кэша) список заменяется целиком одной операцией.
+     * @param items список, отображаемый таблицей
+     * @param rows актуальные строки в порядке ключа
+     * @param idColumn колонка первичного ключа
+     */
+    private static void patchRows(javafx.collections.ObservableList<Map<String, Object>> items,
+                                  List<Map<String, Object>> rows, String idColumn) {
+        int changes = Math.abs(items.size() - rows.size());
+        for (int i = 0; i < Math.min(items.size(), rows.size()) && changes <= PATCH_LIMIT; i++) {
+            if (items.get(i) != rows.get(i)) changes++;
+        }
+        if (changes > PATCH_LIMIT) {
+            items.setAll(rows);
+            return;
+        }
 
-        // Принудительно обновляем отображение таблиц
-        ensembleMembersTable.refresh();
-        performancesTable.refresh();
-        recordTracksTable.refresh();
+        // Слияние по ключу: после каждого шага items[0..i) совпадает с rows[0..j)
+        int i = 0;
+        for (int j = 0; j < rows.size(); ) {
+            Map<String, Object> row = rows.get(j);
+            if (i >= items.size()) {
+                items.addAll(rows.subList(j, rows.size()));
+                return;
+            }
+            Map<String, Object> current = items.get(i);
+            int order = Long.compare(rowKey(current, idColumn), rowKey(row, idColumn));
+            if (order < 0) {
+                // Строка удалена
+                items.remove(i);
+            } else if (order > 0) {
+                // Строка добавлена
+                items.add(i++, row);
+                j++;
+            } else {
+                if (current != row) {
+                    items.set(i, row);
+                }
+                i++;
+                j++;
+            }
+        }
+        if (i < items.size()) {
+            items.remove(i, items.size());
+        }
+    }
+
+    private static long rowKey(Map<String, Object> row, String idColumn) {
+        Object id = row.get(idColumn);
+        return id instanceof Number ? ((Number) id).longValue() : Long.parseLong(String.valueOf(id).trim());
+    }
+
+    /**
+     * Фоновая загрузка данных в таблицу
+     * Пока запрос выполняется, таблица показывает индикатор загрузки. Новая загрузка
+     * той же таблицы отменяет предыдущую, а уход с вкладки отменяет все ее загрузки.
+     * @param table таблица для заполнения
+     * @param query SQL запрос для выполнения
+     * @return future, завершающийся в потоке JavaFX после заполнения таблицы
+     */
+    private CompletableFuture<Void> loadTable(TableView<Map<String, Object>> table, String query) {
+        return loadTable(table, () -> loadData(query));
+    }
+
+    /**
+     * Фоновая загрузка данных в таблицу
+     * @param table таблица для заполнения
+     * @param loader загрузка строк в фоновом потоке
+     */
+    private CompletableFuture<Void> loadTable(TableView<Map<String, Object>> table,
+                                              Callable<javafx.collections.ObservableList<Map<String, Object>>> loader) {
+        return loadRows(table, loader, table::setItems);
+    }
+
+    /**
+     * Фоновая загрузка строк таблицы
+     * @param loader загрузка строк в фоновом потоке
+     * @param apply отображение строк в потоке JavaFX
+     */
+    private <T> CompletableFuture<Void> loadRows(TableView<Map<String, Object>> table, Callable<T> loader, Consumer<T> apply) {
+        CompletableFuture<?> previous = (CompletableFuture<?>) table.getProperties().get(LOAD_KEY);
+        if (previous != null) {
+            previous.cancel(true);
+        }
+
+        setTableLoading(table, true);
+        CompletableFuture<T> load = tasksFor(table).supply(loader);
+        table.getProperties().put(LOAD_KEY, load);
+
+        return load.thenAcceptAsync(apply, DbExecutor.FX)
+                .whenCompleteAsync((ignored, error) -> {
+                    if (table.getProperties().get(LOAD_KEY) == load) {
+                        table.getProperties().remove(LOAD_KEY);
+                        setTableLoading(table, false);
+                    }
+                    if (error != null && !DbExecutor.isCancellation(error)) {
+                        System.err.println("Ошибка загрузки таблицы: " + error.getMessage());
+                    }
+                }, DbExecutor.FX);
+    }
+
+    /**
+     * Включение и выключение индикатора загрузки таблицы
+     */
+    private void setTableLoading(TableView<Map<String, Object>> table, boolean loading) {
+        if (loading) {
+            if (!table.getProperties().containsKey(PLACEHOLDER_KEY)) {
+                table.getProperties().put(PLACEHOLDER_KEY, table.getPlaceholder());
+            }
+            ProgressIndicator indicator = new ProgressIndicator();
+            indicator.setMaxSize(40, 40);
+            table.setPlaceholder(indicator);
+            table.setOpacity(0.6);
+        } else {
+            table.setPlaceholder((Node) table.getProperties().remove(PLACEHOLDER_KEY));
+            table.setOpacity(1.0);
+        }
+    }
+
+    /**
+     * Группа фоновых запросов вкладки, на которой расположен элемент
+     */
+    private DbExecutor.TaskGroup tasksFor(Node node) {
+        for (Tab tab : tabPane.getTabs()) {
+            for (Node current = node; current != null; current = current.getParent()) {
+                if (current == tab.getContent()) {
+                    return tabTasks.computeIfAbsent(tab, t -> new DbExecutor.TaskGroup(t.getText()));
+                }
+            }
+        }
+        return backgroundTasks;
+    }
+
+    /**
+     * Выполнение запроса в фоновом потоке с передачей результата в поток JavaFX
+     * Ошибки выводятся в лог, результат отмененного запроса не передается
+     * @param group группа запросов для отмены
+     * @param work работа с базой данных
+     * @param onResult обработчик результата в потоке JavaFX
+     */
+    private <T> CompletableFuture<Void> loadAsync(DbExecutor.TaskGroup group, Callable<T> work, Consumer<T> onResult) {
+        CompletableFuture<Void> delivered = group.supply(work).thenAcceptAsync(onResult, DbExecutor.FX);
+        delivered.whenComplete((ignored, error) -> {
+            if (error != null && !DbExecutor.isCancellation(error)) {
+                System.err.println("Ошибка фонового запроса: " + error.getMessage());
+            }
+        });
+        return delivered;
+    }
+
+    /**
+     * Выполнение изменения данных в фоновом потоке с передачей результата в поток JavaFX
+     * Изменения не отменяются при смене вкладки; об ошибке сообщается пользователю
+     * @param work изменение данных (запрос, журнал действий)
+     * @param onResult обработчик результата в потоке JavaFX
+     */
+    private <T> CompletableFuture<Void> writeAsync(Callable<T> work, Consumer<T> onResult) {
+        CompletableFuture<Void> delivered = DbExecutor.supply(work).thenAcceptAsync(onResult, DbExecutor.FX);
+        delivered.whenCompleteAsync((ignored, error) -> {
+            // Изменения записываются в журнал действий
+            markTablesChanged("user_actions");
+            if (error != null) {
+                System.err.println("Ошибка фоновой операции: " + error.getMessage());
+                showAlert("Ошибка", "Ошибка при выполнении операции");
+            }
+        }, DbExecutor.FX);
+        return delivered;
     }
 
     /**
@@ -736,13 +1093,7 @@ public class MainController {
      */
     private void populateAllSelectors() {
         // Заполнение выпадающих списков основными сущностями - ИСПРАВЛЕНО: убраны ID
-        populateComboBox(ensembleSelector, "SELECT ensemble_id, name FROM ensembles");
-        populateComboBox(musicianSelector, "SELECT musician_id, first_name, last_name FROM musicians");
-        populateComboBox(performanceEnsembleSelector, "SELECT ensemble_id, name FROM ensembles");
-        populateComboBox(performanceCompositionSelector, "SELECT composition_id, title FROM compositions");
-        populateComboBox(trackRecordSelector, "SELECT record_id, title FROM records");
-        populateComboBox(trackCompositionSelector, "SELECT composition_id, title FROM compositions");
-        populateComboBox(recordSelector, "SELECT record_id, title FROM records");
+        refreshSelectors();
 
         // Настройка списка аналитики
         analyticsSelector.getItems().clear();
@@ -751,83 +1102,45 @@ public class MainController {
     }
 
     /**
-     * Метод заполнения выпадающих списков данными из базы - С ОБНОВЛЕНИЕМ ДЛЯ ОТЧЕСТВА
+     * Привязка выпадающих списков к общим спискам названий
+     * Списки одного типа сущности (например, все списки ансамблей) используют один ObservableList
      */
-    private void populateComboBox(ComboBox<String> combo, String query) {
-        combo.getItems().clear();
-        List<Map<String, Object>> data = Database.executeQuery(query);
+    private void bindSelectors() {
+        ensembleSelector.setItems(LookupList.ENSEMBLES.getItems());
+        musicianSelector.setItems(LookupList.MUSICIANS.getItems());
+        performanceEnsembleSelector.setItems(LookupList.ENSEMBLES.getItems());
+        performanceCompositionSelector.setItems(LookupList.COMPOSITIONS.getItems());
+        trackRecordSelector.setItems(LookupList.RECORDS.getItems());
+        trackCompositionSelector.setItems(LookupList.COMPOSITIONS.getItems());
+        recordSelector.setItems(LookupList.RECORDS.getItems());
+    }
 
-        for (Map<String, Object> item : data) {
-            String display = null;
-            if (item.containsKey("ensemble_id") && item.containsKey("name")) {
-                display = item.get("name").toString(); // только название
-            }
-            else if (item.containsKey("musician_id") && item.containsKey("first_name") && item.containsKey("last_name")) {
-                // Формируем полное имя с отчеством
-                String firstName = item.get("first_name").toString();
-                String lastName = item.get("last_name").toString();
-                String middleName = item.containsKey("middle_name") && item.get("middle_name") != null
-                        ? item.get("middle_name").toString()
-                        : "";
-
-                display = firstName;
-                if (!middleName.isEmpty()) {
-                    display += " " + middleName;
+    /**
+     * Обновление общих списков названий
+     * Загружаются только списки, данные которых изменились с прошлого обновления
+     */
+    private void refreshSelectors() {
+        LookupList.refreshAll().thenRunAsync(() -> {
+            for (ComboBox<String> combo : List.of(ensembleSelector, musicianSelector, performanceEnsembleSelector,
+                    performanceCompositionSelector, trackRecordSelector, trackCompositionSelector, recordSelector)) {
+                // Выбранное значение сохраняется, если оно осталось в списке
+                if (combo.getValue() == null || !combo.getItems().contains(combo.getValue())) {
+                    combo.getSelectionModel().selectFirst();
                 }
-                display += " " + lastName;
             }
-            else if (item.containsKey("composition_id") && item.containsKey("title")) {
-                display = item.get("title").toString();
-            }
-            else if (item.containsKey("record_id") && item.containsKey("title")) {
-                display = item.get("title").toString();
-            }
-
-            if (display != null && !display.trim().isEmpty()) {
-                combo.getItems().add(display.trim());
-            }
-        }
-
-        if (!combo.getItems().isEmpty()) {
-            combo.getSelectionModel().selectFirst();
-        }
+        }, DbExecutor.FX);
     }
 
     /**
-     * Метод заполнения ComboBox для редактирования связей - ИСПРАВЛЕНО: убраны ID
+     * Заполнение ComboBox для редактирования связей общим списком названий
      */
-    private void populateComboBoxForEdit(ComboBox<String> combo, String query) {
-        combo.getItems().clear();
-        List<Map<String, Object>> data = Database.executeQuery(query);
-        for (Map<String, Object> item : data) {
-            // Создаем строку отображения БЕЗ ID - только название
-            String display = "";
-            if (item.containsKey("ensemble_id") && item.containsKey("name")) {
-                display = item.get("name").toString(); // ИСПРАВЛЕНИЕ: только название
-            }
-            else if (item.containsKey("musician_id") && item.containsKey("first_name") && item.containsKey("last_name")) {
-                display = item.get("first_name") + " " + item.get("last_name"); // ИСПРАВЛЕНИЕ: только имя и фамилия
-            }
-            else if (item.containsKey("composition_id") && item.containsKey("title")) {
-                display = item.get("title").toString(); // ИСПРАВЛЕНИЕ: только название
-            }
-            else if (item.containsKey("record_id") && item.containsKey("title")) {
-                display = item.get("title").toString(); // ИСПРАВЛЕНИЕ: только название
-            }
-            // Добавляем обработку для запроса с CONCAT
-            else if (item.containsKey("musician_id") && item.containsKey("name")) {
-                display = item.get("name").toString(); // ИСПРАВЛЕНИЕ: только название
-            }
-
-            if (!display.isEmpty()) {
-                combo.getItems().add(display);
-            }
-        }
-
-        // Устанавливаем первый элемент по умолчанию, если список не пуст
-        if (!combo.getItems().isEmpty()) {
-            combo.setValue(combo.getItems().get(0));
-        }
+    private void bindComboBoxForEdit(ComboBox<String> combo, LookupList list, String currentValue) {
+        combo.setItems(list.getItems());
+        combo.setPromptText("Загрузка...");
+        list.refresh().thenRunAsync(() -> {
+            combo.setPromptText(null);
+            setCurrentValueInComboBox(combo, currentValue);
+        }, DbExecutor.FX);
     }
 
     /**
@@ -869,6 +1182,17 @@ public class MainController {
         loadAnalyticsData();
     }
 
+    /**
+     * Загрузка результата аналитики в таблицу аналитики
+     * Результат берется из кэша, пока не истек его срок и не изменились таблицы, от которых он зависит
+     * @param query запрос аналитики
+     * @param dependsOn таблицы, от которых зависит результат
+     */
+    private CompletableFuture<Void> loadAnalytics(String query, String... dependsOn) {
+        return loadTable(analyticsTable, () -> FXCollections.observableArrayList(
+                QueryResultCache.ANALYTICS.get(query, Set.of(dependsOn), () -> loadData(query))));
+    }
+
     /**
      * Загрузка полной информации о пластинках
      */
@@ -879,8 +1203,8 @@ public class MainController {
                 new String[]{"record_title", "ensemble_name", "compositions_count", "total_duration", "musicians_count", "current_year_sales", "total_revenue"},
                 new String[]{"Пластинка", "Ансамбль", "Треков", "Длительность", "Музыкантов", "Продажи", "Выручка"});
 
-        analyticsTable.setItems(loadData(query));
-        resultArea.setText("Полная информация о пластинках с ансамблями, количеством треков и финансовыми показателями\nЗагружено записей: " + analyticsTable.getItems().size());
+        loadAnalytics(query, "records", QueryResultCache.SALES, "record_tracks", "performances", "ensembles", "ensemble_members").thenRun(() ->
+                resultArea.setText("Полная информация о пластинках с ансамблями, количеством треков и финансовыми показателями\nЗагружено записей: " + analyticsTable.getItems().size()));
     }
 
     /**
@@ -893,22 +1217,22 @@ public class MainController {
                 new String[]{"ensemble_name", "compositions_count", "musicians_count", "records_count"},
                 new String[]{"Ансамбль", "Произведений", "Музыкантов", "Пластинок"});
 
-        analyticsTable.setItems(loadData(query));
-        resultArea.setText("Рейтинг ансамблей по количеству произведений в репертуаре\nЗагружено ансамблей: " + analyticsTable.getItems().size());
+        loadAnalytics(query, "ensembles", "performances", "ensemble_members", "record_tracks", "records").thenRun(() ->
+                resultArea.setText("Рейтинг ансамблей по количеству произведений в репертуаре\nЗагружено ансамблей: " + analyticsTable.getItems().size()));
     }
 
     /**
      * Загрузка рейтинга музыкантов по количеству ансамблей
      */
     private void loadMusiciansByEnsembles() {
-        String query = "SELECT CONCAT(m.first_name, ' ', m.last_name) as musician_name, COUNT(DISTINCT em.ensemble_id) as ensembles_count, GROUP_CONCAT(DISTINCT e.name SEPARATOR ', ') as ensemble_names, COUNT(DISTINCT p.composition_id) as compositions_count FROM musicians m LEFT JOIN ensemble_members em ON m.musician_id = em.musician_id LEFT JOIN ensembles e ON em.ensemble_id = e.ensemble_id LEFT JOIN performances p ON e.ensemble_id = p.ensemble_id GROUP BY m.musician_id ORDER BY ensembles_count DESC, compositions_count DESC";
+        String query = "SELECT " + Database.musicianFullName("m") + " as musician_name, COUNT(DISTINCT em.ensemble_id) as ensembles_count, GROUP_CONCAT(DISTINCT e.name SEPARATOR ', ') as ensemble_names, COUNT(DISTINCT p.composition_id) as compositions_count FROM musicians m LEFT JOIN ensemble_members em ON m.musician_id = em.musician_id LEFT JOIN ensembles e ON em.ensemble_id = e.ensemble_id LEFT JOIN performances p ON e.ensemble_id = p.ensemble_id GROUP BY m.musician_id ORDER BY ensembles_count DESC, compositions_count DESC";
 
         setupTable(analyticsTable,
                 new String[]{"musician_name", "ensembles_count", "ensemble_names", "compositions_count"},
                 new String[]{"Музыкант", "Ансамблей", "Состав ансамблей", "Произведений"});
 
-        analyticsTable.setItems(loadData(query));
-        resultArea.setText("Рейтинг музыкантов по количеству ансамблей и произведений\nЗагружено музыкантов: " + analyticsTable.getItems().size());
+        loadAnalytics(query, "musicians", "ensemble_members", "ensembles", "performances").thenRun(() ->
+                resultArea.setText("Рейтинг музыкантов по количеству ансамблей и произведений\nЗагружено музыкантов: " + analyticsTable.getItems().size()));
     }
 
     /**
@@ -921,8 +1245,8 @@ public class MainController {
                 new String[]{"composition_title", "creation_year", "ensembles_count", "records_count", "performing_ensembles"},
                 new String[]{"Произведение", "Год", "Ансамблей", "Пластинок", "Исполняющие ансамбли"});
 
-        analyticsTable.setItems(loadData(query));
-        resultArea.setText("Популярность произведений по количеству записей и исполняющих ансамблей\nЗагружено произведений: " + analyticsTable.getItems().size());
+        loadAnalytics(query, "compositions", "performances", "ensembles", "record_tracks").thenRun(() ->
+                resultArea.setText("Популярность произведений по количеству записей и исполняющих ансамблей\nЗагружено произведений: " + analyticsTable.getItems().size()));
     }
 
     /**
@@ -935,8 +1259,8 @@ public class MainController {
                 new String[]{"record_title", "current_year_sales", "retail_price", "wholesale_price", "total_revenue", "total_profit", "remaining_stock", "sales_percentage"},
                 new String[]{"Пластинка", "Продажи", "Розница", "Опт", "Выручка", "Прибыль", "Остаток", "% продаж"});
 
-        analyticsTable.setItems(loadData(query));
-        resultArea.setText("Финансовая аналитика: выручка, прибыль и эффективность продаж\nЗагружено пластинок: " + analyticsTable.getItems().size());
+        loadAnalytics(query, "records", QueryResultCache.SALES).thenRun(() ->
+                resultArea.setText("Финансовая аналитика: выручка, прибыль и эффективность продаж\nЗагружено пластинок: " + analyticsTable.getItems().size()));
     }
 
     /**
@@ -952,22 +1276,24 @@ public class MainController {
                 return;
             }
 
-            int count = Database.getEnsembleCompositionsCount(name);
-            List<Map<String, Object>> records = Database.getEnsembleRecords(name);
+            resultArea.setText("Поиск...");
+            loadAsync(tasksFor(resultArea), () -> {
+                int count = Database.getEnsembleCompositionsCount(name);
+                List<Map<String, Object>> records = Database.getEnsembleRecords(name);
 
-            StringBuilder result = new StringBuilder();
-            result.append("Ансамбль '").append(name).append("'\n");
-            result.append("Исполняет ").append(count).append(" произведений\n");
-            result.append("Выпущено пластинок: ").append(records.size()).append("\n\n");
+                StringBuilder result = new StringBuilder();
+                result.append("Ансамбль '").append(name).append("'\n");
+                result.append("Исполняет ").append(count).append(" произведений\n");
+                result.append("Выпущено пластинок: ").append(records.size()).append("\n\n");
 
-            if (!records.isEmpty()) {
-                result.append("Пластинки с участием ансамбля:\n");
-                for (Map<String, Object> record : records) {
-                    result.append("• ").append(record.get("title")).append(" (продажи: ").append(record.get("current_year_sales")).append(")\n");
+                if (!records.isEmpty()) {
+                    result.append("Пластинки с участием ансамбля:\n");
+                    for (Map<String, Object> record : records) {
+                        result.append("• ").append(record.get("title")).append(" (продажи: ").append(record.get("current_year_sales")).append(")\n");
+                    }
                 }
-            }
-
-            resultArea.setText(result.toString());
+                return result.toString();
+            }, resultArea::setText);
         } else {
             resultArea.setText("Введите название ансамбля");
         }
@@ -978,8 +1304,10 @@ public class MainController {
      */
     @FXML
     private void showSalesLeaders() {
-        salesLeadersTable.setItems(loadData("SELECT title, current_year_sales, retail_price, remaining_stock FROM records ORDER BY current_year_sales DESC LIMIT 10"));
-        resultArea.setText("Отображены лидеры продаж за текущий год\nТоп-10 пластинок по продажам");
+        // Лидеры берутся из рейтинга в памяти, без запроса к базе
+        int size = SalesLeaderboard.DEFAULT_SIZE;
+        loadTable(salesLeadersTable, () -> FXCollections.observableArrayList(SalesLeaderboard.getInstance().top(size)));
+        resultArea.setText("Отображены лидеры продаж за текущий год\nТоп-" + size + " пластинок по продажам");
     }
 
     /**
@@ -1010,19 +1338,23 @@ public class MainController {
                     if (result.isPresent() && result.get() == ButtonType.OK) {
                         // ИСПРАВЛЕНИЕ: получаем ID по названию записи
                         String recordTitle = record; // Теперь record содержит только название
-                        String recordId = getEntityIdFromName("records", "title", recordTitle);
-
-                        if (!recordId.equals("0") && Database.updateRecordSales(Integer.parseInt(recordId), sales)) {
-                            UserActionLogger.logAction(currentUserEmail, "Обновление продаж", "Пластинка",
-                                    "Обновлены продажи для пластинки: " + record + " на +" + sales + " единиц");
-                            loadAllData();
-                            showSalesLeaders();
-                            loadAnalyticsData();
-                            resultArea.setText("Продажи обновлены для: " + record);
-                            salesUpdateField.clear();
-                        } else {
-                            resultArea.setText("Ошибка обновления продаж");
-                        }
+                        // Продажа учитывается в накопителе и записывается в базу пакетом
+                        writeAsync(() -> {
+                            String recordId = getEntityIdFromName("records", "title", recordTitle);
+                            if (recordId.equals("0")) return false;
+                            // В журнал действий продажа попадает после записи в базу (logSalesFlushed)
+                            SalesAccumulator.getInstance().record(Integer.parseInt(recordId), sales);
+                            return true;
+                        }, recorded -> {
+                            if (recorded) {
+                                resultArea.setText("Продажа принята для: " + record + " (+" + sales + "), " +
+                                        "будет записана в базу при ближайшем сбросе\n" +
+                                        SalesAccumulator.getInstance().getStats());
+                                salesUpdateField.clear();
+                            } else {
+                                resultArea.setText("Ошибка обновления продаж");
+                            }
+                        });
                     }
                 } else {
                     resultArea.setText("Введите положительное число");
@@ -1035,6 +1367,66 @@ public class MainController {
         }
     }
 
+    /**
+     * Запись в журнал действий продаж, записанных в базу и отклоненных (в потоке сброса)
+     * @return сообщение для пользователя
+     */
+    private String logSalesFlushed(Map<Integer, Long> applied, Map<Integer, Long> rejected) {
+        StringBuilder report = new StringBuilder();
+        applied.forEach((recordId, units) -> {
+            String details = "Обновлены продажи для пластинки: " + recordTitle(recordId) + " на +" + units + " единиц";
+            UserActionLogger.logAction(currentUserEmail, "Обновление продаж", "Пластинка", details);
+            report.append("Продажи учтены для: ").append(recordTitle(recordId)).append(" (+").append(units).append(")\n");
+        });
+        rejected.forEach((recordId, units) -> {
+            String details = "Отклонены продажи для пластинки: " + recordTitle(recordId) + " (" + units +
+                    " единиц): недостаточно пластинок на складе";
+            UserActionLogger.logAction(currentUserEmail, "Обновление продаж", "Пластинка", details);
+            report.append(details).append("\n");
+        });
+        return report.toString();
+    }
+
+    private static String recordTitle(int recordId) {
+        Map<String, Object> row = EntityCache.RECORDS.get(recordId);
+        return row == null ? "#" + recordId : String.valueOf(row.get("title"));
+    }
+
+    /**
+     * Обновление данных после записи накопленных продаж в базу
+     */
+    private void onSalesFlushed(Map<Integer, Long> applied, String report) {
+        if (!applied.isEmpty()) {
+            // Перечитываются только пластинки, продажи которых записаны
+            loadAsync(backgroundTasks, () -> {
+                EntityCache.RECORDS.refresh(applied.keySet());
+                return null;
+            }, ignored -> markTablesChanged(QueryResultCache.SALES));
+        }
+        if (!report.isEmpty()) {
+            resultArea.setText(report.trim());
+            markTablesChanged("user_actions");
+        }
+    }
+
+    /**
+     * Обновление данных, измененных в базе
+     * В кэш догружаются только изменившиеся строки, затем обновляются зависящие вкладки
+     */
+    private void onTablesChanged(Set<String> tables) {
+        loadAsync(backgroundTasks, () -> {
+            // Основная таблица, изменения которой уже в кэше (например, собственные), не обновляется
+            List<String> changed = new ArrayList<>();
+            for (String table : tables) {
+                EntityCache cache = EntityCache.forTable(table);
+                if (cache == null || cache.sync()) {
+                    changed.add(table);
+                }
+            }
+            return changed;
+        }, changed -> markTablesChanged(changed.toArray(new String[0])));
+    }
+
     // Методы добавления основных сущностей
 
     /**
@@ -1062,16 +1454,24 @@ public class MainController {
         Optional<ButtonType> result = confirmAlert.showAndWait();
         if (result.isPresent() && result.get() == ButtonType.OK) {
             String query = String.format("INSERT INTO ensembles (name, type, description) VALUES ('%s', '%s', '%s')", sanitize(ensembleName.getText()), sanitize(ensembleType.getText()), sanitize(ensembleDesc.getText()));
-            if (Database.executeUpdate(query)) {
+            String name = ensembleName.getText();
+            writeAsync(() -> {
+                long id = Database.executeInsert(query);
+                if (id < 0) return false;
+                EntityCache.ENSEMBLES.refresh(id);
                 UserActionLogger.logAction(currentUserEmail, "Добавление", "Ансамбль",
-                        "Добавлен ансамбль: " + ensembleName.getText());
-                loadAllData();
-                populateAllSelectors();
-                clearFields();
-                showAlert("Успех", "Ансамбль добавлен");
-            } else {
-                showAlert("Ошибка", "Не удалось добавить ансамбль");
-            }
+                        "Добавлен ансамбль: " + name);
+                return true;
+            }, added -> {
+                if (added) {
+                    markTablesChanged("ensembles");
+                    refreshSelectors();
+                    clearFields();
+                    showAlert("Успех", "Ансамбль добавлен");
+                } else {
+                    showAlert("Ошибка", "Не удалось добавить ансамбль");
+                }
+            });
         }
     }
 
@@ -1111,22 +1511,28 @@ public class MainController {
 
             System.out.println("Executing query: " + query);
 
-            if (Database.executeUpdate(query)) {
-                // Формируем полное имя для лога
-                String fullNameForLog = musicianFirstName.getText().trim() + " " +
-                        (middleNameValue.isEmpty() ? "" : musicianMiddleName.getText().trim() + " ") +
-                        musicianLastName.getText().trim();
+            // Формируем полное имя для лога
+            String fullNameForLog = musicianFirstName.getText().trim() + " " +
+                    (middleNameValue.isEmpty() ? "" : musicianMiddleName.getText().trim() + " ") +
+                    musicianLastName.getText().trim();
 
+            writeAsync(() -> {
+                long id = Database.executeInsert(query);
+                if (id < 0) return false;
+                EntityCache.MUSICIANS.refresh(id);
                 UserActionLogger.logAction(currentUserEmail, "Добавление", "Музыкант",
                         "Добавлен музыкант: " + fullNameForLog);
-
-                loadAllData();
-                populateAllSelectors();
-                clearFields();
-                showAlert("Успех", "Музыкант " + fullNameForLog + " успешно добавлен");
-            } else {
-                showAlert("Ошибка", "Не удалось добавить музыканта. Возможно, такой музыкант уже существует.");
-            }
+                return true;
+            }, added -> {
+                if (added) {
+                    markTablesChanged("musicians");
+                    refreshSelectors();
+                    clearFields();
+                    showAlert("Успех", "Музыкант " + fullNameForLog + " успешно добавлен");
+                } else {
+                    showAlert("Ошибка", "Не удалось добавить музыканта. Возможно, такой музыкант уже существует.");
+                }
+            });
         }
     }
 
@@ -1166,16 +1572,24 @@ public class MainController {
         if (result.isPresent() && result.get() == ButtonType.OK) {
             String year = compositionYear.getText().isEmpty() ? "NULL" : compositionYear.getText();
             String query = String.format("INSERT INTO compositions (title, creation_year) VALUES ('%s', %s)", sanitize(compositionTitle.getText()), year);
-            if (Database.executeUpdate(query)) {
+            String title = compositionTitle.getText();
+            writeAsync(() -> {
+                long id = Database.executeInsert(query);
+                if (id < 0) return false;
+                EntityCache.COMPOSITIONS.refresh(id);
                 UserActionLogger.logAction(currentUserEmail, "Добавление", "Произведение",
-                        "Добавлено произведение: " + compositionTitle.getText());
-                loadAllData();
-                populateAllSelectors();
-                clearFields();
-                showAlert("Успех", "Произведение добавлено");
-            } else {
-                showAlert("Ошибка", "Не удалось добавить произведение");
-            }
+                        "Добавлено произведение: " + title);
+                return true;
+            }, added -> {
+                if (added) {
+                    markTablesChanged("compositions");
+                    refreshSelectors();
+                    clearFields();
+                    showAlert("Успех", "Произведение добавлено");
+                } else {
+                    showAlert("Ошибка", "Не удалось добавить произведение");
+                }
+            });
         }
     }
 
@@ -1251,16 +1665,24 @@ public class MainController {
             String discs = recordDiscs.getText().isEmpty() ? "1" : recordDiscs.getText();
 
             String query = String.format("INSERT INTO records (title, wholesale_price, retail_price, disc_count) VALUES ('%s', %s, %s, %s)", sanitize(recordTitle.getText()), wholesale, retail, discs);
-            if (Database.executeUpdate(query)) {
+            String title = recordTitle.getText();
+            writeAsync(() -> {
+                long id = Database.executeInsert(query);
+                if (id < 0) return false;
+                EntityCache.RECORDS.refresh(id);
                 UserActionLogger.logAction(currentUserEmail, "Добавление", "Пластинка",
-                        "Добавлена пластинка: " + recordTitle.getText());
-                loadAllData();
-                populateAllSelectors();
-                clearFields();
-                showAlert("Успех", "Пластинка добавлена");
-            } else {
-                showAlert("Ошибка", "Не удалось добавить пластинку");
-            }
+                        "Добавлена пластинка: " + title);
+                return true;
+            }, added -> {
+                if (added) {
+                    markTablesChanged("records");
+                    refreshSelectors();
+                    clearFields();
+                    showAlert("Успех", "Пластинка добавлена");
+                } else {
+                    showAlert("Ошибка", "Не удалось добавить пластинку");
+                }
+            });
         }
     }
 
@@ -1286,31 +1708,33 @@ public class MainController {
 
         Optional<ButtonType> result = confirmAlert.showAndWait();
         if (result.isPresent() && result.get() == ButtonType.OK) {
-            try {
-                // ИСПРАВЛЕНИЕ: получаем ID по названиям
-                String ensembleName = ensembleSelector.getValue();
-                String musicianName = musicianSelector.getValue();
+            // ИСПРАВЛЕНИЕ: получаем ID по названиям
+            String ensembleName = ensembleSelector.getValue();
+            String musicianName = musicianSelector.getValue();
+            String role = memberRole.getText();
 
+            // null - сущности не найдены
+            writeAsync(() -> {
                 String ensembleId = getEntityIdFromName("ensembles", "name", ensembleName);
                 String musicianId = getMusicianIdFromName(musicianName);
-
-                if (!ensembleId.equals("0") && !musicianId.equals("0")) {
-                    String query = String.format("INSERT INTO ensemble_members (ensemble_id, musician_id, role) VALUES (%s, %s, '%s')", ensembleId, musicianId, sanitize(memberRole.getText()));
-                    if (Database.executeUpdate(query)) {
-                        UserActionLogger.logAction(currentUserEmail, "Добавление", "Состав ансамбля",
-                                "Добавлен музыкант " + musicianName + " в ансамбль " + ensembleName + " с ролью: " + memberRole.getText());
-                        loadRelationData();
-                        memberRole.clear();
-                        showAlert("Успех", "Музыкант добавлен в ансамбль");
-                    } else {
-                        showAlert("Ошибка", "Не удалось добавить музыканта в ансамбль");
-                    }
-                } else {
+                if (ensembleId.equals("0") || musicianId.equals("0")) return null;
+
+                String query = String.format("INSERT INTO ensemble_members (ensemble_id, musician_id, role) VALUES (%s, %s, '%s')", ensembleId, musicianId, sanitize(role));
+                if (!Database.executeUpdate(query)) return false;
+                UserActionLogger.logAction(currentUserEmail, "Добавление", "Состав ансамбля",
+                        "Добавлен музыкант " + musicianName + " в ансамбль " + ensembleName + " с ролью: " + role);
+                return true;
+            }, added -> {
+                if (added == null) {
                     showAlert("Ошибка", "Не удалось найти выбранные сущности");
+                } else if (added) {
+                    markTablesChanged("ensemble_members");
+                    memberRole.clear();
+                    showAlert("Успех", "Музыкант добавлен в ансамбль");
+                } else {
+                    showAlert("Ошибка", "Не удалось добавить музыканта в ансамбль");
                 }
-            } catch (Exception e) {
-                showAlert("Ошибка", "Неверный формат данных");
-            }
+            });
         }
     }
 
@@ -1335,31 +1759,33 @@ public class MainController {
 
         Optional<ButtonType> result = confirmAlert.showAndWait();
         if (result.isPresent() && result.get() == ButtonType.OK) {
-            try {
-                // ИСПРАВЛЕНИЕ: получаем ID по названиям
-                String ensembleName = performanceEnsembleSelector.getValue();
-                String compositionTitle = performanceCompositionSelector.getValue();
+            // ИСПРАВЛЕНИЕ: получаем ID по названиям
+            String ensembleName = performanceEnsembleSelector.getValue();
+            String compositionTitle = performanceCompositionSelector.getValue();
+            String arrangement = arrangementField.getText();
 
+            // null - сущности не найдены
+            writeAsync(() -> {
                 String ensembleId = getEntityIdFromName("ensembles", "name", ensembleName);
                 String compositionId = getEntityIdFromName("compositions", "title", compositionTitle);
-
-                if (!ensembleId.equals("0") && !compositionId.equals("0")) {
-                    String query = String.format("INSERT INTO performances (ensemble_id, composition_id, arrangement) VALUES (%s, %s, '%s')", ensembleId, compositionId, sanitize(arrangementField.getText()));
-                    if (Database.executeUpdate(query)) {
-                        UserActionLogger.logAction(currentUserEmail, "Добавление", "Исполнение",
-                                "Добавлено исполнение произведения " + compositionTitle + " ансамблем " + ensembleName);
-                        loadRelationData();
-                        arrangementField.clear();
-                        showAlert("Успех", "Исполнение добавлено");
-                    } else {
-                        showAlert("Ошибка", "Не удалось добавить исполнение");
-                    }
-                } else {
+                if (ensembleId.equals("0") || compositionId.equals("0")) return null;
+
+                String query = String.format("INSERT INTO performances (ensemble_id, composition_id, arrangement) VALUES (%s, %s, '%s')", ensembleId, compositionId, sanitize(arrangement));
+                if (!Database.executeUpdate(query)) return false;
+                UserActionLogger.logAction(currentUserEmail, "Добавление", "Исполнение",
+                        "Добавлено исполнение произведения " + compositionTitle + " ансамблем " + ensembleName);
+                return true;
+            }, added -> {
+                if (added == null) {
                     showAlert("Ошибка", "Не удалось найти выбранные сущности");
+                } else if (added) {
+                    markTablesChanged("performances");
+                    arrangementField.clear();
+                    showAlert("Успех", "Исполнение добавлено");
+                } else {
+                    showAlert("Ошибка", "Не удалось добавить исполнение");
                 }
-            } catch (Exception e) {
-                showAlert("Ошибка", "Неверный формат данных");
-            }
+            });
         }
     }
 
@@ -1400,32 +1826,200 @@ public class MainController {
 
         Optional<ButtonType> result = confirmAlert.showAndWait();
         if (result.isPresent() && result.get() == ButtonType.OK) {
-            try {
-                // ИСПРАВЛЕНИЕ: получаем ID по названиям
-                String recordTitle = trackRecordSelector.getValue();
-                String compositionTitle = trackCompositionSelector.getValue();
+            // ИСПРАВЛЕНИЕ: получаем ID по названиям
+            String recordTitle = trackRecordSelector.getValue();
+            String compositionTitle = trackCompositionSelector.getValue();
+            int trackNumber = Integer.parseInt(trackNumberField.getText());
 
+            // null - сущности не найдены
+            writeAsync(() -> {
                 String recordId = getEntityIdFromName("records", "title", recordTitle);
                 String compositionId = getEntityIdFromName("compositions", "title", compositionTitle);
-                int trackNumber = Integer.parseInt(trackNumberField.getText());
-
-                if (!recordId.equals("0") && !compositionId.equals("0")) {
-                    String query = String.format("INSERT INTO record_tracks (record_id, composition_id, track_number) VALUES (%s, %s, %d)", recordId, compositionId, trackNumber);
-                    if (Database.executeUpdate(query)) {
-                        UserActionLogger.logAction(currentUserEmail, "Добавление", "Трек на пластинке",
-                                "Добавлен трек " + trackNumber + " на пластинку " + recordTitle + ": " + compositionTitle);
-                        loadRelationData();
-                        trackNumberField.clear();
-                        showAlert("Успех", "Трек добавлен на пластинку");
-                    } else {
-                        showAlert("Ошибка", "Не удалось добавить трек");
-                    }
-                } else {
+                if (recordId.equals("0") || compositionId.equals("0")) return null;
+
+                String query = String.format("INSERT INTO record_tracks (record_id, composition_id, track_number) VALUES (%s, %s, %d)", recordId, compositionId, trackNumber);
+                if (!Database.executeUpdate(query)) return false;
+                UserActionLogger.logAction(currentUserEmail, "Добавление", "Трек на пластинке",
+                        "Добавлен трек " + trackNumber + " на пластинку " + recordTitle + ": " + compositionTitle);
+                return true;
+            }, added -> {
+                if (added == null) {
                     showAlert("Ошибка", "Не удалось найти выбранные сущности");
+                } else if (added) {
+                    markTablesChanged("record_tracks");
+                    trackNumberField.clear();
+                    showAlert("Успех", "Трек добавлен на пластинку");
+                } else {
+                    showAlert("Ошибка", "Не удалось добавить трек");
                 }
-            } catch (Exception e) {
-                showAlert("Ошибка", "Неверный формат данных");
+            });
+        }
+    }
+
+    /**
+     * Добавление нескольких музыкантов в выбранный ансамбль одним пакетом
+     */
+    @FXML
+    private void addEnsembleMembers() {
+        String ensembleName = ensembleSelector.getValue();
+        if (ensembleName == null) {
+            showAlert("Ошибка", "Выберите ансамбль");
+            return;
+        }
+
+        showBatchAddDialog("Добавление участников", "Музыканты для ансамбля '" + ensembleName + "'",
+                "SELECT musician_id, " + Database.musicianFullName(null) + " as name FROM musicians ORDER BY last_name, first_name",
+                "musician_id", "Роль:", memberRole.getText(), (musicianIds, role) -> {
+                    if (role.trim().isEmpty()) {
+                        showAlert("Ошибка", "Укажите роль");
+                        return;
+                    }
+
+                    // -2 - ансамбль не найден, -1 - ошибка записи
+                    writeAsync(() -> {
+                        String ensembleId = getEntityIdFromName("ensembles", "name", ensembleName);
+                        if (ensembleId.equals("0")) return -2;
+
+                        List<Object[]> rows = new ArrayList<>();
+                        for (Object musicianId : musicianIds) {
+                            rows.add(new Object[]{Integer.parseInt(ensembleId), musicianId, role.trim()});
+                        }
+                        int added = Database.executeBatch("INSERT INTO ensemble_members (ensemble_id, musician_id, role) VALUES (?, ?, ?)", rows);
+                        if (added > 0) {
+                            UserActionLogger.logAction(currentUserEmail, "Добавление", "Состав ансамбля",
+                                    "Добавлено музыкантов в ансамбль " + ensembleName + ": " + added + " с ролью: " + role.trim());
+                        }
+                        return added;
+                    }, added -> {
+                        if (added == -2) {
+                            showAlert("Ошибка", "Не удалось найти выбранный ансамбль");
+                        } else if (added > 0) {
+                            markTablesChanged("ensemble_members");
+                            memberRole.clear();
+                            showAlert("Успех", "Добавлено музыкантов в ансамбль: " + added);
+                        } else {
+                            showAlert("Ошибка", "Не удалось добавить музыкантов в ансамбль");
+                        }
+                    });
+                });
+    }
+
+    /**
+     * Добавление нескольких треков на выбранную пластинку одним пакетом
+     * Треки нумеруются подряд, начиная с указанного номера, в порядке списка
+     */
+    @FXML
+    private void addRecordTracks() {
+        String recordTitle = trackRecordSelector.getValue();
+        if (recordTitle == null) {
+            showAlert("Ошибка", "Выберите пластинку");
+            return;
+        }
+
+        String firstNumber = trackNumberField.getText().trim().isEmpty() ? "1" : trackNumberField.getText().trim();
+        showBatchAddDialog("Добавление треков", "Произведения для пластинки '" + recordTitle + "'",
+                "SELECT composition_id, title as name FROM compositions ORDER BY title",
+                "composition_id", "Номер первого трека:", firstNumber, (compositionIds, numberText) -> {
+                    int startNumber;
+                    try {
+                        startNumber = Integer.parseInt(numberText.trim());
+                    } catch (NumberFormatException e) {
+                        showAlert("Ошибка", "Введите корректный номер трека");
+                        return;
+                    }
+                    if (startNumber <= 0 || startNumber + compositionIds.size() - 1 > 100) {
+                        showAlert("Ошибка", "Номера треков должны быть в диапазоне 1-100");
+                        return;
+                    }
+
+                    // -2 - пластинка не найдена, -1 - ошибка записи
+                    writeAsync(() -> {
+                        String recordId = getEntityIdFromName("records", "title", recordTitle);
+                        if (recordId.equals("0")) return -2;
+
+                        List<Object[]> rows = new ArrayList<>();
+                        int trackNumber = startNumber;
+                        for (Object compositionId : compositionIds) {
+                            rows.add(new Object[]{Integer.parseInt(recordId), compositionId, trackNumber++});
+                        }
+                        int added = Database.executeBatch("INSERT INTO record_tracks (record_id, composition_id, track_number) VALUES (?, ?, ?)", rows);
+                        if (added > 0) {
+                            UserActionLogger.logAction(currentUserEmail, "Добавление", "Трек на пластинке",
+                                    "Добавлено треков на пластинку " + recordTitle + ": " + added + " (с номера " + startNumber + ")");
+                        }
+                        return added;
+                    }, added -> {
+                        if (added == -2) {
+                            showAlert("Ошибка", "Не удалось найти выбранную пластинку");
+                        } else if (added > 0) {
+                            markTablesChanged("record_tracks");
+                            trackNumberField.clear();
+                            showAlert("Успех", "Добавлено треков на пластинку: " + added);
+                        } else {
+                            showAlert("Ошибка", "Не удалось добавить треки");
+                        }
+                    });
+                });
+    }
+
+    /**
+     * Диалог выбора нескольких записей для пакетного добавления связей
+     * Список загружается в фоне после открытия диалога
+     * @param listQuery запрос списка, возвращающий колонки idColumn и name
+     * @param idColumn колонка с идентификатором записи
+     * @param fieldLabel подпись дополнительного поля (роль, номер трека)
+     * @param fieldValue начальное значение дополнительного поля
+     * @param onConfirm обработчик: идентификаторы выбранных записей в порядке списка и значение поля
+     */
+    private void showBatchAddDialog(String title, String header, String listQuery, String idColumn,
+                                    String fieldLabel, String fieldValue, BiConsumer<List<Object>, String> onConfirm) {
+        Dialog<ButtonType> dialog = new Dialog<>();
+        dialog.setTitle(title);
+        dialog.setHeaderText(header);
+
+        GridPane grid = new GridPane();
+        grid.setHgap(10);
+        grid.setVgap(10);
+        grid.setPadding(new Insets(20, 20, 10, 10));
+
+        List<Object> ids = new ArrayList<>();
+        ListView<String> listView = new ListView<>();
+        listView.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+        listView.setPrefHeight(300);
+        listView.setPlaceholder(new ProgressIndicator());
+        TextField field = new TextField(fieldValue);
+
+        grid.add(new Label("Выберите записи (Ctrl/Shift для нескольких):"), 0, 0, 2, 1);
+        grid.add(listView, 0, 1, 2, 1);
+        grid.add(new Label(fieldLabel), 0, 2);
+        grid.add(field, 1, 2);
+        dialog.getDialogPane().setContent(grid);
+
+        ButtonType addButtonType = new ButtonType("Добавить", ButtonData.OK_DONE);
+        dialog.getDialogPane().getButtonTypes().addAll(addButtonType, ButtonType.CANCEL);
+
+        loadAsync(backgroundTasks, () -> Database.executeQuery(listQuery), rows -> {
+            for (Map<String, Object> row : rows) {
+                ids.add(row.get(idColumn));
+                listView.getItems().add(safeGetString(row, "name"));
+            }
+            listView.setPlaceholder(new Label("Нет записей"));
+        });
+
+        Optional<ButtonType> result = dialog.showAndWait();
+        if (result.isPresent() && result.get() == addButtonType) {
+            List<Integer> selectedIndices = new ArrayList<>(listView.getSelectionModel().getSelectedIndices());
+            if (selectedIndices.isEmpty()) {
+                showAlert("Ошибка", "Не выбрано ни одной записи");
+                return;
+            }
+            selectedIndices.sort(null);
+
+            List<Object> selectedIds = new ArrayList<>();
+            for (int index : selectedIndices) {
+                selectedIds.add(ids.get(index));
             }
+            onConfirm.accept(selectedIds, field.getText());
         }
     }
 
@@ -1659,12 +2253,13 @@ public class MainController {
                         return null;
                     }
 
-                    // Обновляем данные
-                    selected.put("first_name", firstNameField.getText().trim());
-                    selected.put("middle_name", middleNameField.getText().trim());
-                    selected.put("last_name", lastNameField.getText().trim());
-                    selected.put("bio", bioArea.getText().trim());
-                    return selected;
+                    // Новые значения собираются отдельно: строка таблицы - это строка кэша
+                    Map<String, Object> edited = new HashMap<>();
+                    edited.put("first_name", firstNameField.getText().trim());
+                    edited.put("middle_name", middleNameField.getText().trim());
+                    edited.put("last_name", lastNameField.getText().trim());
+                    edited.put("bio", bioArea.getText().trim());
+                    return edited;
                 }
                 return null;
             });
@@ -1687,21 +2282,27 @@ public class MainController {
 
                 System.out.println("Executing update query: " + query);
 
-                if (Database.executeUpdate(query)) {
-                    // Формируем полное имя для лога
-                    String fullName = safeGetString(updatedData, "first_name") + " " +
-                            (middleNameValue.isEmpty() ? "" : safeGetString(updatedData, "middle_name") + " ") +
-                            safeGetString(updatedData, "last_name");
-
+                // Формируем полное имя для лога
+                String fullName = safeGetString(updatedData, "first_name") + " " +
+                        (middleNameValue.isEmpty() ? "" : safeGetString(updatedData, "middle_name") + " ") +
+                        safeGetString(updatedData, "last_name");
+
+                Object musicianId = selected.get("musician_id");
+                writeAsync(() -> {
+                    if (!Database.executeUpdate(query)) return false;
+                    EntityCache.MUSICIANS.refresh(musicianId);
                     UserActionLogger.logAction(currentUserEmail, "Редактирование", "Музыкант",
                             "Обновлен музыкант: " + fullName);
-
-                    loadAllData();
-                    populateAllSelectors();
-                    showAlert("Успех", "Музыкант " + fullName + " успешно обновлен");
-                } else {
-                    showAlert("Ошибка", "Не удалось обновить данные музыканта");
-                }
+                    return true;
+                }, updated -> {
+                    markTablesChanged("musicians");
+                    if (updated) {
+                        refreshSelectors();
+                        showAlert("Успех", "Музыкант " + fullName + " успешно обновлен");
+                    } else {
+                        showAlert("Ошибка", "Не удалось обновить данные музыканта");
+                    }
+                });
             });
         } else {
             showAlert("Ошибка", "Выберите музыканта для редактирования");
@@ -1836,7 +2437,8 @@ public class MainController {
             // Обработка результата
             dialog.setResultConverter(dialogButton -> {
                 if (dialogButton == saveButtonType) {
-                    // Собираем обновленные данные
+                    // Собираем обновленные данные отдельно: строка таблицы - это строка кэша
+                    Map<String, Object> edited = new LinkedHashMap<>();
                     for (Map.Entry<String, Object> entry : selected.entrySet()) {
                         String key = entry.getKey();
 
@@ -1852,16 +2454,16 @@ public class MainController {
                         if (key.equals("description") || key.equals("bio")) {
                             TextArea field = (TextArea) grid.lookup("#" + key);
                             if (field != null) {
-                                selected.put(key, field.getText());
+                                edited.put(key, field.getText());
                             }
                         } else {
                             TextField field = (TextField) grid.lookup("#" + key);
                             if (field != null) {
-                                selected.put(key, field.getText());
+                                edited.put(key, field.getText());
                             }
                         }
                     }
-                    return selected;
+                    return edited;
                 }
                 return null;
             });
@@ -1894,14 +2496,23 @@ public class MainController {
                 String finalQuery = query.append(" WHERE ").append(idColumn).append(" = ").append(selected.get(idColumn)).toString();
                 System.out.println("Executing edit query: " + finalQuery);
 
-                if (Database.executeUpdate(finalQuery)) {
+                Object id = selected.get(idColumn);
+                EntityCache cache = EntityCache.forTable(tableName);
+                writeAsync(() -> {
+                    if (!Database.executeUpdate(finalQuery)) return false;
+                    if (cache != null) cache.refresh(id);
                     UserActionLogger.logAction(currentUserEmail, "Редактирование", entityName,
-                            "Обновлена запись ID: " + selected.get(idColumn));
-                    loadAllData();
-                    showAlert("Успех", entityName + " успешно обновлен");
-                } else {
-                    showAlert("Ошибка", "Не удалось обновить " + entityName);
-                }
+                            "Обновлена запись ID: " + id);
+                    return true;
+                }, updated -> {
+                    markTablesChanged(tableName);
+                    if (updated) {
+                        refreshSelectors();
+                        showAlert("Успех", entityName + " успешно обновлен");
+                    } else {
+                        showAlert("Ошибка", "Не удалось обновить " + entityName);
+                    }
+                });
             });
         } else {
             showAlert("Ошибка", "Выберите " + entityName + " для редактирования");
@@ -1945,20 +2556,17 @@ public class MainController {
                     ComboBox<String> comboBox = new ComboBox<>();
                     comboBox.setPrefWidth(200);
 
-                    // Заполняем данными
+                    // Заполняем данными и устанавливаем текущее значение после загрузки
+                    String currentValue = value != null ? value.toString() : "";
                     if (key.equals("ensemble_name")) {
-                        populateComboBoxForEdit(comboBox, "SELECT ensemble_id, name FROM ensembles");
+                        bindComboBoxForEdit(comboBox, LookupList.ENSEMBLES, currentValue);
                     } else if (key.equals("musician_name")) {
-                        populateComboBoxForEdit(comboBox, "SELECT musician_id, CONCAT(first_name, ' ', last_name) as name FROM musicians");
+                        bindComboBoxForEdit(comboBox, LookupList.MUSICIANS, currentValue);
                     } else if (key.equals("composition_title")) {
-                        populateComboBoxForEdit(comboBox, "SELECT composition_id, title FROM compositions");
+                        bindComboBoxForEdit(comboBox, LookupList.COMPOSITIONS, currentValue);
                     } else if (key.equals("record_title")) {
-                        populateComboBoxForEdit(comboBox, "SELECT record_id, title FROM records");
+                        bindComboBoxForEdit(comboBox, LookupList.RECORDS, currentValue);
                     }
-
-                    // Устанавливаем текущее значение
-                    String currentValue = value != null ? value.toString() : "";
-                    setCurrentValueInComboBox(comboBox, currentValue);
                     comboBoxes.put(key, comboBox);
                     grid.add(label, 0, row);
                     grid.add(comboBox, 1, row);
@@ -2011,18 +2619,25 @@ public class MainController {
 
             Optional<Map<String, Object>> result = dialog.showAndWait();
             result.ifPresent(updatedData -> {
+                // Значения ComboBox читаются в потоке JavaFX, запрос выполняется в фоне
+                Map<String, String> comboValues = new HashMap<>();
+                comboBoxes.forEach((key, comboBox) -> comboValues.put(key, comboBox.getValue()));
+
                 // Обновленная логика UPDATE с использованием ID из ComboBox
-                boolean success = updateRelationData(tableName, oldSelectedData, updatedData, comboBoxes);
-                if (success) {
+                writeAsync(() -> {
+                    if (!updateRelationData(tableName, oldSelectedData, updatedData, comboValues)) return false;
                     UserActionLogger.logAction(currentUserEmail, "Редактирование", entityName,
                             "Обновлена связь: " + entityName);
-                    // Принудительно обновляем данные и интерфейс
-                    loadRelationData();
-                    table.refresh();
-                    showAlert("Успех", entityName + " успешно обновлен");
-                } else {
-                    showAlert("Ошибка", "Не удалось обновить " + entityName);
-                }
+                    return true;
+                }, success -> {
+                    if (success) {
+                        markTablesChanged(tableName);
+                        table.refresh();
+                        showAlert("Успех", entityName + " успешно обновлен");
+                    } else {
+                        showAlert("Ошибка", "Не удалось обновить " + entityName);
+                    }
+                });
             });
         } else {
             showAlert("Ошибка", "Выберите " + entityName + " для редактирования");
@@ -2138,7 +2753,7 @@ public class MainController {
      * Обновляет данные связей в базе данных - ИСПРАВЛЕНО: правильная проверка успешности операции
      */
     private boolean updateRelationData(String tableName, Map<String, Object> oldData,
-                                       Map<String, Object> newData, Map<String, ComboBox<String>> comboBoxes) {
+                                       Map<String, Object> newData, Map<String, String> comboValues) {
         try {
             if (tableName.equals("ensemble_members")) {
                 // Получаем ID из старых данных для WHERE условия
@@ -2153,8 +2768,8 @@ public class MainController {
                 String oldMusicianId = getMusicianIdFromName(oldMusicianNameOnly);
 
                 // Извлекаем новые значения из ComboBox
-                String newEnsembleValue = comboBoxes.get("ensemble_name").getValue();
-                String newMusicianValue = comboBoxes.get("musician_name").getValue();
+                String newEnsembleValue = comboValues.get("ensemble_name");
+                String newMusicianValue = comboValues.get("musician_name");
 
                 // ИСПРАВЛЕНИЕ: получаем ID по названиям
                 String newEnsembleId = getEntityIdFromName("ensembles", "name", newEnsembleValue);
@@ -2189,8 +2804,8 @@ public class MainController {
                 String oldCompositionId = getEntityIdFromName("compositions", "title", oldCompositionTitleOnly);
 
                 // Извлекаем новые значения из ComboBox
-                String newEnsembleValue = comboBoxes.get("ensemble_name").getValue();
-                String newCompositionValue = comboBoxes.get("composition_title").getValue();
+                String newEnsembleValue = comboValues.get("ensemble_name");
+                String newCompositionValue = comboValues.get("composition_title");
 
                 // ИСПРАВЛЕНИЕ: получаем ID по названиям
                 String newEnsembleId = getEntityIdFromName("ensembles", "name", newEnsembleValue);
@@ -2225,8 +2840,8 @@ public class MainController {
                 String oldCompositionId = getEntityIdFromName("compositions", "title", oldCompositionTitleOnly);
 
                 // Извлекаем новые значения из ComboBox
-                String newRecordValue = comboBoxes.get("record_title").getValue();
-                String newCompositionValue = comboBoxes.get("composition_title").getValue();
+                String newRecordValue = comboValues.get("record_title");
+                String newCompositionValue = comboValues.get("composition_title");
 
                 // ИСПРАВЛЕНИЕ: получаем ID по названиям
                 String newRecordId = getEntityIdFromName("records", "title", newRecordValue);
@@ -2273,7 +2888,9 @@ public class MainController {
     }
 
     /**
-     * Получает ID сущности по имени из базы данных
+     * Получает ID сущности по имени
+     * Поиск идет по индексу названий в памяти; к базе обращаемся, только если
+     * название не найдено (запись могла быть добавлена с другого рабочего места)
      */
     private String getEntityIdFromName(String tableName, String nameColumn, String nameValue) {
         if (nameValue == null || nameValue.isEmpty()) {
@@ -2281,14 +2898,37 @@ public class MainController {
             return "0";
         }
 
+        NameIndex index = NameIndex.forTable(tableName, nameColumn);
+        if (index != null) {
+            Long id = index.find(nameValue);
+            if (id != null) {
+                return id.toString();
+            }
+            String foundId = findEntityIdInDatabase(tableName, nameColumn, nameValue);
+            if (!foundId.equals("0")) {
+                EntityCache.forTable(tableName).refresh(foundId);
+            }
+            return foundId;
+        }
+        return findEntityIdInDatabase(tableName, nameColumn, nameValue);
+    }
+
+    /**
+     * Получает ID сущности по имени из базы данных
+     */
+    private String findEntityIdInDatabase(String tableName, String nameColumn, String nameValue) {
         try {
             String idColumn = tableName.substring(0, tableName.length() - 1) + "_id";
+            // Колонки full_name может не быть (миграция 001 не применена)
+            if ("musicians".equals(tableName) && "full_name".equals(nameColumn)) {
+                nameColumn = Database.musicianFullName(null);
+            }
             String query = "SELECT " + idColumn + " FROM " + tableName +
-                    " WHERE " + nameColumn + " = '" + sanitize(nameValue) + "'";
+                    " WHERE " + nameColumn + " = ?";
 
-            System.out.println("Поиск ID для " + tableName + ": " + query);
+            System.out.println("Поиск ID для " + tableName + ": " + nameValue);
 
-            List<Map<String, Object>> result = Database.executeQuery(query);
+            List<Map<String, Object>> result = Database.query(query, nameValue);
             if (!result.isEmpty() && result.get(0).get(idColumn) != null) {
                 String foundId = result.get(0).get(idColumn).toString();
                 System.out.println("Найден ID: " + foundId + " для " + nameValue);
@@ -2297,8 +2937,8 @@ public class MainController {
                 System.err.println("Не найден ID для " + tableName + " с именем: " + nameValue);
                 // Попробуем найти по частичному совпадению
                 String likeQuery = "SELECT " + idColumn + " FROM " + tableName +
-                        " WHERE " + nameColumn + " LIKE '%" + sanitize(nameValue) + "%'";
-                List<Map<String, Object>> likeResult = Database.executeQuery(likeQuery);
+                        " WHERE " + nameColumn + " LIKE CONCAT('%', ?, '%')";
+                List<Map<String, Object>> likeResult = Database.query(likeQuery, nameValue);
                 if (!likeResult.isEmpty() && likeResult.get(0).get(idColumn) != null) {
                     String foundId = likeResult.get(0).get(idColumn).toString();
                     System.out.println("Найден ID по частичному совпадению: " + foundId + " для " + nameValue);
@@ -2313,7 +2953,9 @@ public class MainController {
     }
 
     /**
-     * Получает ID музыканта по имени и фамилии
+     * Получает ID музыканта по имени
+     * Имя может быть в любом из вариантов: "Имя Фамилия", "Имя Отчество Фамилия",
+     * "Фамилия Имя", "Фамилия Имя Отчество"
      */
     private String getMusicianIdFromName(String musicianName) {
         if (musicianName == null || musicianName.isEmpty()) {
@@ -2324,31 +2966,24 @@ public class MainController {
         // ИЗМЕНЕНИЕ: Извлекаем только имя из строки формата "ID: Имя Фамилия"
         String musicianNameOnly = extractNameFromDisplayString(musicianName);
 
+        // Поиск по индексу всех вариантов имени в памяти
+        Long indexedId = NameIndex.MUSICIANS.findExact(musicianNameOnly);
+        if (indexedId != null) {
+            return indexedId.toString();
+        }
+
         try {
-            // Сначала попробуем точное совпадение по полному имени
-            String exactQuery = "SELECT musician_id FROM musicians WHERE CONCAT(first_name, ' ', last_name) = '" + sanitize(musicianNameOnly) + "'";
-            List<Map<String, Object>> exactResult = Database.executeQuery(exactQuery);
-            if (!exactResult.isEmpty() && exactResult.get(0).get("musician_id") != null) {
-                String foundId = exactResult.get(0).get("musician_id").toString();
-                System.out.println("Найден ID музыканта по точному совпадению: " + foundId + " для " + musicianNameOnly);
+            // Музыкант мог быть добавлен с другого рабочего места: ищем по полному имени
+            // ("Имя Отчество Фамилия", индексированная колонка full_name, если она есть)
+            String query = "SELECT musician_id FROM musicians WHERE " + Database.musicianFullName(null) + " = ?";
+            List<Map<String, Object>> result = Database.query(query, musicianNameOnly.trim().replaceAll("\\s+", " "));
+            if (!result.isEmpty() && result.get(0).get("musician_id") != null) {
+                String foundId = result.get(0).get("musician_id").toString();
+                System.out.println("Найден ID музыканта: " + foundId + " для " + musicianNameOnly);
+                EntityCache.MUSICIANS.refresh(foundId);
                 return foundId;
             }
 
-            // Если точное не сработало, попробуем разделить имя и фамилию
-            String[] names = musicianNameOnly.split(" ");
-            if (names.length >= 2) {
-                String firstName = names[0];
-                String lastName = names[1];
-                String query = "SELECT musician_id FROM musicians WHERE first_name = '" + sanitize(firstName) +
-                        "' AND last_name = '" + sanitize(lastName) + "'";
-                List<Map<String, Object>> result = Database.executeQuery(query);
-                if (!result.isEmpty() && result.get(0).get("musician_id") != null) {
-                    String foundId = result.get(0).get("musician_id").toString();
-                    System.out.println("Найден ID музыканта: " + foundId + " для " + musicianNameOnly);
-                    return foundId;
-                }
-            }
-
             System.err.println("Не найден ID для музыканта: " + musicianNameOnly);
 
         } catch (Exception e) {
@@ -2369,15 +3004,25 @@ public class MainController {
         Map<String, Object> selected = table.getSelectionModel().getSelectedItem();
         if (selected != null) {
             String query = "DELETE FROM " + tableName + " WHERE " + idColumn + " = " + selected.get(idColumn);
-            if (Database.executeUpdate(query)) {
+            Object id = selected.get(idColumn);
+            EntityCache cache = EntityCache.forTable(tableName);
+            writeAsync(() -> {
+                if (!Database.executeUpdate(query)) return false;
+                if (cache != null) cache.remove(id);
                 UserActionLogger.logAction(currentUserEmail, "Удаление", entityName,
-                        "Удалена запись ID: " + selected.get(idColumn));
-                loadAllData();
-                populateAllSelectors();
-                showAlert("Успех", entityName + " удален");
-            } else {
-                showAlert("Ошибка", "Не удалось удалить " + entityName);
-            }
+                        "Удалена запись ID: " + id);
+                return true;
+            }, deleted -> {
+                if (deleted) {
+                    // Связи удаленной записи удаляются каскадно; вкладки связей
+                    // зависят и от основных таблиц
+                    markTablesChanged(tableName);
+                    refreshSelectors();
+                    showAlert("Успех", entityName + " удален");
+                } else {
+                    showAlert("Ошибка", "Не удалось удалить " + entityName);
+                }
+            });
         } else {
             showAlert("Ошибка", "Выберите " + entityName + " для удаления");
         }
@@ -2396,7 +3041,7 @@ public class MainController {
             if (tableName.equals("ensemble_members")) {
                 String ensembleName = selected.get("ensemble_name").toString();
                 String musicianName = selected.get("musician_name").toString();
-                query = "DELETE FROM ensemble_members WHERE ensemble_id = (SELECT ensemble_id FROM ensembles WHERE name = '" + sanitize(ensembleName) + "') AND musician_id = (SELECT musician_id FROM musicians WHERE CONCAT(first_name, ' ', last_name) = '" + sanitize(musicianName) + "')";
+                query = "DELETE FROM ensemble_members WHERE ensemble_id = (SELECT ensemble_id FROM ensembles WHERE name = '" + sanitize(ensembleName) + "') AND musician_id = (SELECT musician_id FROM musicians WHERE " + Database.musicianFullName(null) + " = '" + sanitize(musicianName) + "')";
             } else if (tableName.equals("performances")) {
                 String ensembleName = selected.get("ensemble_name").toString();
                 String compositionTitle = selected.get("composition_title").toString();
@@ -2407,14 +3052,20 @@ public class MainController {
                 query = "DELETE FROM record_tracks WHERE record_id = (SELECT record_id FROM records WHERE title = '" + sanitize(recordTitle) + "') AND composition_id = (SELECT composition_id FROM compositions WHERE title = '" + sanitize(compositionTitle) + "')";
             }
 
-            if (Database.executeUpdate(query)) {
+            String deleteQuery = query;
+            writeAsync(() -> {
+                if (!Database.executeUpdate(deleteQuery)) return false;
                 UserActionLogger.logAction(currentUserEmail, "Удаление", entityName,
                         "Удалена связь: " + entityName);
-                loadRelationData();
-                showAlert("Успех", entityName + " удален");
-            } else {
-                showAlert("Ошибка", "Не удалось удалить " + entityName);
-            }
+                return true;
+            }, deleted -> {
+                if (deleted) {
+                    markTablesChanged(tableName);
+                    showAlert("Успех", entityName + " удален");
+                } else {
+                    showAlert("Ошибка", "Не удалось удалить " + entityName);
+                }
+            });
         } else {
             showAlert("Ошибка", "Выберите " + entityName + " для удаления");
         }
@@ -2455,11 +3106,11 @@ public class MainController {
      */
     @FXML
     private void refreshAllData() {
-        loadAllData();
+        // Явное обновление перечитывает таблицы из базы (с изменениями других пользователей)
+        EntityCache.invalidateAll();
         populateAllSelectors();
-        loadRelationData();
-        loadAnalyticsData();
-        showSalesLeaders();
+        // Открытая вкладка обновляется сразу, остальные - при переходе на них
+        markTablesChanged(TAB_TABLES.values().stream().flatMap(Set::stream).toArray(String[]::new));
         resultArea.setText("Все данные обновлены");
     }
 
@@ -2493,70 +3144,89 @@ public class MainController {
 
         Optional<ButtonType> result = confirmAlert.showAndWait();
         if (result.isPresent() && result.get() == ButtonType.OK) {
-            UserActionLogger.logAction(currentUserEmail, "Выход из системы", "Система",
-                    "Пользователь вышел из системы");
-            try {
-                Stage currentStage = (Stage) tabPane.getScene().getWindow();
+            tabTasks.values().forEach(DbExecutor.TaskGroup::cancelAll);
+            detailTasks.cancelAll();
+            TableChangeMonitor.getInstance().removeChangeListener(tableChangeListener);
+            // Обработчик отключается только после записи накопленных продаж: иначе
+            // они не попадут в журнал действий этого пользователя
+            SalesAccumulator sales = SalesAccumulator.getInstance();
+            String userEmail = currentUserEmail;
+            DbExecutor.run(() -> {
+                try {
+                    if (!sales.flush()) {
+                        System.err.println("Продажи не записаны при выходе: " + sales.getStats());
+                    }
+                } finally {
+                    sales.removeFlushListener(salesFlushListener);
+                }
+                UserActionLogger.logAction(userEmail, "Выход из системы", "Система",
+                        "Пользователь вышел из системы");
+                // Запись журнала действий текущего пользователя, не дожидаясь периодического сброса
+                UserActionLogger.flush();
+            }).whenCompleteAsync((ignored, error) -> {
+                // Окно входа открывается после записи журнала
+                if (error != null) {
+                    System.err.println("Ошибка записи журнала при выходе: " + error.getMessage());
+                }
+                showLoginWindow();
+            }, DbExecutor.FX);
+        }
+    }
 
-                FXMLLoader loader = new FXMLLoader(getClass().getResource("/com/example/musicstore/login.fxml"));
-                Parent root = loader.load();
+    /**
+     * Закрытие главного окна и открытие окна входа
+     */
+    private void showLoginWindow() {
+        try {
+            Stage currentStage = (Stage) tabPane.getScene().getWindow();
 
-                Stage loginStage = new Stage();
-                loginStage.setTitle("Music Store - Авторизация");
-                loginStage.setScene(new Scene(root, 700, 600));
-                loginStage.setResizable(false);
+            FXMLLoader loader = new FXMLLoader(getClass().getResource("/com/example/musicstore/login.fxml"));
+            Parent root = loader.load();
 
-                loginStage.show();
-                currentStage.close();
+            Stage loginStage = new Stage();
+            loginStage.setTitle("Music Store - Авторизация");
+            loginStage.setScene(new Scene(root, 700, 600));
+            loginStage.setResizable(false);
 
-            } catch (IOException e) {
-                e.printStackTrace();
-                showAlert("Ошибка", "Ошибка при выходе из системы");
-            }
+            loginStage.show();
+            currentStage.close();
+
+        } catch (IOException e) {
+            e.printStackTrace();
+            showAlert("Ошибка", "Ошибка при выходе из системы");
         }
     }
 
     /**
      * Метод обновления данных активной вкладки - ИСПРАВЛЕНО: принудительное обновление для исполнений
+     * Вкладка перестает считаться устаревшей
      */
     private void refreshCurrentTab() {
         Tab selectedTab = tabPane.getSelectionModel().getSelectedItem();
         if (selectedTab != null) {
             String tabName = selectedTab.getText();
+            dirtyTabs.remove(tabName);
             switch (tabName) {
-                case "Ансамбли":
-                    ensemblesTable.setItems(loadData("SELECT * FROM ensembles"));
-                    break;
-                case "Музыканты":
-                    musiciansTable.setItems(loadData("SELECT * FROM musicians"));
-                    break;
-                case "Произведения":
-                    compositionsTable.setItems(loadData("SELECT * FROM compositions"));
-                    break;
-                case "Пластинки":
-                    recordsTable.setItems(loadData("SELECT * FROM records"));
+                case "Все данные":
+                    // Загрузки этой вкладки могли быть отменены при уходе с нее
+                    loadEntityTables();
                     break;
                 case "Состав ансамблей":
-                    // ИСПРАВЛЕНИЕ: принудительно обновляем данные
-                    ensembleMembersTable.setItems(loadData("SELECT e.name as ensemble_name, CONCAT(m.first_name, ' ', m.last_name) as musician_name, em.role FROM ensemble_members em JOIN ensembles e ON em.ensemble_id = e.ensemble_id JOIN musicians m ON em.musician_id = m.musician_id ORDER BY e.name, em.role"));
-                    populateComboBox(ensembleSelector, "SELECT ensemble_id, name FROM ensembles");
-                    populateComboBox(musicianSelector, "SELECT musician_id, first_name, last_name FROM musicians");
+                    loadEnsembleMembers();
+                    refreshSelectors();
                     break;
                 case "Исполнения":
-                    // ИСПРАВЛЕНИЕ: принудительно обновляем данные для исполнений
-                    performancesTable.setItems(loadData("SELECT e.name as ensemble_name, c.title as composition_title, p.arrangement FROM performances p JOIN ensembles e ON p.ensemble_id = e.ensemble_id JOIN compositions c ON p.composition_id = c.composition_id ORDER BY e.name, c.title"));
-                    populateComboBox(performanceEnsembleSelector, "SELECT ensemble_id, name FROM ensembles");
-                    populateComboBox(performanceCompositionSelector, "SELECT composition_id, title FROM compositions");
+                    loadPerformances();
+                    refreshSelectors();
                     break;
                 case "Треки на пластинках":
-                    // ИСПРАВЛЕНИЕ: принудительно обновляем данные
-                    recordTracksTable.setItems(loadData("SELECT r.title as record_title, c.title as composition_title, rt.track_number FROM record_tracks rt JOIN records r ON rt.record_id = r.record_id JOIN compositions c ON rt.composition_id = c.composition_id ORDER BY r.title, rt.track_number"));
-                    populateComboBox(trackRecordSelector, "SELECT record_id, title FROM records");
-                    populateComboBox(trackCompositionSelector, "SELECT composition_id, title FROM compositions");
+                    loadRecordTracks();
+                    refreshSelectors();
                     break;
                 case "Аналитика":
                     loadAnalyticsData();
-                    populateComboBox(recordSelector, "SELECT record_id, title FROM records");
+                    showSalesLeaders();
+                    refreshSelectors();
                     break;
                 case "Лидеры продаж":
                     showSalesLeaders();
@@ -2836,40 +3506,62 @@ public class MainController {
 
 
     /**
-     * Обрабатывает выбранное изображение - ОПТИМИЗИРОВАННАЯ ВЕРСИЯ
+     * Обрабатывает выбранное изображение
+     * Оригинал и уменьшенные копии готовятся в фоновом потоке (ImagePipeline) и
+     * сохраняются в базу данных, а если в ней нет таблицы изображений - в локальные папки.
+     * Ход обработки показывается в imageProgressBar
      */
     private void processSelectedImage(File imageFile, String entityType, String entityName) {
-        try {
-            String fileName = generateImageFileName(entityName);
-
-            System.out.println("💾 Сохранение для: " + entityType + " - " + entityName);
-
-            // КОПИРУЕМ В ОБЕ ПАПКИ
-            String[] paths = {
-                    "src/main/resources/musicstore/iamges/" + entityType,
-                    "target/classes/musicstore/iamges/" + entityType
-            };
-
-            for (String path : paths) {
-                File dir = new File(path);
-                if (!dir.exists()) dir.mkdirs();
-
-                File destination = new File(dir, fileName);
-                Files.copy(imageFile.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
-                System.out.println("✅ " + destination.getAbsolutePath());
-            }
-
-            // СРАЗУ показываем изображение
-            javafx.application.Platform.runLater(() -> {
-                loadEntityImage(entityName, entityType);
-            });
+        String fileName = generateImageFileName(entityName);
+
+        System.out.println("💾 Сохранение для: " + entityType + " - " + entityName);
+
+        ImageStore store = ImageStore.getInstance();
+        // СОХРАНЯЕМ В ОБЕ ПАПКИ
+        ImagePipeline.Sink folders = ImagePipeline.directories(List.of(
+                Paths.get("src/main/resources/musicstore/iamges", entityType),
+                Paths.get("target/classes/musicstore/iamges", entityType)));
+        // Наличие таблицы изображений проверяется в потоке обработки, а не в потоке JavaFX
+        ImagePipeline.Sink sink = (name, data) -> {
+            if (store.isAvailable()) {
+                store.save(entityType, name, data);
+            } else {
+                folders.write(name, data);
+            }
+        };
+
+        showImageProgress(0);
+        ImagePipeline.ingest(imageFile, fileName, sink,
+                        progress -> javafx.application.Platform.runLater(() -> showImageProgress(progress)))
+                .whenComplete((ignored, error) -> {
+                    // Прежние изображения (или отметки об их отсутствии) больше не действительны
+                    invalidateImage(entityType, fileName);
+                })
+                .whenComplete((ignored, error) -> javafx.application.Platform.runLater(() -> {
+                    hideImageProgress();
+                    if (error != null) {
+                        Throwable cause = error;
+                        while (cause.getCause() != null) cause = cause.getCause();
+                        System.err.println("💥 Ошибка сохранения изображения: " + cause.getMessage());
+                        showAlert("Ошибка", "Не удалось сохранить изображение: " + cause.getMessage());
+                        return;
+                    }
+                    loadEntityImage(entityName, entityType);
+                    showAlert("Успех", "Изображение добавлено для: " + entityName);
+                }));
+    }
 
-            showAlert("Успех", "Изображение добавлено для: " + entityName);
+    private void showImageProgress(double progress) {
+        if (imageProgressBar == null) return;
+        imageProgressBar.setProgress(progress);
+        imageProgressBar.setVisible(true);
+        imageProgressBar.setManaged(true);
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
-            showAlert("Ошибка", "Не удалось сохранить изображение");
-        }
+    private void hideImageProgress() {
+        if (imageProgressBar == null) return;
+        imageProgressBar.setVisible(false);
+        imageProgressBar.setManaged(false);
     }
     /**
      * Тестирует загрузку изображения сразу после сохранения
@@ -3076,48 +3768,37 @@ public class MainController {
      * Принудительная загрузка изображения с вашим путем
      */
     private void forceLoadImage(String entityName, String entityType) {
-        try {
-            detailImageView.setImage(null);
-
-            String imageName = generateImageFileName(entityName);
-            // ВАШ ПУТЬ
-            String imagePath = "/musicstore/iamges/" + entityType + "/" + imageName;
-
-            System.out.println("🔍 Принудительная загрузка по пути: " + imagePath);
-
-            // Пробуем загрузить через ресурсы
-            InputStream imageStream = getClass().getResourceAsStream(imagePath);
-            if (imageStream != null) {
-                System.out.println("✅ InputStream создан успешно");
-                Image image = new Image(imageStream);
-                if (!image.isError()) {
-                    detailImageView.setImage(image);
-                    System.out.println("✅ УСПЕХ: Изображение перезагружено");
-                    showAlert("Успех", "Изображение обновлено!");
-                    return;
-                }
-                imageStream.close();
-            }
+        long request = imageRequest.incrementAndGet();
+        detailImageView.setImage(null);
 
-            // Если не нашли, пробуем через файловую систему
-            String filePath = "src/main/resources/musicstore/iamges/" + entityType + "/" + imageName;
-            File imageFile = new File(filePath);
-            if (imageFile.exists()) {
-                System.out.println("✅ Найден файл: " + filePath);
-                Image image = new Image(imageFile.toURI().toString());
+        String imageName = generateImageFileName(entityName);
+        // ВАШ ПУТЬ
+        String imagePath = "/musicstore/iamges/" + entityType + "/" + imageName;
+
+        System.out.println("🔍 Принудительная загрузка по пути: " + imagePath);
+
+        // Изображение декодируется заново в фоновом потоке: ищется в базе, в ресурсах,
+        // затем в папке src/main/resources
+        ImagePipeline.Size fitting = fittingImageSize();
+        loadAsync(detailTasks, () -> {
+            invalidateImage(entityType, imageName);
+            return findImage(entityType, imageName, fitting);
+        }, image -> {
+            if (imageRequest.get() != request) return;
+            if (image != null) {
                 detailImageView.setImage(image);
-                System.out.println("✅ УСПЕХ: Изображение загружено из файла");
+                System.out.println("✅ УСПЕХ: Изображение перезагружено");
                 showAlert("Успех", "Изображение обновлено!");
                 return;
             }
 
             System.out.println("❌ Изображение не найдено");
             showAlert("Информация", "Изображение не найдено для: " + entityName);
-
-        } catch (Exception e) {
-            System.err.println("💥 Ошибка принудительной загрузки: " + e.getMessage());
-            showAlert("Ошибка", "Ошибка загрузки изображения");
-        }
+        }).whenComplete((ignored, error) -> {
+            if (error != null && !DbExecutor.isCancellation(error)) {
+                javafx.application.Platform.runLater(() -> showAlert("Ошибка", "Ошибка загрузки изображения"));
+            }
+        });
     }
 
 
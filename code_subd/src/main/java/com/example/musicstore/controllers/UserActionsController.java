@@ -1,16 +1,21 @@
 package com.example.musicstore.controllers;
 
 import com.example.musicstore.Database;
+import com.example.musicstore.utils.DbExecutor;
+import com.example.musicstore.utils.UserActionLogger;
 import javafx.collections.FXCollections;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
 import javafx.beans.property.SimpleStringProperty;
 
+import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -115,35 +120,52 @@ public class UserActionsController {
             return;
         }
 
-        String query = buildQuery();
-        System.out.println("Выполняем запрос: " + query);
-
-        List<Map<String, Object>> actions = Database.executeQuery(query);
-
-        actionsTable.setItems(FXCollections.observableArrayList(actions));
-        totalActionsLabel.setText("Всего действий: " + actions.size());
-
-        System.out.println("Загружено действий: " + actions.size());
+        List<Object> params = new ArrayList<>();
+        String query = buildQuery(params);
+        System.out.println("Выполняем запрос: " + query + " " + params);
+
+        // Запрос выполняется в фоне, таблица заполняется в потоке JavaFX
+        actionsTable.setPlaceholder(new ProgressIndicator());
+        // Перед чтением записываем действия, ожидающие в очереди журнала
+        DbExecutor.supply(() -> {
+                    UserActionLogger.flush();
+                    return Database.query(query, params.toArray());
+                })
+                .thenAcceptAsync(actions -> {
+                    actionsTable.setItems(FXCollections.observableArrayList(actions));
+                    actionsTable.setPlaceholder(null);
+                    totalActionsLabel.setText("Всего действий: " + actions.size());
+
+                    System.out.println("Загружено действий: " + actions.size());
+                }, DbExecutor.FX);
     }
 
-    private String buildQuery() {
+    /**
+     * Формирует запрос истории действий с текущими фильтрами
+     * @param params список, в который добавляются значения параметров запроса
+     */
+    private String buildQuery(List<Object> params) {
         StringBuilder query = new StringBuilder(
                 "SELECT action_date, action_type, entity_type, action_details, ip_address " +
-                        "FROM user_actions WHERE user_email = '" + currentUserEmail + "'"
+                        "FROM user_actions WHERE user_email = ?"
         );
+        params.add(currentUserEmail);
 
         // Добавляем фильтр по типу действия
         String actionType = actionTypeFilter.getValue();
         if (actionType != null && !actionType.equals("Все действия")) {
-            query.append(" AND action_type = '").append(actionType).append("'");
+            query.append(" AND action_type = ?");
+            params.add(actionType);
         }
 
-        // Добавляем фильтр по дате
+        // Добавляем фильтр по дате (сравнение по диапазону позволяет использовать индекс по action_date)
         if (startDatePicker.getValue() != null) {
-            query.append(" AND DATE(action_date) >= '").append(startDatePicker.getValue()).append("'");
+            query.append(" AND action_date >= ?");
+            params.add(java.sql.Timestamp.valueOf(startDatePicker.getValue().atStartOfDay()));
         }
         if (endDatePicker.getValue() != null) {
-            query.append(" AND DATE(action_date) <= '").append(endDatePicker.getValue()).append("'");
+            query.append(" AND action_date < ?");
+            params.add(java.sql.Timestamp.valueOf(endDatePicker.getValue().plusDays(1).atStartOfDay()));
         }
 
         query.append(" ORDER BY action_date DESC");
@@ -174,30 +196,45 @@ public class UserActionsController {
             String fileName = "user_actions_" + currentUserEmail + "_" +
                     LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss")) + ".csv";
 
-            FileWriter writer = new FileWriter(fileName);
-
-            // Заголовок CSV
-            writer.write("Дата и время;Действие;Тип сущности;Детали;IP адрес\n");
-
-            // Данные
-            for (Map<String, Object> row : actionsTable.getItems()) {
-                writer.write(
-                        safeGetString(row, "action_date") + ";" +
-                                safeGetString(row, "action_type") + ";" +
-                                safeGetString(row, "entity_type") + ";" +
-                                safeGetString(row, "action_details") + ";" +
-                                safeGetString(row, "ip_address") + "\n"
-                );
+            // Данные читаются из БД потоком с теми же фильтрами, что и таблица,
+            // поэтому размер экспорта не ограничен памятью
+            List<Object> params = new ArrayList<>();
+            String query = buildQuery(params);
+            long exported;
+
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName))) {
+                // Заголовок CSV
+                writer.write("Дата и время;Действие;Тип сущности;Детали;IP адрес\n");
+
+                // Данные
+                UserActionLogger.flush();
+                exported = Database.forEachRow(query, Database.DEFAULT_FETCH_SIZE, row -> {
+                    try {
+                        writer.write(
+                                safeGetString(row, "action_date") + ";" +
+                                        safeGetString(row, "action_type") + ";" +
+                                        safeGetString(row, "entity_type") + ";" +
+                                        safeGetString(row, "action_details") + ";" +
+                                        safeGetString(row, "ip_address") + "\n"
+                        );
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, params.toArray());
             }
 
-            writer.close();
+            if (exported < 0) {
+                showError("Ошибка при чтении данных для экспорта");
+                return;
+            }
 
             Alert alert = new Alert(Alert.AlertType.INFORMATION);
             alert.setTitle("Экспорт завершен");
             alert.setHeaderText("Данные успешно экспортированы в файл: " + fileName);
+            alert.setContentText("Экспортировано записей: " + exported);
             alert.showAndWait();
 
-        } catch (IOException e) {
+        } catch (IOException | UncheckedIOException e) {
             showError("Ошибка при экспорте данных: " + e.getMessage());
         }
     }
@@ -211,13 +248,16 @@ public class UserActionsController {
 
         alert.showAndWait().ifPresent(response -> {
             if (response == ButtonType.OK) {
-                String query = "DELETE FROM user_actions WHERE user_email = '" + currentUserEmail + "'";
-                if (Database.executeUpdate(query)) {
-                    loadUserActions();
-                    showAlert("Успех", "История действий очищена");
-                } else {
-                    showError("Ошибка при очистке истории");
-                }
+                String query = "DELETE FROM user_actions WHERE user_email = ?";
+                DbExecutor.supply(() -> Database.update(query, currentUserEmail))
+                        .thenAcceptAsync(cleared -> {
+                            if (cleared) {
+                                loadUserActions();
+                                showAlert("Успех", "История действий очищена");
+                            } else {
+                                showError("Ошибка при очистке истории");
+                            }
+                        }, DbExecutor.FX);
             }
         });
     }
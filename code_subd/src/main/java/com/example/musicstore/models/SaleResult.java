@@ -0,0 +1,44 @@
+package com.example.musicstore.models;
+
+/**
+ * Результат продажи пластинки: статус и итоговые значения после продажи
+ */
+public class SaleResult {
+
+    public enum Status {
+        OK,                 // продажа проведена
+        NOT_FOUND,          // пластинка не найдена
+        INSUFFICIENT_STOCK, // на складе меньше, чем продается
+        ERROR               // ошибка базы данных
+    }
+
+    private final Status status;
+    private final int recordId;
+    private final int currentYearSales;
+    private final int remainingStock;
+
+    public SaleResult(Status status, int recordId, int currentYearSales, int remainingStock) {
+        this.status = status;
+        this.recordId = recordId;
+        this.currentYearSales = currentYearSales;
+        this.remainingStock = remainingStock;
+    }
+
+    public static SaleResult failure(Status status, int recordId) {
+        return new SaleResult(status, recordId, 0, 0);
+    }
+
+    // Геттеры
+    public Status getStatus() { return status; }
+    public int getRecordId() { return recordId; }
+    public int getCurrentYearSales() { return currentYearSales; }
+    public int getRemainingStock() { return remainingStock; }
+
+    public boolean isSuccess() { return status == Status.OK; }
+
+    @Override
+    public String toString() {
+        return "SaleResult{status=" + status + ", recordId=" + recordId +
+                ", currentYearSales=" + currentYearSales + ", remainingStock=" + remainingStock + "}";
+    }
+}
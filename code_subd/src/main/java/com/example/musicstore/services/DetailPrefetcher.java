@@ -0,0 +1,188 @@
+package com.example.musicstore.services;
+
+import com.example.musicstore.Database;
+import com.example.musicstore.utils.DbExecutor;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Предварительная загрузка деталей записей для панели деталей
+ * При выборе строки таблицы запросы деталей соседних строк (rows строк выше и
+ * ниже) выполняются заранее, и при переходе стрелками детали показываются без
+ * ожидания базы. Результаты хранятся в LRU-кэше не более entries запросов и
+ * не дольше ttlMs миллисекунд; изменение таблицы, от которой зависит запрос,
+ * удаляет его результат.
+ *
+ * Повторный запрос того же ключа, пока первый еще выполняется, получает тот же
+ * future: выбор строки, детали которой уже загружаются заранее, не запускает
+ * второй запрос.
+ *
+ * Параметры задаются системными свойствами musicstore.prefetch.*: rows, entries, ttlMs
+ */
+public class DetailPrefetcher {
+
+    // Количество соседних строк с каждой стороны от выбранной
+    public static final int NEIGHBOUR_ROWS = Integer.getInteger("musicstore.prefetch.rows", 3);
+
+    private static final DetailPrefetcher INSTANCE = new DetailPrefetcher(
+            Integer.getInteger("musicstore.prefetch.entries", 64),
+            Long.getLong("musicstore.prefetch.ttlMs", 30_000L));
+
+    static {
+        com.example.musicstore.utils.Database.addShutdownAction(() -> System.out.println(INSTANCE.getStats()));
+    }
+
+    private final int maxEntries;
+    private final long ttlNanos;
+
+    // Запросы в порядке использования: первый - давно не использованный
+    private final LinkedHashMap<String, Entry> entries;
+
+    // Статистика
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong prefetched = new AtomicLong();
+
+    public DetailPrefetcher(int maxEntries, long ttlMillis) {
+        if (maxEntries <= 0 || ttlMillis < 0) {
+            throw new IllegalArgumentException("Некорректные параметры предзагрузки: entries=" + maxEntries + ", ttl=" + ttlMillis);
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttlMillis * 1_000_000L;
+        this.entries = new LinkedHashMap<>(maxEntries * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > DetailPrefetcher.this.maxEntries;
+            }
+        };
+    }
+
+    public static DetailPrefetcher getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Результат запроса деталей: из кэша, из уже выполняющейся загрузки или новым запросом
+     * @param sql параметризованный запрос
+     * @param dependsOn таблицы, от которых зависит результат
+     * @param params значения параметров
+     */
+    public CompletableFuture<List<Map<String, Object>>> query(String sql, Set<String> dependsOn, Object... params) {
+        return load(sql, dependsOn, params, false);
+    }
+
+    /**
+     * Загрузка деталей соседней строки заранее (ожидание не требуется)
+     */
+    public CompletableFuture<List<Map<String, Object>>> prefetch(String sql, Set<String> dependsOn, Object... params) {
+        return load(sql, dependsOn, params, true);
+    }
+
+    /**
+     * Готовый результат запроса или null, если его еще нет
+     * Используется в потоке JavaFX, чтобы показать детали сразу, без фоновой задачи
+     */
+    public List<Map<String, Object>> peek(String sql, Object... params) {
+        String key = key(sql, params);
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry == null || !isFresh(entry) || !entry.future.isDone() || entry.future.isCompletedExceptionally()) {
+                return null;
+            }
+            hits.incrementAndGet();
+            return entry.future.join();
+        }
+    }
+
+    private CompletableFuture<List<Map<String, Object>>> load(String sql, Set<String> dependsOn, Object[] params, boolean ahead) {
+        String key = key(sql, params);
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && isFresh(entry)) {
+                if (!ahead) hits.incrementAndGet();
+                return entry.future;
+            }
+            if (ahead) {
+                prefetched.incrementAndGet();
+            } else {
+                misses.incrementAndGet();
+            }
+            entry = new Entry(DbExecutor.supply(() -> {
+                List<Map<String, Object>> rows = Database.queryOrNull(sql, params);
+                if (rows == null) {
+                    throw new IllegalStateException("Не выполнен запрос деталей: " + sql);
+                }
+                return rows;
+            }), Set.copyOf(dependsOn));
+            entries.put(key, entry);
+        }
+        // Неудачный запрос не остается в кэше
+        Entry loaded = entry;
+        loaded.future.whenComplete((rows, error) -> {
+            if (error != null) {
+                synchronized (this) {
+                    entries.remove(key, loaded);
+                }
+            }
+        });
+        return loaded.future;
+    }
+
+    /**
+     * Удаление результатов, зависящих от измененных таблиц
+     */
+    public synchronized void invalidate(String... tables) {
+        Set<String> changed = new HashSet<>(Arrays.asList(tables));
+        entries.values().removeIf(entry -> !Collections.disjoint(entry.dependsOn, changed));
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    private boolean isFresh(Entry entry) {
+        return System.nanoTime() - entry.createdAt < ttlNanos;
+    }
+
+    private static String key(String sql, Object[] params) {
+        return sql + " " + Arrays.toString(params);
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(hits.get(), misses.get(), prefetched.get(), entries.size());
+    }
+
+    private static final class Entry {
+        final CompletableFuture<List<Map<String, Object>>> future;
+        final Set<String> dependsOn;
+        final long createdAt = System.nanoTime();
+
+        Entry(CompletableFuture<List<Map<String, Object>>> future, Set<String> dependsOn) {
+            this.future = future;
+            this.dependsOn = dependsOn;
+        }
+    }
+
+    public static final class Stats {
+        public final long hits;
+        public final long misses;
+        public final long prefetched;
+        public final int size;
+
+        Stats(long hits, long misses, long prefetched, int size) {
+            this.hits = hits;
+            this.misses = misses;
+            this.prefetched = prefetched;
+            this.size = size;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Предзагрузка деталей: попаданий=%d, промахов=%d, загружено заранее=%d, запросов в кэше=%d",
+                    hits, misses, prefetched, size);
+        }
+    }
+}
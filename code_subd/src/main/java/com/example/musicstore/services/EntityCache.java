@@ -0,0 +1,423 @@
+package com.example.musicstore.services;
+
+import com.example.musicstore.Database;
+
+import java.time.temporal.TemporalAccessor;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кэш строк основной таблицы (ансамбли, музыканты, произведения, пластинки)
+ * по первичному ключу. Таблица читается из базы один раз при первом обращении,
+ * после изменения данных перечитывается только затронутая строка (refresh),
+ * поэтому приложение сразу видит собственные изменения без полной перезагрузки.
+ *
+ * Изменения, сделанные в базе другими рабочими местами, догружает sync(): читаются
+ * только строки с updated_at не раньше последней прочитанной отметки, а удаления -
+ * из журнала deleted_rows (db/migrations/003_deleted_rows.sql) или, если журнала нет,
+ * сверкой ключей при несовпадении количества строк.
+ *
+ * Строки отдаются без копирования и используются таблицами интерфейса напрямую,
+ * поэтому они неизменяемы: кэш меняется только через refresh() и sync().
+ * Диалоги редактирования собирают новые значения в отдельную карту.
+ *
+ * Кроме общей версии содержимого ведется версия названий (getNameVersion()): она
+ * меняется только при добавлении и удалении строк и изменении колонок названия,
+ * поэтому индексы названий не перестраиваются, например, после записи продаж.
+ */
+public class EntityCache {
+
+    /**
+     * Уведомление об изменении строк кэша
+     * Вызывается в потоке, изменившем кэш, вне блокировки кэша
+     */
+    public interface ChangeListener {
+        /**
+         * @param updated добавленные и измененные строки
+         * @param removed ключи удаленных строк
+         */
+        void rowsChanged(List<Map<String, Object>> updated, List<Long> removed);
+
+        /**
+         * Кэш загружен заново или сброшен: прежние строки недействительны
+         */
+        void reloaded();
+    }
+
+    public static final EntityCache ENSEMBLES = new EntityCache("ensembles", "ensemble_id", "name");
+    public static final EntityCache MUSICIANS = new EntityCache("musicians", "musician_id", "first_name", "middle_name", "last_name");
+    public static final EntityCache COMPOSITIONS = new EntityCache("compositions", "composition_id", "title");
+    public static final EntityCache RECORDS = new EntityCache("records", "record_id", "title");
+
+    private static final Map<String, EntityCache> BY_TABLE = Map.of(
+            ENSEMBLES.tableName, ENSEMBLES,
+            MUSICIANS.tableName, MUSICIANS,
+            COMPOSITIONS.tableName, COMPOSITIONS,
+            RECORDS.tableName, RECORDS);
+
+    private final String tableName;
+    private final String idColumn;
+    // Колонки, из которых строятся названия записей
+    private final List<String> nameColumns;
+
+    // Строки в порядке первичного ключа
+    private final ConcurrentSkipListMap<Long, Map<String, Object>> rows = new ConcurrentSkipListMap<>();
+    private volatile boolean loaded;
+    // Номер версии содержимого, увеличивается при каждом изменении
+    private final AtomicLong version = new AtomicLong();
+    // Номер версии названий, увеличивается при изменении состава строк или колонок названия
+    private final AtomicLong nameVersion = new AtomicLong();
+
+    // Наибольшее значение updated_at среди прочитанных строк (null - неизвестно)
+    private Object watermark;
+    // Последняя прочитанная запись журнала удалений
+    private long lastTombstone;
+    // Есть ли в базе журнал удалений deleted_rows (null - еще не проверено)
+    private static volatile Boolean tombstoneLog;
+
+    private final List<ChangeListener> listeners = new java.util.concurrent.CopyOnWriteArrayList<>();
+
+    /**
+     * @param nameColumns колонки названия записи (без колонок версия названий меняется
+     *                    при любом изменении строки)
+     */
+    public EntityCache(String tableName, String idColumn, String... nameColumns) {
+        this.tableName = tableName;
+        this.idColumn = idColumn;
+        this.nameColumns = List.of(nameColumns);
+    }
+
+    /**
+     * Кэш таблицы по ее имени
+     * @return кэш или null, если таблица не кэшируется
+     */
+    public static EntityCache forTable(String tableName) {
+        return BY_TABLE.get(tableName);
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public String getIdColumn() {
+        return idColumn;
+    }
+
+    /**
+     * Все строки таблицы; при первом обращении таблица загружается из базы
+     */
+    public List<Map<String, Object>> getAll() {
+        ensureLoaded();
+        return new ArrayList<>(rows.values());
+    }
+
+    /**
+     * Строка по первичному ключу или null, если ее нет
+     */
+    public Map<String, Object> get(Object id) {
+        ensureLoaded();
+        Long key = key(id);
+        return key == null ? null : rows.get(key);
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Версия содержимого кэша для построенных по нему индексов
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Версия названий для индексов названий и выпадающих списков
+     */
+    public long getNameVersion() {
+        return nameVersion.get();
+    }
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        synchronized (this) {
+            if (loaded) return;
+            if (!load()) return;
+        }
+        listeners.forEach(ChangeListener::reloaded);
+    }
+
+    /**
+     * Чтение всей таблицы
+     * @return false если запрос не выполнен: кэш остается незагруженным и
+     *         таблица читается снова при следующем обращении
+     */
+    private boolean load() {
+        // Отметка журнала удалений читается до строк: удаление во время загрузки будет повторено при sync()
+        lastTombstone = hasTombstoneLog() ? lastTombstoneId() : 0;
+        List<Map<String, Object>> data = Database.queryOrNull("SELECT * FROM " + tableName);
+        if (data == null) {
+            System.err.println("Кэш " + tableName + ": таблица не загружена, повтор при следующем обращении");
+            return false;
+        }
+        rows.clear();
+        watermark = null;
+        for (Map<String, Object> row : data) {
+            put(readOnly(row));
+            advanceWatermark(row);
+        }
+        loaded = true;
+        version.incrementAndGet();
+        nameVersion.incrementAndGet();
+        System.out.println("Кэш " + tableName + ": загружено строк " + rows.size());
+        return true;
+    }
+
+    /**
+     * Перечитывание строк из базы после их добавления или изменения
+     * Строки, не найденные в базе, не удаляются: пустой результат может означать
+     * ошибку запроса (удаленные строки убирает remove() или invalidate())
+     * @param ids первичные ключи измененных строк
+     */
+    public void refresh(Collection<?> ids) {
+        if (!loaded || ids.isEmpty()) return;
+
+        StringBuilder placeholders = new StringBuilder();
+        List<Long> keys = new ArrayList<>();
+        for (Object id : ids) {
+            Long key = key(id);
+            if (key == null) continue;
+            if (!keys.isEmpty()) placeholders.append(", ");
+            placeholders.append('?');
+            keys.add(key);
+        }
+        if (keys.isEmpty()) return;
+
+        List<Map<String, Object>> data = Database.query(
+                "SELECT * FROM " + tableName + " WHERE " + idColumn + " IN (" + placeholders + ")", keys.toArray());
+        boolean renamed = false;
+        List<Map<String, Object>> updated = new ArrayList<>(data.size());
+        for (Map<String, Object> row : data) {
+            Map<String, Object> cached = readOnly(row);
+            renamed |= put(cached);
+            updated.add(cached);
+        }
+        version.incrementAndGet();
+        if (renamed) {
+            nameVersion.incrementAndGet();
+        }
+        fireRowsChanged(updated, Collections.emptyList());
+    }
+
+    public void refresh(Object id) {
+        refresh(Collections.singletonList(id));
+    }
+
+    /**
+     * Догрузка изменений, сделанных в базе с прошлой загрузки или синхронизации
+     * Незагруженный кэш не синхронизируется: при первом обращении он прочитает всю таблицу
+     * @return true если содержимое кэша изменилось
+     */
+    public boolean sync() {
+        List<Map<String, Object>> updated = new ArrayList<>();
+        List<Long> removed = new ArrayList<>();
+        synchronized (this) {
+            if (!loaded) return false;
+            syncLocked(updated, removed);
+        }
+        if (updated.isEmpty() && removed.isEmpty()) {
+            return false;
+        }
+        fireRowsChanged(updated, removed);
+        return true;
+    }
+
+    private void syncLocked(List<Map<String, Object>> updated, List<Long> removed) {
+
+        // Строки с той же отметкой читаются повторно: за ту же секунду могли измениться и другие
+        List<Map<String, Object>> data = watermark == null
+                ? Database.query("SELECT * FROM " + tableName)
+                : Database.query("SELECT * FROM " + tableName + " WHERE updated_at >= ?", watermark);
+        boolean renamed = false;
+        for (Map<String, Object> row : data) {
+            row = readOnly(row);
+            Long key = key(row.get(idColumn));
+            if (key == null) continue;
+            Map<String, Object> old = rows.get(key);
+            if (!row.equals(old)) {
+                renamed |= namesChanged(old, row);
+                rows.put(key, row);
+                updated.add(row);
+            }
+            advanceWatermark(row);
+        }
+        syncDeletes(removed);
+
+        if (!updated.isEmpty() || !removed.isEmpty()) {
+            version.incrementAndGet();
+            if (renamed || !removed.isEmpty()) {
+                nameVersion.incrementAndGet();
+            }
+            System.out.println("Кэш " + tableName + ": изменено строк " + updated.size() + ", удалено " + removed.size());
+        }
+    }
+
+    /**
+     * Удаление из кэша строк, удаленных в базе
+     * @param removed ключи удаленных строк
+     */
+    private void syncDeletes(List<Long> removed) {
+        if (hasTombstoneLog()) {
+            List<Map<String, Object>> data = Database.query("SELECT tombstone_id, row_id FROM deleted_rows " +
+                    "WHERE table_name = ? AND tombstone_id > ? ORDER BY tombstone_id", tableName, lastTombstone);
+            for (Map<String, Object> row : data) {
+                Long key = key(row.get("row_id"));
+                if (key != null && rows.remove(key) != null) {
+                    removed.add(key);
+                }
+                lastTombstone = ((Number) row.get("tombstone_id")).longValue();
+            }
+            return;
+        }
+
+        // Без журнала: ключи сверяются, только если количество строк в базе и в кэше разное
+        List<Map<String, Object>> count = Database.query("SELECT COUNT(*) AS row_count FROM " + tableName);
+        if (count.isEmpty()) return;
+        long rowCount = ((Number) count.get(0).get("row_count")).longValue();
+        if (rowCount == rows.size()) return;
+
+        Set<Long> ids = new HashSet<>();
+        for (Map<String, Object> row : Database.query("SELECT " + idColumn + " FROM " + tableName)) {
+            ids.add(key(row.get(idColumn)));
+        }
+        // Пустой результат при непустой таблице - ошибка запроса
+        if (ids.isEmpty() && rowCount > 0) return;
+        for (Iterator<Long> it = rows.keySet().iterator(); it.hasNext(); ) {
+            Long key = it.next();
+            if (!ids.contains(key)) {
+                it.remove();
+                removed.add(key);
+            }
+        }
+    }
+
+    /**
+     * Учет updated_at строки в отметке синхронизации
+     * Принимаются только значения даты и времени: ResultTable заменяет NULL пустой
+     * строкой, и такие (и любые другие) значения пропускаются
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void advanceWatermark(Map<String, Object> row) {
+        Object updatedAt = row.get("updated_at");
+        boolean dateTime = updatedAt instanceof Date
+                || (updatedAt instanceof TemporalAccessor && updatedAt instanceof Comparable);
+        if (!dateTime) return;
+        // Сравниваются только значения одного вида (Date/Timestamp или один класс java.time)
+        boolean comparable = watermark == null || watermark.getClass() == updatedAt.getClass()
+                || (watermark instanceof Date && updatedAt instanceof Date);
+        if (comparable && (watermark == null || ((Comparable) updatedAt).compareTo(watermark) > 0)) {
+            watermark = updatedAt;
+        }
+    }
+
+    private long lastTombstoneId() {
+        List<Map<String, Object>> data = Database.query(
+                "SELECT MAX(tombstone_id) AS last_id FROM deleted_rows WHERE table_name = ?", tableName);
+        Object lastId = data.isEmpty() ? null : data.get(0).get("last_id");
+        return lastId instanceof Number ? ((Number) lastId).longValue() : 0;
+    }
+
+    private static boolean hasTombstoneLog() {
+        if (tombstoneLog == null) {
+            tombstoneLog = com.example.musicstore.utils.Database.tableExists("deleted_rows");
+        }
+        return tombstoneLog;
+    }
+
+    /**
+     * Удаление строки из кэша после ее удаления из базы
+     */
+    public void remove(Object id) {
+        Long key = key(id);
+        if (key != null && rows.remove(key) != null) {
+            version.incrementAndGet();
+            nameVersion.incrementAndGet();
+            fireRowsChanged(Collections.emptyList(), List.of(key));
+        }
+    }
+
+    /**
+     * Сброс кэша: при следующем обращении таблица загрузится заново
+     */
+    public void invalidate() {
+        synchronized (this) {
+            loaded = false;
+            rows.clear();
+            watermark = null;
+            version.incrementAndGet();
+            nameVersion.incrementAndGet();
+        }
+        listeners.forEach(ChangeListener::reloaded);
+    }
+
+    /**
+     * Сброс всех кэшей таблиц
+     */
+    public static void invalidateAll() {
+        for (EntityCache cache : BY_TABLE.values()) {
+            cache.invalidate();
+        }
+    }
+
+    public void addChangeListener(ChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeChangeListener(ChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void fireRowsChanged(List<Map<String, Object>> updated, List<Long> removed) {
+        for (ChangeListener listener : listeners) {
+            listener.rowsChanged(updated, removed);
+        }
+    }
+
+    /**
+     * Строки кэша неизменяемы: иначе изменение строки на месте не заметили бы
+     * сравнение при refresh() и версия названий
+     */
+    private static Map<String, Object> readOnly(Map<String, Object> row) {
+        return Collections.unmodifiableMap(row);
+    }
+
+    /**
+     * @return true если строка новая или изменились колонки ее названия
+     */
+    private boolean put(Map<String, Object> row) {
+        Long key = key(row.get(idColumn));
+        if (key == null) return false;
+        return namesChanged(rows.put(key, row), row);
+    }
+
+    private boolean namesChanged(Map<String, Object> old, Map<String, Object> row) {
+        if (old == null) return true;
+        if (nameColumns.isEmpty()) return !old.equals(row);
+        for (String column : nameColumns) {
+            if (!Objects.equals(old.get(column), row.get(column))) return true;
+        }
+        return false;
+    }
+
+    private static Long key(Object id) {
+        if (id instanceof Number) {
+            return ((Number) id).longValue();
+        }
+        try {
+            return id == null ? null : Long.valueOf(id.toString().trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
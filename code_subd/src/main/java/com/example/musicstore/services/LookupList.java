@@ -0,0 +1,97 @@
+package com.example.musicstore.services;
+
+import com.example.musicstore.utils.DbExecutor;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Общий список названий для выпадающих списков (ансамбли, музыканты, произведения, пластинки)
+ * Все ComboBox одного типа сущности показывают один и тот же ObservableList.
+ * Список строится по индексу названий и помнит версию названий кэша, по которой
+ * построен: refresh() ничего не делает, пока названия этого типа сущности не изменились.
+ *
+ * Методы вызываются в потоке JavaFX
+ */
+public class LookupList {
+
+    public static final LookupList ENSEMBLES = new LookupList(NameIndex.ENSEMBLES);
+    public static final LookupList MUSICIANS = new LookupList(NameIndex.MUSICIANS);
+    public static final LookupList COMPOSITIONS = new LookupList(NameIndex.COMPOSITIONS);
+    public static final LookupList RECORDS = new LookupList(NameIndex.RECORDS);
+
+    private final NameIndex index;
+    private final ObservableList<String> items = FXCollections.observableArrayList();
+    private final ObservableList<String> readOnlyItems = FXCollections.unmodifiableObservableList(items);
+
+    // Версия названий кэша, по которой построен список (-1 - список еще не загружен)
+    private long version = -1;
+    private CompletableFuture<Void> pending;
+
+    public LookupList(NameIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * Названия для привязки к ComboBox.setItems()
+     */
+    public ObservableList<String> getItems() {
+        return readOnlyItems;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Обновление списка, если данные изменились с момента его построения
+     * @return future, завершающийся в потоке JavaFX, когда список актуален
+     */
+    public CompletableFuture<Void> refresh() {
+        EntityCache cache = index.getCache();
+        if (cache.isLoaded() && cache.getNameVersion() == version) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (pending != null && !pending.isDone()) {
+            return pending;
+        }
+
+        pending = DbExecutor.supply(() -> {
+                    // Версия читается до названий: изменение во время чтения вызовет повторное обновление
+                    cache.getAll();
+                    long loadedVersion = cache.getNameVersion();
+                    return new Snapshot(loadedVersion, index.getNames());
+                })
+                .thenAcceptAsync(snapshot -> {
+                    version = snapshot.version;
+                    if (!items.equals(snapshot.names)) {
+                        items.setAll(snapshot.names);
+                    }
+                }, DbExecutor.FX);
+        pending.whenComplete((ignored, error) -> {
+            if (error != null) {
+                System.err.println("Ошибка загрузки списка " + cache.getTableName() + ": " + error.getMessage());
+            }
+        });
+        return pending;
+    }
+
+    /**
+     * Обновление всех списков, данные которых изменились
+     */
+    public static CompletableFuture<Void> refreshAll() {
+        return CompletableFuture.allOf(ENSEMBLES.refresh(), MUSICIANS.refresh(), COMPOSITIONS.refresh(), RECORDS.refresh());
+    }
+
+    private static final class Snapshot {
+        final long version;
+        final List<String> names;
+
+        Snapshot(long version, List<String> names) {
+            this.version = version;
+            this.names = names;
+        }
+    }
+}
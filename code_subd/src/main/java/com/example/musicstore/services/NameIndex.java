@@ -0,0 +1,282 @@
+package com.example.musicstore.services;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Индекс "название - идентификатор" по строкам кэша основной таблицы
+ * Точное совпадение ищется по хэш-таблице, частичное (аналог LIKE '%...%') -
+ * двоичным поиском по массиву суффиксов всех названий, без обхода таблицы.
+ * Сравнение без учета регистра, как в сравнениях MySQL по умолчанию.
+ *
+ * Запись может иметь несколько вариантов названия для точного поиска (у музыкантов:
+ * "Имя Фамилия", "Имя Отчество Фамилия", "Фамилия Имя", "Фамилия Имя Отчество");
+ * частичный поиск идет по основному названию - первому варианту.
+ *
+ * Индекс перестраивается при первом поиске после изменения названий в кэше
+ * (EntityCache.getNameVersion()), поэтому изменения данных видны сразу, а
+ * изменения других колонок (например, продаж) индекс не перестраивают. Массив
+ * суффиксов строится только при первом частичном поиске по этой версии.
+ */
+public class NameIndex {
+
+    public static final NameIndex ENSEMBLES = new NameIndex(EntityCache.ENSEMBLES, "name", row -> List.of(text(row.get("name"))));
+    public static final NameIndex MUSICIANS = new NameIndex(EntityCache.MUSICIANS, "full_name", NameIndex::musicianNames);
+    public static final NameIndex COMPOSITIONS = new NameIndex(EntityCache.COMPOSITIONS, "title", row -> List.of(text(row.get("title"))));
+    public static final NameIndex RECORDS = new NameIndex(EntityCache.RECORDS, "title", row -> List.of(text(row.get("title"))));
+
+    // Разделитель названий в тексте массива суффиксов (меньше любого символа названия)
+    private static final char SEPARATOR = '\u0001';
+
+    private final EntityCache cache;
+    private final String nameColumn;
+    private final Function<Map<String, Object>, List<String>> namesOf;
+
+    private volatile Snapshot snapshot = new Snapshot();
+
+    /**
+     * @param namesOf варианты названия записи, основное название - первое
+     */
+    public NameIndex(EntityCache cache, String nameColumn, Function<Map<String, Object>, List<String>> namesOf) {
+        this.cache = cache;
+        this.nameColumn = nameColumn;
+        this.namesOf = namesOf;
+    }
+
+    /**
+     * Варианты имени музыканта
+     */
+    private static List<String> musicianNames(Map<String, Object> row) {
+        String first = text(row.get("first_name")).trim();
+        String middle = text(row.get("middle_name")).trim();
+        String last = text(row.get("last_name")).trim();
+        if (middle.isEmpty()) {
+            return List.of(first + " " + last, last + " " + first);
+        }
+        return List.of(first + " " + middle + " " + last, first + " " + last,
+                last + " " + first, last + " " + first + " " + middle);
+    }
+
+    /**
+     * Индекс таблицы по ее имени и колонке названия
+     * @return индекс или null, если такой индекс не ведется
+     */
+    public static NameIndex forTable(String tableName, String nameColumn) {
+        for (NameIndex index : List.of(ENSEMBLES, MUSICIANS, COMPOSITIONS, RECORDS)) {
+            if (index.cache.getTableName().equals(tableName) && index.nameColumn.equals(nameColumn)) {
+                return index;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Идентификатор по точному названию
+     * @return идентификатор или null, если название не найдено
+     */
+    public Long findExact(String name) {
+        if (name == null) return null;
+        return current().idByName.get(normalize(name));
+    }
+
+    /**
+     * Идентификатор первой (по первичному ключу) записи, название которой содержит фрагмент
+     * @return идентификатор или null, если совпадений нет
+     */
+    public Long findContaining(String fragment) {
+        if (fragment == null) return null;
+        String key = normalize(fragment);
+        if (key.isEmpty() || key.indexOf(SEPARATOR) >= 0) return null;
+
+        Snapshot s = current();
+        if (s.suffixes == null) {
+            s.ensureSuffixes();
+        }
+        int from = lowerBound(s, key);
+        Long best = null;
+        for (int i = from; i < s.suffixes.length && startsWith(s.text, s.suffixes[i], key); i++) {
+            long id = s.ids[s.owner[s.suffixes[i]]];
+            if (best == null || id < best) {
+                best = id;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Поиск как в getEntityIdFromName: сначала точное совпадение, затем частичное
+     */
+    public Long find(String name) {
+        Long id = findExact(name);
+        return id != null ? id : findContaining(name);
+    }
+
+    /**
+     * Основные названия всех записей в порядке первичного ключа
+     */
+    public List<String> getNames() {
+        Snapshot s = current();
+        List<String> names = new ArrayList<>(s.ids.length);
+        for (long id : s.ids) {
+            names.add(s.nameById.get(id));
+        }
+        return names;
+    }
+
+    public EntityCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Название записи по идентификатору
+     */
+    public String getName(long id) {
+        return current().nameById.get(id);
+    }
+
+    private Snapshot current() {
+        Snapshot s = snapshot;
+        if (s.version != cache.getNameVersion()) {
+            synchronized (this) {
+                s = snapshot;
+                if (s.version != cache.getNameVersion()) {
+                    s = build();
+                    snapshot = s;
+                }
+            }
+        }
+        return s;
+    }
+
+    private Snapshot build() {
+        if (!cache.isLoaded()) {
+            cache.getAll();
+        }
+        // Версия читается до строк: изменение во время построения вызовет повторное построение
+        long version = cache.getNameVersion();
+        List<Map<String, Object>> rows = cache.getAll();
+
+        Snapshot s = new Snapshot();
+        s.version = version;
+        s.ids = new long[rows.size()];
+
+        StringBuilder text = new StringBuilder();
+        List<Integer> ownerList = new ArrayList<>();
+        for (int n = 0; n < rows.size(); n++) {
+            Map<String, Object> row = rows.get(n);
+            long id = ((Number) row.get(cache.getIdColumn())).longValue();
+            List<String> names = namesOf.apply(row);
+            String name = names.get(0);
+            s.ids[n] = id;
+            s.nameById.put(id, name);
+            // Строки идут по возрастанию ключа: при одинаковых названиях остается меньший
+            for (String variant : names) {
+                s.idByName.putIfAbsent(normalize(variant), id);
+            }
+
+            String key = normalize(name).replace(SEPARATOR, ' ');
+            for (int i = 0; i < key.length(); i++) {
+                ownerList.add(n);
+            }
+            text.append(key);
+            text.append(SEPARATOR);
+            ownerList.add(n);
+        }
+
+        s.text = text.toString();
+        s.owner = new int[ownerList.size()];
+        for (int i = 0; i < s.owner.length; i++) {
+            s.owner[i] = ownerList.get(i);
+        }
+        return s;
+    }
+
+    private static int compareSuffixes(String text, int a, int b) {
+        int length = text.length();
+        while (a < length && b < length) {
+            char ca = text.charAt(a);
+            char cb = text.charAt(b);
+            if (ca != cb) return Character.compare(ca, cb);
+            // Суффиксы не сравниваются дальше конца названия
+            if (ca == SEPARATOR) return 0;
+            a++;
+            b++;
+        }
+        return Integer.compare(length - a, length - b);
+    }
+
+    /**
+     * Первая позиция массива суффиксов, суффикс в которой не меньше фрагмента
+     */
+    private static int lowerBound(Snapshot s, String key) {
+        int low = 0;
+        int high = s.suffixes.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareWithKey(s.text, s.suffixes[mid], key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int compareWithKey(String text, int position, String key) {
+        for (int i = 0; i < key.length(); i++) {
+            if (position + i >= text.length()) return -1;
+            char c = text.charAt(position + i);
+            if (c != key.charAt(i)) return Character.compare(c, key.charAt(i));
+        }
+        return 0;
+    }
+
+    private static boolean startsWith(String text, int position, String key) {
+        return compareWithKey(text, position, key) == 0;
+    }
+
+    private static String normalize(String name) {
+        // Лишние пробелы между словами не учитываются
+        return name.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    private static String text(Object value) {
+        return value == null ? "" : value.toString();
+    }
+
+    /**
+     * Неизменяемое состояние индекса для одной версии кэша
+     */
+    private static final class Snapshot {
+        long version = -1;
+        final Map<String, Long> idByName = new HashMap<>();
+        final Map<Long, String> nameById = new HashMap<>();
+        long[] ids = new long[0];
+        String text = "";
+        // Номер записи для каждой позиции текста
+        int[] owner = new int[0];
+        volatile int[] suffixes;
+
+        /**
+         * Построение массива суффиксов: позиции текста (кроме разделителей),
+         * упорядоченные по суффиксу
+         */
+        synchronized void ensureSuffixes() {
+            if (suffixes != null) return;
+            Integer[] positions = new Integer[text.length() - ids.length];
+            int count = 0;
+            for (int i = 0; i < text.length(); i++) {
+                if (text.charAt(i) != SEPARATOR) {
+                    positions[count++] = i;
+                }
+            }
+            String t = text;
+            Arrays.sort(positions, (a, b) -> compareSuffixes(t, a, b));
+            int[] sorted = new int[positions.length];
+            for (int i = 0; i < positions.length; i++) {
+                sorted[i] = positions[i];
+            }
+            suffixes = sorted;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.musicstore.services;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Кэш результатов тяжелых запросов (аналитика с LEFT JOIN/GROUP BY)
+ * Результат хранится ttlMs миллисекунд и удаляется раньше, если изменилась
+ * таблица, от которой он зависит. Зависимости задаются именами таблиц; для
+ * продаж пластинок есть отдельная зависимость SALES, чтобы запись продаж
+ * не сбрасывала результаты, которые от продаж не зависят.
+ *
+ * TTL задается системным свойством musicstore.analytics.ttlMs
+ */
+public class QueryResultCache {
+
+    // Изменение продаж пластинок (current_year_sales, remaining_stock)
+    public static final String SALES = "record_sales";
+
+    public static final QueryResultCache ANALYTICS = new QueryResultCache(
+            Long.getLong("musicstore.analytics.ttlMs", 60_000L));
+
+    static {
+        com.example.musicstore.utils.Database.addShutdownAction(() -> System.out.println(ANALYTICS.getStats()));
+    }
+
+    private final long ttlNanos;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    // Статистика
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong invalidated = new AtomicLong();
+
+    public QueryResultCache(long ttlMillis) {
+        if (ttlMillis < 0) {
+            throw new IllegalArgumentException("Некорректный TTL: " + ttlMillis);
+        }
+        this.ttlNanos = ttlMillis * 1_000_000L;
+    }
+
+    /**
+     * Результат запроса из кэша или, если его нет или он устарел, из loader
+     * Пустой результат не кэшируется: он может означать ошибку запроса
+     * @param key ключ результата (текст запроса)
+     * @param dependsOn таблицы, от которых зависит результат
+     * @param loader выполнение запроса
+     * @return неизменяемый список строк
+     */
+    public List<Map<String, Object>> get(String key, Set<String> dependsOn, Supplier<List<Map<String, Object>>> loader) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            if (System.nanoTime() - entry.loadedAt < ttlNanos) {
+                hits.incrementAndGet();
+                return entry.rows;
+            }
+            if (entries.remove(key, entry)) {
+                expired.incrementAndGet();
+            }
+        }
+
+        misses.incrementAndGet();
+        // Счетчик сбросов читается до запроса: сброс во время запроса отменяет сохранение результата
+        long generation = invalidated.get();
+        List<Map<String, Object>> rows = Collections.unmodifiableList(new ArrayList<>(loader.get()));
+        if (!rows.isEmpty() && generation == invalidated.get()) {
+            entries.put(key, new Entry(rows, Set.copyOf(dependsOn), System.nanoTime()));
+        }
+        return rows;
+    }
+
+    /**
+     * Удаление результатов, зависящих от измененных таблиц
+     */
+    public void invalidate(String... tables) {
+        Set<String> changed = new HashSet<>(Arrays.asList(tables));
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (!Collections.disjoint(entry.dependsOn, changed)) {
+                it.remove();
+            }
+        }
+        invalidated.incrementAndGet();
+    }
+
+    public void invalidateAll() {
+        entries.clear();
+        invalidated.incrementAndGet();
+    }
+
+    public Stats getStats() {
+        return new Stats(hits.get(), misses.get(), expired.get(), invalidated.get(), entries.size());
+    }
+
+    private static final class Entry {
+        final List<Map<String, Object>> rows;
+        final Set<String> dependsOn;
+        final long loadedAt;
+
+        Entry(List<Map<String, Object>> rows, Set<String> dependsOn, long loadedAt) {
+            this.rows = rows;
+            this.dependsOn = dependsOn;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    public static final class Stats {
+        public final long hits;
+        public final long misses;
+        public final long expired;
+        public final long invalidations;
+        public final int size;
+
+        Stats(long hits, long misses, long expired, long invalidations, int size) {
+            this.hits = hits;
+            this.misses = misses;
+            this.expired = expired;
+            this.invalidations = invalidations;
+            this.size = size;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Кэш аналитики: попаданий=%d, промахов=%d, устарело=%d, сбросов=%d, результатов=%d",
+                    hits, misses, expired, invalidations, size);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package com.example.musicstore.services;
+
+import com.example.musicstore.Database;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Накопитель продаж пластинок
+ * Продажи суммируются в памяти по record_id (LongAdder на пластинку, без общей
+ * блокировки) и записываются в базу одним пакетом: каждые flushIntervalMs
+ * миллисекунд или после flushEvents продаж. Так тысячи продаж нескольких
+ * пластинок превращаются в одну строку UPDATE на пластинку за период.
+ *
+ * Параметры задаются системными свойствами musicstore.sales.*:
+ * flushIntervalMs, flushEvents
+ */
+public class SalesAccumulator {
+
+    /**
+     * Запись накопленных продаж в базу
+     * Возвращает непримененную часть продаж по пластинке (отклоненные продажи)
+     * или null, если запись не удалась целиком
+     */
+    public interface SalesWriter {
+        Map<Integer, Long> write(Map<Integer, Long> deltas);
+    }
+
+    /**
+     * Уведомление о записанных продажах
+     * Вызывается в фоновом потоке после каждой успешной записи
+     */
+    public interface FlushListener {
+        void flushed(Map<Integer, Long> applied, Map<Integer, Long> rejected);
+    }
+
+    private static final SalesAccumulator INSTANCE = new SalesAccumulator(
+            Long.getLong("musicstore.sales.flushIntervalMs", 1_000L),
+            Integer.getInteger("musicstore.sales.flushEvents", 500),
+            Database::applySalesBatch);
+
+    static {
+        // Запись оставшихся продаж при завершении, до закрытия пула соединений
+        com.example.musicstore.utils.Database.addShutdownAction(INSTANCE::shutdown);
+    }
+
+    private final long flushIntervalMillis;
+    private final int flushEvents;
+    private final SalesWriter writer;
+
+    // Несписанные продажи по идентификатору пластинки
+    private final ConcurrentHashMap<Integer, LongAdder> pending = new ConcurrentHashMap<>();
+    private final AtomicLong pendingEvents = new AtomicLong();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    // Учет продаж (чтение) и остановка (запись): продажа, принятая до остановки,
+    // гарантированно попадает в последний сброс
+    private final ReentrantReadWriteLock stateLock = new ReentrantReadWriteLock();
+    private final List<FlushListener> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService scheduler;
+    private volatile boolean closed;
+
+    // Статистика
+    private final AtomicLong flushedEvents = new AtomicLong();
+    private final AtomicLong flushedUnits = new AtomicLong();
+    private final AtomicLong rejectedUnits = new AtomicLong();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+    private final AtomicLong rowsWritten = new AtomicLong();
+
+    public SalesAccumulator(long flushIntervalMillis, int flushEvents, SalesWriter writer) {
+        if (flushIntervalMillis <= 0 || flushEvents <= 0) {
+            throw new IllegalArgumentException("Некорректные параметры сброса: interval=" + flushIntervalMillis + ", events=" + flushEvents);
+        }
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.flushEvents = flushEvents;
+        this.writer = writer;
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sales-accumulator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public static SalesAccumulator getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Учет продажи
+     * Продажа записывается в базу при ближайшем сбросе
+     * @param recordId идентификатор пластинки
+     * @param quantity количество проданных экземпляров
+     */
+    public void record(int recordId, int quantity) {
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Количество должно быть положительным: " + quantity);
+        }
+        stateLock.readLock().lock();
+        try {
+            if (!closed) {
+                pending.computeIfAbsent(recordId, id -> new LongAdder()).add(quantity);
+                if (pendingEvents.incrementAndGet() >= flushEvents && flushRequested.compareAndSet(false, true)) {
+                    scheduler.execute(() -> {
+                        flushRequested.set(false);
+                        flushQuietly();
+                    });
+                }
+                return;
+            }
+        } finally {
+            stateLock.readLock().unlock();
+        }
+
+        // После остановки продажи записываются сразу, чтобы не потерять их
+        Map<Integer, Long> rejected = writer.write(Map.of(recordId, (long) quantity));
+        if (rejected == null || !rejected.isEmpty()) {
+            System.err.println("Продажа не записана после остановки накопителя: пластинка " + recordId + ", " + quantity + " шт.");
+        }
+    }
+
+    /**
+     * Запись всех накопленных продаж в базу
+     * Если запись не удалась, продажи возвращаются в накопитель до следующего сброса
+     * @return true если накопленные продажи записаны (или записывать было нечего)
+     */
+    public boolean flush() {
+        flushLock.lock();
+        try {
+            long events = pendingEvents.getAndSet(0);
+            Map<Integer, Long> deltas = new HashMap<>();
+            // Записи с нулевым счетчиком не удаляются: набор пластинок ограничен каталогом
+            for (Map.Entry<Integer, LongAdder> entry : pending.entrySet()) {
+                long delta = entry.getValue().sumThenReset();
+                if (delta != 0) {
+                    deltas.put(entry.getKey(), delta);
+                }
+            }
+            if (deltas.isEmpty()) {
+                return true;
+            }
+
+            Map<Integer, Long> rejected;
+            try {
+                rejected = writer.write(deltas);
+            } catch (RuntimeException e) {
+                System.err.println("Ошибка записи продаж: " + e.getMessage());
+                rejected = null;
+            }
+            if (rejected == null) {
+                deltas.forEach((recordId, delta) -> pending.computeIfAbsent(recordId, id -> new LongAdder()).add(delta));
+                pendingEvents.addAndGet(events);
+                failedFlushes.incrementAndGet();
+                return false;
+            }
+
+            // Пластинка может быть отклонена частично: записана часть накопленных продаж
+            Map<Integer, Long> applied = new HashMap<>();
+            for (Map.Entry<Integer, Long> entry : deltas.entrySet()) {
+                long units = entry.getValue() - rejected.getOrDefault(entry.getKey(), 0L);
+                if (units > 0) {
+                    applied.put(entry.getKey(), units);
+                }
+            }
+            for (long units : applied.values()) {
+                flushedUnits.addAndGet(units);
+            }
+            for (Map.Entry<Integer, Long> entry : rejected.entrySet()) {
+                rejectedUnits.addAndGet(entry.getValue());
+                System.err.println("Продажи отклонены (недостаточно на складе): пластинка " + entry.getKey() + ", " + entry.getValue() + " шт.");
+            }
+            flushedEvents.addAndGet(events);
+            rowsWritten.addAndGet(applied.size());
+            flushCount.incrementAndGet();
+
+            for (FlushListener listener : listeners) {
+                listener.flushed(applied, rejected);
+            }
+            return true;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            System.err.println("Ошибка сброса продаж: " + e.getMessage());
+        }
+    }
+
+    public void addFlushListener(FlushListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeFlushListener(FlushListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Остановка периодического сброса с записью оставшихся продаж
+     */
+    public void shutdown() {
+        // Дожидается продаж, которые учитываются прямо сейчас
+        stateLock.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(flushIntervalMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!flush()) {
+            System.err.println("Не удалось записать продажи при остановке: " + getStats());
+        }
+    }
+
+    /**
+     * Статистика накопителя (ожидающие и записанные продажи)
+     */
+    public Stats getStats() {
+        long units = 0;
+        for (LongAdder adder : pending.values()) {
+            units += adder.sum();
+        }
+        return new Stats(pendingEvents.get(), units, flushedEvents.get(), flushedUnits.get(),
+                rejectedUnits.get(), flushCount.get(), failedFlushes.get(), rowsWritten.get());
+    }
+
+    public static final class Stats {
+        public final long pendingEvents;
+        public final long pendingUnits;
+        public final long flushedEvents;
+        public final long flushedUnits;
+        public final long rejectedUnits;
+        public final long flushCount;
+        public final long failedFlushes;
+        public final long rowsWritten;
+
+        Stats(long pendingEvents, long pendingUnits, long flushedEvents, long flushedUnits,
+              long rejectedUnits, long flushCount, long failedFlushes, long rowsWritten) {
+            this.pendingEvents = pendingEvents;
+            this.pendingUnits = pendingUnits;
+            this.flushedEvents = flushedEvents;
+            this.flushedUnits = flushedUnits;
+            this.rejectedUnits = rejectedUnits;
+            this.flushCount = flushCount;
+            this.failedFlushes = failedFlushes;
+            this.rowsWritten = rowsWritten;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Продажи: ожидают=%d (%d шт.), записано=%d (%d шт.), отклонено=%d шт., " +
+                            "сбросов=%d, неудачных=%d, строк UPDATE=%d",
+                    pendingEvents, pendingUnits, flushedEvents, flushedUnits, rejectedUnits,
+                    flushCount, failedFlushes, rowsWritten);
+        }
+    }
+}
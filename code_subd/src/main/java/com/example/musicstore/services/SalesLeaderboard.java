@@ -0,0 +1,268 @@
+package com.example.musicstore.services;
+
+import com.example.musicstore.Database;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Рейтинг пластинок по продажам за текущий год (лидеры продаж)
+ * Пластинки хранятся в упорядоченном по продажам дереве и в индексе по record_id:
+ * изменение продаж пластинки - удаление и вставка одного узла, O(log n), а первые K
+ * пластинок читаются обходом начала дерева без запроса к базе.
+ *
+ * Рейтинг строится один раз по кэшу пластинок (EntityCache.RECORDS) и дальше
+ * обновляется по изменениям строк этого кэша. Фоновая сверка раз в reconcileMs
+ * миллисекунд сравнивает рейтинг с базой и исправляет расхождения. Снимок базы
+ * читается вне блокировки, поэтому пластинки, измененные через кэш после начала
+ * чтения снимка, сверкой не трогаются: их новое значение свежее снимка.
+ *
+ * Параметры задаются системными свойствами musicstore.leaders.*: size, reconcileMs
+ */
+public class SalesLeaderboard implements EntityCache.ChangeListener {
+
+    // Количество лидеров по умолчанию
+    public static final int DEFAULT_SIZE = Integer.getInteger("musicstore.leaders.size", 10);
+
+    private static final SalesLeaderboard INSTANCE = new SalesLeaderboard(EntityCache.RECORDS,
+            Long.getLong("musicstore.leaders.reconcileMs", 60_000L));
+
+    // По убыванию продаж, при равных продажах - по возрастанию record_id
+    private static final Comparator<Entry> ORDER = Comparator
+            .comparingLong((Entry e) -> e.sales).reversed()
+            .thenComparingLong(e -> e.recordId);
+
+    private final EntityCache cache;
+    private final long reconcileMillis;
+    private ScheduledExecutorService scheduler;
+
+    private final TreeSet<Entry> ranking = new TreeSet<>(ORDER);
+    private final Map<Long, Entry> byId = new HashMap<>();
+    private boolean seeded;
+
+    // Номер последнего изменения из кэша и номер изменения каждой пластинки
+    private long changeSeq;
+    private final Map<Long, Long> changedAt = new HashMap<>();
+    // Номер перестроения рейтинга: сверка, начатая до сброса, не применяется
+    private long generation;
+
+    public SalesLeaderboard(EntityCache cache, long reconcileMillis) {
+        if (reconcileMillis <= 0) {
+            throw new IllegalArgumentException("Некорректный период сверки: " + reconcileMillis);
+        }
+        this.cache = cache;
+        this.reconcileMillis = reconcileMillis;
+        cache.addChangeListener(this);
+    }
+
+    public static SalesLeaderboard getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Первые k пластинок по продажам
+     * При первом обращении рейтинг строится по кэшу пластинок и запускается фоновая сверка
+     * @return строки с колонками title, current_year_sales, retail_price, remaining_stock
+     */
+    public List<Map<String, Object>> top(int k) {
+        synchronized (this) {
+            if (seeded) return topLocked(k);
+        }
+        // Кэш читается вне блокировки рейтинга: загрузка кэша уведомляет слушателей
+        List<Map<String, Object>> rows = cache.getAll();
+        synchronized (this) {
+            if (!seeded) {
+                ranking.clear();
+                byId.clear();
+                for (Map<String, Object> row : rows) {
+                    put(Entry.of(row));
+                }
+                seeded = true;
+                System.out.println("Рейтинг продаж построен: пластинок " + byId.size());
+                startReconcile();
+            }
+            return topLocked(k);
+        }
+    }
+
+    private List<Map<String, Object>> topLocked(int k) {
+        List<Map<String, Object>> leaders = new ArrayList<>(Math.min(k, ranking.size()));
+        Iterator<Entry> it = ranking.iterator();
+        while (leaders.size() < k && it.hasNext()) {
+            leaders.add(it.next().toRow());
+        }
+        return leaders;
+    }
+
+    @Override
+    public synchronized void rowsChanged(List<Map<String, Object>> updated, List<Long> removed) {
+        if (!seeded) return;
+        long seq = ++changeSeq;
+        for (Map<String, Object> row : updated) {
+            Entry entry = Entry.of(row);
+            if (entry != null) {
+                put(entry);
+                changedAt.put(entry.recordId, seq);
+            }
+        }
+        for (Long recordId : removed) {
+            changedAt.put(recordId, seq);
+            Entry old = byId.remove(recordId);
+            if (old != null) {
+                ranking.remove(old);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void reloaded() {
+        // Рейтинг перестроится при следующем обращении
+        seeded = false;
+        ranking.clear();
+        byId.clear();
+        changedAt.clear();
+        generation++;
+    }
+
+    /**
+     * Сверка рейтинга с базой данных
+     * @return количество исправленных пластинок
+     */
+    public int reconcile() {
+        long snapshotSeq;
+        long snapshotGeneration;
+        synchronized (this) {
+            if (!seeded) return 0;
+            snapshotSeq = changeSeq;
+            snapshotGeneration = generation;
+        }
+        List<Map<String, Object>> rows = Database.query(
+                "SELECT record_id, title, current_year_sales, retail_price, remaining_stock FROM records");
+        // Пустой результат может означать ошибку запроса
+        if (rows.isEmpty()) return 0;
+
+        int fixed = 0;
+        synchronized (this) {
+            if (!seeded || generation != snapshotGeneration) return 0;
+            Set<Long> present = new HashSet<>();
+            for (Map<String, Object> row : rows) {
+                Entry entry = Entry.of(row);
+                if (entry == null) continue;
+                present.add(entry.recordId);
+                if (changedSince(entry.recordId, snapshotSeq)) continue;
+                if (!entry.equals(byId.get(entry.recordId))) {
+                    put(entry);
+                    fixed++;
+                }
+            }
+            for (Iterator<Entry> it = byId.values().iterator(); it.hasNext(); ) {
+                Entry entry = it.next();
+                if (!present.contains(entry.recordId) && !changedSince(entry.recordId, snapshotSeq)) {
+                    it.remove();
+                    ranking.remove(entry);
+                    fixed++;
+                }
+            }
+        }
+        if (fixed > 0) {
+            System.out.println("Сверка рейтинга продаж: исправлено пластинок " + fixed);
+        }
+        return fixed;
+    }
+
+    /**
+     * Изменена ли пластинка через кэш после изменения с номером seq
+     */
+    private boolean changedSince(long recordId, long seq) {
+        return changedAt.getOrDefault(recordId, 0L) > seq;
+    }
+
+    private void reconcileQuietly() {
+        try {
+            reconcile();
+        } catch (RuntimeException e) {
+            System.err.println("Ошибка сверки рейтинга продаж: " + e.getMessage());
+        }
+    }
+
+    private void startReconcile() {
+        if (scheduler != null) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sales-leaderboard");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::reconcileQuietly, reconcileMillis, reconcileMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void put(Entry entry) {
+        if (entry == null) return;
+        Entry old = byId.put(entry.recordId, entry);
+        if (old != null) {
+            ranking.remove(old);
+        }
+        ranking.add(entry);
+    }
+
+    /**
+     * Пластинка в рейтинге (неизменяемая: при изменении узел заменяется)
+     */
+    private static final class Entry {
+        final long recordId;
+        final long sales;
+        final String title;
+        final Object retailPrice;
+        final Object remainingStock;
+
+        Entry(long recordId, long sales, String title, Object retailPrice, Object remainingStock) {
+            this.recordId = recordId;
+            this.sales = sales;
+            this.title = title;
+            this.retailPrice = retailPrice;
+            this.remainingStock = remainingStock;
+        }
+
+        static Entry of(Map<String, Object> row) {
+            Object id = row.get("record_id");
+            if (!(id instanceof Number)) return null;
+            Object sales = row.get("current_year_sales");
+            return new Entry(((Number) id).longValue(), sales instanceof Number ? ((Number) sales).longValue() : 0,
+                    row.get("title") == null ? "" : row.get("title").toString(),
+                    row.get("retail_price"), row.get("remaining_stock"));
+        }
+
+        Map<String, Object> toRow() {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("record_id", recordId);
+            row.put("title", title);
+            row.put("current_year_sales", sales);
+            row.put("retail_price", retailPrice);
+            row.put("remaining_stock", remainingStock);
+            return row;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) return false;
+            Entry e = (Entry) o;
+            return recordId == e.recordId && sales == e.sales && title.equals(e.title)
+                    && sameValue(retailPrice, e.retailPrice) && sameValue(remainingStock, e.remainingStock);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(recordId);
+        }
+
+        private static boolean sameValue(Object a, Object b) {
+            // Цены сравниваются без учета масштаба (10.5 и 10.50)
+            if (a instanceof BigDecimal && b instanceof BigDecimal) {
+                return ((BigDecimal) a).compareTo((BigDecimal) b) == 0;
+            }
+            return Objects.equals(a, b);
+        }
+    }
+}
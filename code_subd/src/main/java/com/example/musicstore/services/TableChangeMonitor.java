@@ -0,0 +1,182 @@
+package com.example.musicstore.services;
+
+import com.example.musicstore.Database;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Отслеживание изменений таблиц в базе данных (в том числе с других рабочих мест)
+ * Раз в pollIntervalMs миллисекунд одним запросом читаются версии всех таблиц;
+ * слушатели получают только таблицы, версия которых изменилась с прошлого опроса.
+ *
+ * Версии берутся из таблицы table_versions, счетчики которой увеличивают триггеры
+ * (db/migrations/002_table_versions.sql). Если таблицы нет (например, во встроенной
+ * базе H2, где нет триггеров на SQL), версией служит отпечаток таблицы: количество
+ * строк и MAX(updated_at), для таблиц связей - контрольная сумма ключей и значений.
+ * Отпечаток может пропустить изменение, сделанное в ту же секунду, что и предыдущее.
+ *
+ * Период опроса задается системным свойством musicstore.sync.pollIntervalMs
+ */
+public class TableChangeMonitor {
+
+    /**
+     * Уведомление об изменении таблиц
+     * Вызывается в потоке опроса
+     */
+    public interface ChangeListener {
+        void tablesChanged(Set<String> tables);
+    }
+
+    // Отслеживаемые таблицы
+    public static final List<String> TABLES = List.of("ensembles", "musicians", "compositions", "records",
+            "ensemble_members", "performances", "record_tracks");
+
+    // Отпечатки таблиц без колонки updated_at
+    private static final Map<String, String> RELATION_CHECKSUMS = Map.of(
+            "ensemble_members", "SUM(ensemble_id * 1000003 + musician_id + CHAR_LENGTH(COALESCE(role, '')))",
+            "performances", "SUM(ensemble_id * 1000003 + composition_id + CHAR_LENGTH(COALESCE(arrangement, '')))",
+            "record_tracks", "SUM(record_id * 1000003 + composition_id * 1009 + track_number)");
+
+    private static final String VERSIONS_QUERY = "SELECT table_name, version FROM table_versions";
+    private static final String FINGERPRINT_QUERY = buildFingerprintQuery();
+
+    private static final TableChangeMonitor INSTANCE = new TableChangeMonitor(
+            Long.getLong("musicstore.sync.pollIntervalMs", 5_000L));
+
+    static {
+        com.example.musicstore.utils.Database.addShutdownAction(INSTANCE::shutdown);
+    }
+
+    private final long pollIntervalMillis;
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private ScheduledExecutorService scheduler;
+
+    // Версии таблиц по последнему опросу (null - опроса еще не было)
+    private Map<String, Object> versions;
+    // Есть ли в базе таблица table_versions (null - еще не проверено)
+    private Boolean versionTable;
+
+    public TableChangeMonitor(long pollIntervalMillis) {
+        if (pollIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Некорректный период опроса: " + pollIntervalMillis);
+        }
+        this.pollIntervalMillis = pollIntervalMillis;
+    }
+
+    public static TableChangeMonitor getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Запуск периодического опроса (повторный вызов ничего не делает)
+     */
+    public synchronized void start() {
+        if (scheduler != null) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "table-change-monitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::pollQuietly, 0, pollIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Опрос версий таблиц
+     * Первый опрос только запоминает версии. Если версии прочитать не удалось,
+     * изменения не сообщаются до следующего успешного опроса.
+     * @return таблицы, изменившиеся с прошлого опроса
+     */
+    public synchronized Set<String> poll() {
+        Map<String, Object> current = readVersions();
+        if (current == null) {
+            return Collections.emptySet();
+        }
+
+        Set<String> changed = new LinkedHashSet<>();
+        if (versions != null) {
+            for (String table : TABLES) {
+                if (!Objects.equals(versions.get(table), current.get(table))) {
+                    changed.add(table);
+                }
+            }
+        }
+        versions = current;
+
+        if (!changed.isEmpty()) {
+            System.out.println("Изменены таблицы: " + changed);
+            for (ChangeListener listener : listeners) {
+                listener.tablesChanged(changed);
+            }
+        }
+        return changed;
+    }
+
+    private void pollQuietly() {
+        try {
+            poll();
+        } catch (RuntimeException e) {
+            System.err.println("Ошибка опроса версий таблиц: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Версии всех отслеживаемых таблиц одним запросом
+     * @return версии по имени таблицы или null, если запрос не удался
+     */
+    private Map<String, Object> readVersions() {
+        if (versionTable == null) {
+            versionTable = com.example.musicstore.utils.Database.tableExists("table_versions");
+            System.out.println("Версии таблиц: " + (versionTable ? "table_versions" : "отпечатки таблиц"));
+        }
+
+        Map<String, Object> current = new HashMap<>();
+        if (versionTable) {
+            for (Map<String, Object> row : Database.query(VERSIONS_QUERY)) {
+                current.put(String.valueOf(row.get("table_name")), row.get("version"));
+            }
+        } else {
+            List<Map<String, Object>> rows = Database.query(FINGERPRINT_QUERY);
+            if (!rows.isEmpty()) {
+                Map<String, Object> row = rows.get(0);
+                for (String table : TABLES) {
+                    current.put(table, Arrays.asList(row.get(table + "_rows"), row.get(table + "_changed")));
+                }
+            }
+        }
+        return current.isEmpty() ? null : current;
+    }
+
+    /**
+     * Запрос отпечатков всех таблиц: одна строка со скалярными подзапросами
+     */
+    private static String buildFingerprintQuery() {
+        StringBuilder query = new StringBuilder("SELECT ");
+        for (int i = 0; i < TABLES.size(); i++) {
+            String table = TABLES.get(i);
+            String change = RELATION_CHECKSUMS.getOrDefault(table, "MAX(updated_at)");
+            if (i > 0) query.append(", ");
+            query.append("(SELECT COUNT(*) FROM ").append(table).append(") AS ").append(table).append("_rows, ")
+                    .append("(SELECT ").append(change).append(" FROM ").append(table).append(") AS ").append(table).append("_changed");
+        }
+        return query.toString();
+    }
+
+    public void addChangeListener(ChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeChangeListener(ChangeListener listener) {
+        listeners.remove(listener);
+    }
+}
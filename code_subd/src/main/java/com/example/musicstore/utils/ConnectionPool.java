@@ -0,0 +1,595 @@
+package com.example.musicstore.utils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Пул соединений с базой данных
+ * Выдает обертки над физическими соединениями: close() возвращает соединение в пул,
+ * поэтому существующий код с try-with-resources продолжает работать без изменений.
+ *
+ * Параметры задаются системными свойствами musicstore.pool.*:
+ * minSize, maxSize, maxWaitMs, idleTimeoutMs, validationIntervalMs, leakThresholdMs
+ */
+public class ConnectionPool {
+
+    private final String url;
+    private final String user;
+    private final String password;
+
+    private final int minSize;
+    private final int maxSize;
+    private final long maxWaitMillis;
+    private final long idleTimeoutMillis;
+    private final long validationIntervalMillis;
+    private final long leakThresholdMillis;
+    private final int statementCacheSize;
+
+    // Свободные соединения (LIFO - последнее возвращенное выдается первым)
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    // Выданные соединения для обнаружения утечек
+    private final Set<PooledConnection> active = ConcurrentHashMap.newKeySet();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private int totalCount;
+    private int waitingCount;
+    private boolean shutdown;
+
+    // Статистика
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong leakCount = new AtomicLong();
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+
+    private final ScheduledExecutorService housekeeper;
+
+    public ConnectionPool(String url, String user, String password) {
+        this(url, user, password,
+                Integer.getInteger("musicstore.pool.minSize", 2),
+                Integer.getInteger("musicstore.pool.maxSize", 10),
+                Long.getLong("musicstore.pool.maxWaitMs", 10_000L),
+                Long.getLong("musicstore.pool.idleTimeoutMs", 300_000L),
+                Long.getLong("musicstore.pool.validationIntervalMs", 5_000L),
+                Long.getLong("musicstore.pool.leakThresholdMs", 30_000L),
+                Integer.getInteger("musicstore.pool.statementCacheSize", 50));
+    }
+
+    public ConnectionPool(String url, String user, String password, int minSize, int maxSize,
+                          long maxWaitMillis, long idleTimeoutMillis,
+                          long validationIntervalMillis, long leakThresholdMillis,
+                          int statementCacheSize) {
+        if (minSize < 0 || maxSize <= 0 || minSize > maxSize) {
+            throw new IllegalArgumentException("Некорректный размер пула: min=" + minSize + ", max=" + maxSize);
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.maxWaitMillis = maxWaitMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.validationIntervalMillis = validationIntervalMillis;
+        this.leakThresholdMillis = leakThresholdMillis;
+        this.statementCacheSize = statementCacheSize;
+
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.min(idleTimeoutMillis, 30_000L);
+        if (leakThresholdMillis > 0) {
+            period = Math.min(period, leakThresholdMillis);
+        }
+        period = Math.max(100L, period / 2);
+        housekeeper.scheduleWithFixedDelay(this::housekeeping, 0, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Получение соединения из пула
+     * Ждет освобождения соединения не дольше maxWaitMs
+     */
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+
+        while (true) {
+            PooledConnection candidate = null;
+            boolean create = false;
+
+            lock.lock();
+            try {
+                while (!shutdown && idle.isEmpty() && totalCount >= maxSize) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        timeoutCount.incrementAndGet();
+                        throw new SQLTransientConnectionException("Истекло время ожидания соединения из пула ("
+                                + maxWaitMillis + " мс), активных: " + active.size());
+                    }
+                    waitingCount++;
+                    try {
+                        available.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Ожидание соединения прервано", e);
+                    } finally {
+                        waitingCount--;
+                    }
+                }
+                if (shutdown) {
+                    throw new SQLException("Пул соединений закрыт");
+                }
+                candidate = idle.pollFirst();
+                if (candidate == null) {
+                    totalCount++;
+                    create = true;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (create) {
+                try {
+                    candidate = new PooledConnection(DriverManager.getConnection(url, user, password), statementCacheSize);
+                    createdCount.incrementAndGet();
+                } catch (SQLException e) {
+                    discardSlot();
+                    throw e;
+                }
+            } else if (!validate(candidate)) {
+                destroy(candidate);
+                continue;
+            }
+
+            recordWait(System.nanoTime() - start);
+            return lease(candidate);
+        }
+    }
+
+    /**
+     * Проверка соединения перед выдачей
+     * Если соединение недавно использовалось, повторная проверка не выполняется
+     */
+    private boolean validate(PooledConnection pc) {
+        try {
+            if (pc.physical.isClosed()) return false;
+            if (System.currentTimeMillis() - pc.lastUsedAt < validationIntervalMillis) return true;
+            return pc.physical.isValid(2);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private Connection lease(PooledConnection pc) {
+        pc.borrowedAt = System.currentTimeMillis();
+        pc.leakReported = false;
+        pc.borrowTrace = leakThresholdMillis > 0
+                ? new Throwable("Соединение получено потоком " + Thread.currentThread().getName())
+                : null;
+        active.add(pc);
+        borrowCount.incrementAndGet();
+
+        Lease handler = new Lease(pc);
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, handler);
+    }
+
+    /**
+     * Возврат соединения в пул
+     */
+    private void release(PooledConnection pc) {
+        active.remove(pc);
+        pc.lastUsedAt = System.currentTimeMillis();
+        pc.borrowTrace = null;
+
+        boolean reusable;
+        try {
+            reusable = !pc.physical.isClosed();
+            if (reusable && !pc.physical.getAutoCommit()) {
+                pc.physical.rollback();
+                pc.physical.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            reusable = false;
+        }
+
+        if (!reusable) {
+            destroy(pc);
+            return;
+        }
+
+        lock.lock();
+        try {
+            if (shutdown) {
+                totalCount--;
+            } else {
+                idle.addFirst(pc);
+                available.signal();
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        pc.closePhysical();
+    }
+
+    private void destroy(PooledConnection pc) {
+        pc.closePhysical();
+        discardSlot();
+    }
+
+    private void discardSlot() {
+        lock.lock();
+        try {
+            totalCount--;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void recordWait(long nanos) {
+        totalWaitNanos.addAndGet(nanos);
+        maxWaitNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Фоновое обслуживание: вытеснение простаивающих соединений,
+     * поддержание минимального размера и обнаружение утечек
+     */
+    private void housekeeping() {
+        try {
+            evictIdle();
+            fillToMinimum();
+            detectLeaks();
+        } catch (Exception e) {
+            System.err.println("Ошибка обслуживания пула соединений: " + e.getMessage());
+        }
+    }
+
+    private void evictIdle() {
+        List<PooledConnection> evicted = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        lock.lock();
+        try {
+            Iterator<PooledConnection> it = idle.descendingIterator();
+            while (it.hasNext() && totalCount > minSize) {
+                PooledConnection pc = it.next();
+                if (now - pc.lastUsedAt > idleTimeoutMillis) {
+                    it.remove();
+                    totalCount--;
+                    evicted.add(pc);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (PooledConnection pc : evicted) {
+            pc.closePhysical();
+        }
+    }
+
+    private void fillToMinimum() {
+        while (true) {
+            lock.lock();
+            try {
+                if (shutdown || totalCount >= minSize) return;
+                totalCount++;
+            } finally {
+                lock.unlock();
+            }
+
+            PooledConnection pc;
+            try {
+                pc = new PooledConnection(DriverManager.getConnection(url, user, password), statementCacheSize);
+                createdCount.incrementAndGet();
+            } catch (SQLException e) {
+                discardSlot();
+                return; // БД недоступна - повторим при следующем обслуживании
+            }
+
+            lock.lock();
+            try {
+                idle.addLast(pc);
+                available.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void detectLeaks() {
+        if (leakThresholdMillis <= 0) return;
+        long now = System.currentTimeMillis();
+        for (PooledConnection pc : active) {
+            Throwable trace = pc.borrowTrace;
+            if (!pc.leakReported && trace != null && now - pc.borrowedAt > leakThresholdMillis) {
+                pc.leakReported = true;
+                leakCount.incrementAndGet();
+                System.err.println("Возможная утечка соединения: не возвращено в пул " + (now - pc.borrowedAt) + " мс");
+                trace.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Получение подготовленного запроса из кэша соединения
+     * Запрос остается во владении пула: вызывающий код НЕ должен закрывать его,
+     * закрывать нужно только полученный ResultSet
+     * @param conn соединение, полученное из пула
+     * @param sql текст запроса (ключ кэша)
+     * @param returnGeneratedKeys вернуть сгенерированные ключи после INSERT
+     */
+    public static PreparedStatement prepareCached(Connection conn, String sql, boolean returnGeneratedKeys) throws SQLException {
+        if (!Proxy.isProxyClass(conn.getClass()) || !(Proxy.getInvocationHandler(conn) instanceof Lease)) {
+            throw new IllegalArgumentException("Кэш запросов доступен только для соединений из пула");
+        }
+        Lease lease = (Lease) Proxy.getInvocationHandler(conn);
+        if (lease.closed) {
+            throw new SQLException("Соединение уже возвращено в пул");
+        }
+        return lease.prepare(sql, returnGeneratedKeys);
+    }
+
+    /**
+     * Закрытие пула и всех свободных соединений
+     */
+    public void shutdown() {
+        List<PooledConnection> toClose;
+        lock.lock();
+        try {
+            if (shutdown) return;
+            shutdown = true;
+            toClose = new ArrayList<>(idle);
+            totalCount -= idle.size();
+            idle.clear();
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        housekeeper.shutdownNow();
+        for (PooledConnection pc : toClose) {
+            pc.closePhysical();
+        }
+    }
+
+    /**
+     * Снимок статистики пула
+     */
+    public Stats getStats() {
+        lock.lock();
+        try {
+            long borrows = borrowCount.get();
+            return new Stats(active.size(), idle.size(), totalCount, waitingCount, borrows,
+                    createdCount.get(),
+                    borrows == 0 ? 0 : totalWaitNanos.get() / borrows / 1_000_000.0,
+                    maxWaitNanos.get() / 1_000_000.0,
+                    timeoutCount.get(), leakCount.get(),
+                    statementHits.get(), statementMisses.get());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Статистика пула соединений
+     */
+    public static final class Stats {
+        public final int active;
+        public final int idle;
+        public final int total;
+        public final int waiting;
+        public final long borrowCount;
+        public final long createdCount;
+        public final double avgWaitMillis;
+        public final double maxWaitMillis;
+        public final long timeouts;
+        public final long leaks;
+        public final long statementCacheHits;
+        public final long statementCacheMisses;
+
+        Stats(int active, int idle, int total, int waiting, long borrowCount, long createdCount,
+              double avgWaitMillis, double maxWaitMillis, long timeouts, long leaks,
+              long statementCacheHits, long statementCacheMisses) {
+            this.active = active;
+            this.idle = idle;
+            this.total = total;
+            this.waiting = waiting;
+            this.borrowCount = borrowCount;
+            this.createdCount = createdCount;
+            this.avgWaitMillis = avgWaitMillis;
+            this.maxWaitMillis = maxWaitMillis;
+            this.timeouts = timeouts;
+            this.leaks = leaks;
+            this.statementCacheHits = statementCacheHits;
+            this.statementCacheMisses = statementCacheMisses;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Пул: активных=%d, свободных=%d, всего=%d, ожидают=%d, выдано=%d, создано=%d, " +
+                            "ожидание ср.=%.2f мс, макс.=%.2f мс, таймаутов=%d, утечек=%d, " +
+                            "кэш запросов: попаданий=%d, промахов=%d",
+                    active, idle, total, waiting, borrowCount, createdCount,
+                    avgWaitMillis, maxWaitMillis, timeouts, leaks,
+                    statementCacheHits, statementCacheMisses);
+        }
+    }
+
+    /**
+     * Физическое соединение, принадлежащее пулу
+     */
+    static final class PooledConnection {
+        final Connection physical;
+        final StatementCache statements;
+        volatile long lastUsedAt = System.currentTimeMillis();
+        volatile long borrowedAt;
+        volatile Throwable borrowTrace;
+        volatile boolean leakReported;
+
+        PooledConnection(Connection physical, int statementCacheSize) {
+            this.physical = physical;
+            this.statements = new StatementCache(statementCacheSize);
+        }
+
+        void closePhysical() {
+            statements.closeAll();
+            try {
+                physical.close();
+            } catch (SQLException e) {
+                System.err.println("Ошибка закрытия соединения: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * LRU-кэш подготовленных запросов одного физического соединения
+     * Соединение одновременно используется только одним потоком, поэтому синхронизация не нужна
+     */
+    static final class StatementCache {
+        private final int capacity;
+        private final LinkedHashMap<String, PreparedStatement> cache;
+
+        StatementCache(int capacity) {
+            this.capacity = capacity;
+            this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() > StatementCache.this.capacity) {
+                        closeQuietly(eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        /**
+         * Возвращает запрос из кэша или null, если его нет
+         */
+        PreparedStatement lookup(String key) throws SQLException {
+            PreparedStatement ps = cache.get(key);
+            if (ps != null && !ps.isClosed()) {
+                ps.clearParameters();
+                return ps;
+            }
+            return null;
+        }
+
+        void put(String key, PreparedStatement ps) {
+            if (capacity > 0) {
+                cache.put(key, ps);
+            }
+        }
+
+        void closeAll() {
+            for (PreparedStatement ps : cache.values()) {
+                closeQuietly(ps);
+            }
+            cache.clear();
+        }
+
+        private static void closeQuietly(PreparedStatement ps) {
+            try {
+                ps.close();
+            } catch (SQLException ignored) {
+                // соединение закрывается или запрос вытеснен
+            }
+        }
+    }
+
+    /**
+     * Обертка над соединением на время одной выдачи
+     * close() возвращает соединение в пул и закрывает забытые Statement
+     */
+    private final class Lease implements InvocationHandler {
+        private final PooledConnection pc;
+        private final List<Statement> statements = new ArrayList<>();
+        private volatile boolean closed;
+
+        Lease(PooledConnection pc) {
+            this.pc = pc;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        closeStatements();
+                        release(pc);
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || pc.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + pc.physical + "]";
+                default:
+                    break;
+            }
+            if (closed) {
+                throw new SQLException("Соединение уже возвращено в пул");
+            }
+            try {
+                Object result = method.invoke(pc.physical, args);
+                if (result instanceof Statement) {
+                    statements.add((Statement) result);
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        PreparedStatement prepare(String sql, boolean returnGeneratedKeys) throws SQLException {
+            String key = returnGeneratedKeys ? "K:" + sql : sql;
+            PreparedStatement ps = pc.statements.lookup(key);
+            if (ps != null) {
+                statementHits.incrementAndGet();
+                return ps;
+            }
+            statementMisses.incrementAndGet();
+            ps = returnGeneratedKeys
+                    ? pc.physical.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)
+                    : pc.physical.prepareStatement(sql);
+            if (statementCacheSize > 0) {
+                pc.statements.put(key, ps);
+            } else {
+                statements.add(ps); // без кэша закрывается при возврате соединения
+            }
+            return ps;
+        }
+
+        private void closeStatements() {
+            for (Statement st : statements) {
+                try {
+                    st.close();
+                } catch (SQLException ignored) {
+                    // соединение все равно возвращается в пул
+                }
+            }
+            statements.clear();
+        }
+    }
+}
@@ -2,14 +2,70 @@ package com.example.musicstore.utils;
 
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class Database {
-    private static final String URL = "jdbc:mysql://localhost:3306/music_store";
-    private static final String USER = "root";
-    private static final String PASSWORD = "mysql";
+    // Источник подключений выбирается системным свойством musicstore.db.backend
+    private static final DatabaseBackend BACKEND = initializeBackend();
 
+    // Общий пул соединений для всего приложения
+    private static final ConnectionPool POOL = new ConnectionPool(BACKEND.getUrl(), BACKEND.getUser(), BACKEND.getPassword());
+
+    // Действия при завершении приложения, выполняемые до закрытия пула (запись накопленных данных)
+    private static final List<Runnable> SHUTDOWN_ACTIONS = new CopyOnWriteArrayList<>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (Runnable action : SHUTDOWN_ACTIONS) {
+                try {
+                    action.run();
+                } catch (RuntimeException e) {
+                    System.err.println("Shutdown action failed: " + e.getMessage());
+                }
+            }
+            POOL.shutdown();
+        }, "db-pool-shutdown"));
+    }
+
+    private static DatabaseBackend initializeBackend() {
+        DatabaseBackend backend = DatabaseBackend.select();
+        try {
+            backend.initialize();
+        } catch (SQLException e) {
+            System.err.println("Backend initialization failed (" + backend.getName() + "): " + e.getMessage());
+        }
+        System.out.println("Источник базы данных: " + backend.getName());
+        return backend;
+    }
+
+    /**
+     * Текущий источник подключений
+     */
+    public static DatabaseBackend getBackend() {
+        return BACKEND;
+    }
+
+    /**
+     * Регистрация действия, которое выполнится при завершении приложения,
+     * пока соединения с базой данных еще доступны
+     */
+    public static void addShutdownAction(Runnable action) {
+        SHUTDOWN_ACTIONS.add(action);
+    }
+
+    /**
+     * Получение соединения из пула
+     * Вызов close() возвращает соединение в пул
+     */
     public static Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(URL, USER, PASSWORD);
+        return POOL.getConnection();
+    }
+
+    /**
+     * Статистика пула соединений (активные, свободные, время ожидания)
+     */
+    public static ConnectionPool.Stats getPoolStats() {
+        return POOL.getStats();
     }
 
     /**
@@ -22,18 +78,7 @@ public class Database {
              Statement stmt = conn.createStatement();
              ResultSet rs = stmt.executeQuery(query)) {
 
-            ResultSetMetaData metaData = rs.getMetaData();
-            int columnCount = metaData.getColumnCount();
-
-            while (rs.next()) {
-                Map<String, Object> row = new HashMap<>();
-                for (int i = 1; i <= columnCount; i++) {
-                    String columnName = metaData.getColumnLabel(i);
-                    Object value = rs.getObject(i);
-                    row.put(columnName, value != null ? value : "");
-                }
-                resultList.add(row);
-            }
+            resultList = ResultTable.from(rs);
         } catch (SQLException e) {
             System.err.println("Query failed: " + e.getMessage());
             System.err.println("Query: " + query);
@@ -57,6 +102,34 @@ public class Database {
         }
     }
 
+    /**
+     * Проверка наличия таблицы в текущей базе данных
+     * @return false, если таблицы нет или проверить не удалось
+     */
+    public static boolean tableExists(String tableName) {
+        try (Connection conn = getConnection();
+             ResultSet tables = conn.getMetaData().getTables(conn.getCatalog(), null, tableName, null)) {
+            return tables.next();
+        } catch (SQLException e) {
+            System.err.println("Table check failed (" + tableName + "): " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Проверка наличия колонки в таблице текущей базы данных
+     * @return false, если колонки нет или проверить не удалось
+     */
+    public static boolean columnExists(String tableName, String columnName) {
+        try (Connection conn = getConnection();
+             ResultSet columns = conn.getMetaData().getColumns(conn.getCatalog(), null, tableName, columnName)) {
+            return columns.next();
+        } catch (SQLException e) {
+            System.err.println("Column check failed (" + tableName + "." + columnName + "): " + e.getMessage());
+            return false;
+        }
+    }
+
     /**
      * Тестирование подключения к базе данных
      */
@@ -68,4 +141,4 @@ public class Database {
             return false;
         }
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
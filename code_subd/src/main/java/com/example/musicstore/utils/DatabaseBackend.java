@@ -0,0 +1,56 @@
+package com.example.musicstore.utils;
+
+import java.sql.SQLException;
+import java.util.ServiceLoader;
+
+/**
+ * Источник подключений к базе данных (SPI)
+ * Определяет, к какой базе подключается пул соединений приложения.
+ * Встроенные реализации: mysql (сервер MySQL) и embedded (встроенная H2 в режиме
+ * совместимости с MySQL со схемой music_store). Другие реализации подключаются
+ * через ServiceLoader.
+ *
+ * Реализация выбирается системным свойством musicstore.db.backend (по умолчанию mysql)
+ */
+public interface DatabaseBackend {
+
+    /**
+     * Имя реализации, по которому она выбирается в musicstore.db.backend
+     */
+    String getName();
+
+    String getUrl();
+
+    String getUser();
+
+    String getPassword();
+
+    /**
+     * Подготовка базы перед созданием пула (например, создание схемы)
+     */
+    default void initialize() throws SQLException {
+    }
+
+    /**
+     * Выбор реализации по системному свойству musicstore.db.backend
+     * Неизвестное имя не прерывает запуск: выбор вызывается из статической инициализации
+     * utils.Database, поэтому вместо исключения используется mysql
+     */
+    static DatabaseBackend select() {
+        String name = System.getProperty("musicstore.db.backend", MySqlBackend.NAME);
+        if (MySqlBackend.NAME.equalsIgnoreCase(name)) {
+            return new MySqlBackend();
+        }
+        if (EmbeddedBackend.NAME.equalsIgnoreCase(name)) {
+            return new EmbeddedBackend();
+        }
+        for (DatabaseBackend backend : ServiceLoader.load(DatabaseBackend.class)) {
+            if (backend.getName().equalsIgnoreCase(name)) {
+                return backend;
+            }
+        }
+        System.err.println("Неизвестный источник базы данных musicstore.db.backend=" + name +
+                ", используется " + MySqlBackend.NAME);
+        return new MySqlBackend();
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.musicstore.utils;
+
+import javafx.application.Platform;
+
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Исполнитель запросов к базе данных вне потока JavaFX
+ * Запросы выполняются в фоновых потоках, результат возвращается как CompletableFuture.
+ * Для передачи результата в интерфейс используется исполнитель FX:
+ * future.thenAcceptAsync(result -> table.setItems(...), DbExecutor.FX)
+ *
+ * Если JVM поддерживает виртуальные потоки, используются они, иначе - пул
+ * фоновых (daemon) потоков размером musicstore.db.workerThreads
+ */
+public final class DbExecutor {
+
+    // Передача выполнения в поток JavaFX
+    public static final Executor FX = Platform::runLater;
+
+    private static final ExecutorService EXECUTOR = createExecutor();
+
+    private DbExecutor() {
+    }
+
+    private static ExecutorService createExecutor() {
+        try {
+            // Java 21+: Executors.newVirtualThreadPerTaskExecutor()
+            Object executor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            System.out.println("DbExecutor: используются виртуальные потоки");
+            return (ExecutorService) executor;
+        } catch (ReflectiveOperationException e) {
+            int threads = Integer.getInteger("musicstore.db.workerThreads", 8);
+            AtomicInteger counter = new AtomicInteger();
+            return Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "db-worker-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Выполнение задачи в фоновом потоке
+     * Отмена возвращенного future снимает задачу из очереди или прерывает ее поток,
+     * а зависимые этапы (в том числе передача результата в интерфейс) не выполняются
+     * @param task задача, обращающаяся к базе данных
+     * @return future с результатом задачи
+     */
+    public static <T> CompletableFuture<T> supply(Callable<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> worker = EXECUTOR.submit(() -> {
+            if (result.isDone()) return;
+            try {
+                result.complete(task.call());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                worker.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Выполнение задачи без результата в фоновом потоке
+     */
+    public static CompletableFuture<Void> run(Runnable task) {
+        return supply(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * Проверка, что ошибка future вызвана его отменой
+     */
+    public static boolean isCancellation(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause instanceof CancellationException;
+    }
+
+    /**
+     * Остановка фоновых потоков при завершении приложения
+     */
+    public static void shutdown() {
+        EXECUTOR.shutdownNow();
+    }
+
+    /**
+     * Группа задач, которые отменяются вместе
+     * Используется для запросов вкладки: при уходе с вкладки ее незавершенные
+     * запросы отменяются, и их результаты не попадают в таблицы
+     */
+    public static final class TaskGroup {
+        private final String name;
+        private final Set<CompletableFuture<?>> inFlight = ConcurrentHashMap.newKeySet();
+
+        public TaskGroup(String name) {
+            this.name = name;
+        }
+
+        public <T> CompletableFuture<T> supply(Callable<T> task) {
+            CompletableFuture<T> future = DbExecutor.supply(task);
+            inFlight.add(future);
+            future.whenComplete((value, error) -> inFlight.remove(future));
+            return future;
+        }
+
+        /**
+         * Отмена всех незавершенных задач группы
+         * @return количество отмененных задач
+         */
+        public int cancelAll() {
+            int cancelled = 0;
+            for (CompletableFuture<?> future : inFlight) {
+                if (future.cancel(true)) {
+                    cancelled++;
+                }
+            }
+            if (cancelled > 0) {
+                System.out.println("Отменено запросов (" + name + "): " + cancelled);
+            }
+            return cancelled;
+        }
+
+        public int size() {
+            return inFlight.size();
+        }
+    }
+}
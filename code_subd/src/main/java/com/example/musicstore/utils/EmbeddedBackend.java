@@ -0,0 +1,85 @@
+package com.example.musicstore.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+
+/**
+ * Встроенная база H2 в режиме совместимости с MySQL
+ * Работает в процессе приложения без сервера, поэтому нагрузочные тесты и замеры
+ * можно запускать локально и воспроизводимо. При первом подключении создается
+ * схема music_store из ресурса db/schema.sql.
+ *
+ * По умолчанию база хранится в памяти; musicstore.db.embedded.url позволяет
+ * указать другой URL H2 (например, файловую базу jdbc:h2:./music_store;MODE=MySQL)
+ */
+public class EmbeddedBackend implements DatabaseBackend {
+
+    public static final String NAME = "embedded";
+
+    private static final String DEFAULT_URL = "jdbc:h2:mem:music_store;MODE=MySQL;DATABASE_TO_LOWER=TRUE;" +
+            "CASE_INSENSITIVE_IDENTIFIERS=TRUE;DB_CLOSE_DELAY=-1";
+    private static final String SCHEMA_RESOURCE = "/com/example/musicstore/db/schema.sql";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String getUrl() {
+        return System.getProperty("musicstore.db.embedded.url", DEFAULT_URL);
+    }
+
+    @Override
+    public String getUser() {
+        return "sa";
+    }
+
+    @Override
+    public String getPassword() {
+        return "";
+    }
+
+    /**
+     * Создание схемы, если ее еще нет (повторный запуск с файловой базой ее не пересоздает)
+     */
+    @Override
+    public void initialize() throws SQLException {
+        try (Connection conn = DriverManager.getConnection(getUrl(), getUser(), getPassword())) {
+            // Поиск только в текущей схеме: в INFORMATION_SCHEMA H2 тоже есть таблица users
+            try (ResultSet tables = conn.getMetaData().getTables(null, conn.getSchema(), "users", null)) {
+                if (tables.next()) return;
+            }
+
+            String script = readSchema();
+            try (Statement stmt = conn.createStatement()) {
+                for (String sql : script.split(";")) {
+                    if (!sql.isBlank()) {
+                        stmt.execute(sql);
+                    }
+                }
+            }
+            System.out.println("Встроенная база данных создана: " + getUrl());
+        }
+    }
+
+    private static String readSchema() throws SQLException {
+        try (InputStream in = EmbeddedBackend.class.getResourceAsStream(SCHEMA_RESOURCE)) {
+            if (in == null) {
+                throw new SQLException("Не найден скрипт схемы " + SCHEMA_RESOURCE);
+            }
+            StringBuilder script = new StringBuilder();
+            // Строки комментариев в скрипт не попадают
+            for (String line : new String(in.readAllBytes(), StandardCharsets.UTF_8).split("\\R")) {
+                if (!line.trim().startsWith("--")) {
+                    script.append(line).append('\n');
+                }
+            }
+            return script.toString();
+        } catch (IOException e) {
+            throw new SQLException("Не удалось прочитать скрипт схемы " + SCHEMA_RESOURCE, e);
+        }
+    }
+}
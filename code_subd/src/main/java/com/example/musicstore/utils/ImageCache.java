@@ -0,0 +1,276 @@
+package com.example.musicstore.utils;
+
+import javafx.scene.image.Image;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кэш декодированных изображений сущностей для панели деталей
+ * Изображение берется из базы данных (ImageStore, через локальный пакет изображений),
+ * затем ищется в перечне локальных изображений (ImageManifest: ресурсы
+ * /musicstore/iamges/{тип}/{файл} и папка src/main/resources - изображения,
+ * добавленные до хранения в базе). Ключ записи -
+ * тип сущности и имя файла; запись действительна, пока не изменились файл и
+ * время его изменения: замененное изображение декодируется заново.
+ *
+ * Объем кэша ограничен в байтах (ширина * высота * 4 на изображение), при
+ * превышении вытесняются давно не использованные изображения. Изображения
+ * хранятся через SoftReference и могут быть освобождены при нехватке памяти.
+ * Отсутствие изображения тоже запоминается (на negativeTtlMs миллисекунд),
+ * чтобы записи без изображения не искались при каждом выборе.
+ *
+ * get может обращаться к базе данных и диску и вызывается в фоновом потоке;
+ * в потоке JavaFX используется только peek.
+ *
+ * Параметры задаются системными свойствами musicstore.images.*: cacheBytes, negativeTtlMs
+ */
+public class ImageCache {
+
+    private static final String RESOURCE_ROOT = "/musicstore/iamges/";
+
+    private static final ImageCache INSTANCE = new ImageCache(
+            Long.getLong("musicstore.images.cacheBytes", 64L * 1024 * 1024),
+            Long.getLong("musicstore.images.negativeTtlMs", 30_000L));
+
+    static {
+        Database.addShutdownAction(() -> System.out.println(INSTANCE.getStats()));
+    }
+
+    private final long maxBytes;
+    private final long negativeTtlNanos;
+
+    // Записи в порядке использования: первая - давно не использованная
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final ReferenceQueue<Image> collected = new ReferenceQueue<>();
+    private long totalBytes;
+
+    // Статистика
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong negativeHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong collectedImages = new AtomicLong();
+
+    public ImageCache(long maxBytes, long negativeTtlMillis) {
+        if (maxBytes <= 0 || negativeTtlMillis < 0) {
+            throw new IllegalArgumentException("Некорректные параметры кэша изображений: bytes=" + maxBytes + ", negativeTtl=" + negativeTtlMillis);
+        }
+        this.maxBytes = maxBytes;
+        this.negativeTtlNanos = negativeTtlMillis * 1_000_000L;
+    }
+
+    public static ImageCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Изображение сущности
+     * @param entityType тип сущности (папка изображений: ensembles, musicians, ...)
+     * @param imageName имя файла изображения
+     * @return изображение или null, если его нет
+     */
+    public Image get(String entityType, String imageName) {
+        String key = entityType + "/" + imageName;
+        Entry entry;
+        synchronized (this) {
+            purgeCollected();
+            entry = entries.get(key);
+            if (entry != null && entry.isMissing() && System.nanoTime() - entry.checkedAt < negativeTtlNanos) {
+                negativeHits.incrementAndGet();
+                return null;
+            }
+        }
+
+        // Изображение из базы определяется хэшем содержимого, локальный файл - адресом и временем изменения
+        ImageStore store = ImageStore.getInstance();
+        String sha256 = store.fetch(entityType, imageName);
+        ImageManifest manifest = ImageManifest.getInstance();
+        URL url = sha256 == null ? manifest.find(entityType, imageName) : null;
+        String source = sha256 != null ? "sha256:" + sha256 : url != null ? url.toString() : null;
+        long modified = url == null ? 0 : manifest.lastModified(entityType, imageName);
+        if (entry != null && source != null && entry.modified == modified && source.equals(entry.source)) {
+            Image image = entry.get();
+            if (image != null) {
+                hits.incrementAndGet();
+                return image;
+            }
+        }
+
+        misses.incrementAndGet();
+        Image image = sha256 != null ? decode(source, store.read(sha256)) : url != null ? decode(url) : null;
+        synchronized (this) {
+            remove(key);
+            if (image == null) {
+                if (source == null) {
+                    System.out.println("Изображение не найдено: " + RESOURCE_ROOT + key);
+                }
+                entries.put(key, new Entry(key, null, collected, null, modified, 0));
+            } else {
+                long bytes = Math.max(1, (long) image.getWidth() * (long) image.getHeight() * 4);
+                entries.put(key, new Entry(key, image, collected, source, modified, bytes));
+                totalBytes += bytes;
+                evict();
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Уже декодированное изображение без проверки актуальности или null
+     * Не обращается ни к базе данных, ни к файлам: актуальность проверяет get
+     */
+    public synchronized Image peek(String entityType, String imageName) {
+        purgeCollected();
+        Entry entry = entries.get(entityType + "/" + imageName);
+        return entry == null ? null : entry.get();
+    }
+
+    /**
+     * Удаление изображения из кэша (например, после замены файла)
+     */
+    public synchronized void invalidate(String entityType, String imageName) {
+        remove(entityType + "/" + imageName);
+        ImageStore.getInstance().invalidate(entityType, imageName);
+        ImageManifest.getInstance().refresh(entityType, imageName);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        totalBytes = 0;
+    }
+
+    private static Image decode(URL url) {
+        try (InputStream in = url.openStream()) {
+            return decode(url.toString(), in);
+        } catch (IOException e) {
+            System.err.println("Ошибка чтения изображения " + url + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Декодирование прямо из отображенного в память пакета, без копирования в массив
+     */
+    private static Image decode(String source, ByteBuffer data) {
+        if (data == null) return null;
+        return decode(source, new InputStream() {
+            @Override
+            public int read() {
+                return data.hasRemaining() ? data.get() & 0xFF : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (!data.hasRemaining()) return -1;
+                int n = Math.min(len, data.remaining());
+                data.get(b, off, n);
+                return n;
+            }
+        });
+    }
+
+    private static Image decode(String source, InputStream in) {
+        Image image = new Image(in);
+        if (image.isError()) {
+            System.err.println("Ошибка декодирования изображения: " + source);
+            return null;
+        }
+        return image;
+    }
+
+    private void remove(String key) {
+        Entry old = entries.remove(key);
+        if (old != null) {
+            totalBytes -= old.bytes;
+        }
+    }
+
+    /**
+     * Вытеснение давно не использованных изображений сверх лимита
+     */
+    private void evict() {
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext() && totalBytes > maxBytes; ) {
+            Entry entry = it.next();
+            if (entry.bytes > 0) {
+                it.remove();
+                totalBytes -= entry.bytes;
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Удаление записей, изображения которых освобождены сборщиком мусора
+     */
+    private void purgeCollected() {
+        for (Object ref; (ref = collected.poll()) != null; ) {
+            Entry entry = (Entry) ref;
+            if (entries.get(entry.key) == entry) {
+                remove(entry.key);
+                collectedImages.incrementAndGet();
+            }
+        }
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(hits.get(), negativeHits.get(), misses.get(), evictions.get(), collectedImages.get(),
+                entries.size(), totalBytes);
+    }
+
+    /**
+     * Запись кэша: мягкая ссылка на изображение (null - изображения нет)
+     */
+    private static final class Entry extends SoftReference<Image> {
+        final String key;
+        final String source;
+        final long modified;
+        final long bytes;
+        final long checkedAt = System.nanoTime();
+
+        Entry(String key, Image image, ReferenceQueue<Image> queue, String source, long modified, long bytes) {
+            super(image, image == null ? null : queue);
+            this.key = key;
+            this.source = source;
+            this.modified = modified;
+            this.bytes = bytes;
+        }
+
+        boolean isMissing() {
+            return bytes == 0;
+        }
+    }
+
+    public static final class Stats {
+        public final long hits;
+        public final long negativeHits;
+        public final long misses;
+        public final long evictions;
+        public final long collected;
+        public final int size;
+        public final long bytes;
+
+        Stats(long hits, long negativeHits, long misses, long evictions, long collected, int size, long bytes) {
+            this.hits = hits;
+            this.negativeHits = negativeHits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.collected = collected;
+            this.size = size;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Кэш изображений: попаданий=%d (нет изображения: %d), промахов=%d, вытеснено=%d, " +
+                    "освобождено=%d, изображений=%d, %d КБ", hits, negativeHits, misses, evictions, collected, size, bytes / 1024);
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package com.example.musicstore.utils;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.file.*;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Перечень локальных изображений сущностей: тип/имя файла -> адрес и время изменения
+ * Строится один раз обходом папок изображений: ресурсов /musicstore/iamges/
+ * (папка классов или jar) и папки src/main/resources/musicstore/iamges/.
+ * После этого проверка наличия изображения - поиск в таблице, без обращений
+ * к getResource и открытия файлов.
+ *
+ * Папки на диске отслеживаются WatchService: добавленные, замененные и
+ * удаленные файлы попадают в перечень без повторного обхода. Ресурсы из jar
+ * не меняются и не отслеживаются. refresh обновляет один файл сразу, не
+ * дожидаясь события (например, сразу после сохранения нового изображения).
+ */
+public class ImageManifest {
+
+    private static final String RESOURCE_ROOT = "/musicstore/iamges/";
+    private static final Path SOURCE_ROOT = Paths.get("src/main/resources/musicstore/iamges");
+
+    private static final ImageManifest INSTANCE = new ImageManifest();
+
+    static {
+        Database.addShutdownAction(INSTANCE::shutdown);
+    }
+
+    // Изображения из ресурсов и из папки исходников (ресурсы имеют приоритет, как раньше)
+    private final Map<String, Entry> resources = new ConcurrentHashMap<>();
+    private final Map<String, Entry> sources = new ConcurrentHashMap<>();
+
+    // Отслеживаемые папки: ключ наблюдения -> корень перечня и тип сущности (null - сам корень)
+    private final Map<WatchKey, Folder> folders = new ConcurrentHashMap<>();
+    private final List<Folder> roots = new CopyOnWriteArrayList<>();
+    // Уже обойденные папки типов сущностей
+    private final Set<Path> typeFolders = ConcurrentHashMap.newKeySet();
+    private WatchService watcher;
+    private Thread watchThread;
+    private volatile boolean started;
+
+    public static ImageManifest getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Обход папок изображений и запуск отслеживания (повторный вызов ничего не делает)
+     * started устанавливается только после обхода: поиск, начатый во время обхода,
+     * ждет его завершения на блокировке start(), а не видит неполный перечень
+     */
+    public synchronized void start() {
+        if (started) return;
+        try {
+            scan();
+        } finally {
+            started = true;
+        }
+    }
+
+    private void scan() {
+        long startTime = System.nanoTime();
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+        } catch (IOException e) {
+            System.err.println("Отслеживание папок изображений недоступно: " + e.getMessage());
+        }
+
+        URL resourceRoot = ImageManifest.class.getResource(RESOURCE_ROOT);
+        if (resourceRoot != null) {
+            try {
+                URI uri = resourceRoot.toURI();
+                if ("file".equals(uri.getScheme())) {
+                    addRoot(Paths.get(uri), resources, true);
+                } else {
+                    // Ресурсы в jar: обход без отслеживания
+                    FileSystem jar = openFileSystem(uri);
+                    addRoot(jar.provider().getPath(uri), resources, false);
+                }
+            } catch (Exception e) {
+                System.err.println("Ошибка обхода ресурсов изображений: " + e.getMessage());
+            }
+        }
+        if (Files.isDirectory(SOURCE_ROOT)) {
+            addRoot(SOURCE_ROOT.toAbsolutePath(), sources, true);
+        }
+
+        System.out.printf("Перечень изображений: %d в ресурсах, %d в папке исходников (%.1f мс)%n",
+                resources.size(), sources.size(), (System.nanoTime() - startTime) / 1e6);
+
+        startWatching();
+    }
+
+    private void startWatching() {
+        if (watcher != null && watchThread == null && !folders.isEmpty()) {
+            watchThread = new Thread(this::watchLoop, "image-manifest");
+            watchThread.setDaemon(true);
+            watchThread.start();
+        }
+    }
+
+    public synchronized void shutdown() {
+        if (watchThread != null) {
+            watchThread.interrupt();
+            watchThread = null;
+        }
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Адрес изображения или null, если его нет
+     */
+    public URL find(String entityType, String imageName) {
+        Entry image = lookup(entityType, imageName);
+        return image == null ? null : image.url;
+    }
+
+    /**
+     * Время изменения изображения (0, если оно неизвестно или изображения нет)
+     */
+    public long lastModified(String entityType, String imageName) {
+        Entry image = lookup(entityType, imageName);
+        return image == null ? 0 : image.modified;
+    }
+
+    private Entry lookup(String entityType, String imageName) {
+        if (!started) start();
+        String key = entityType + "/" + imageName;
+        Entry image = resources.get(key);
+        return image != null ? image : sources.get(key);
+    }
+
+    /**
+     * Немедленное обновление одного изображения во всех отслеживаемых папках
+     */
+    public void refresh(String entityType, String imageName) {
+        if (!started) start();
+        synchronized (this) {
+            // Папка исходников могла появиться после запуска (первое сохраненное изображение)
+            if (roots.stream().noneMatch(root -> root.images == sources) && Files.isDirectory(SOURCE_ROOT)) {
+                addRoot(SOURCE_ROOT.toAbsolutePath(), sources, true);
+                startWatching();
+            }
+        }
+        for (Folder root : roots) {
+            Path dir = root.path.resolve(entityType);
+            if (!typeFolders.contains(dir) && Files.isDirectory(dir)) {
+                addTypeFolder(root, dir);
+            } else {
+                update(root, entityType, dir.resolve(imageName));
+            }
+        }
+    }
+
+    private void addRoot(Path rootPath, Map<String, Entry> images, boolean watch) {
+        Folder root = new Folder(rootPath, images, null, watch);
+        roots.add(root);
+        register(root);
+        try (Stream<Path> types = Files.list(rootPath)) {
+            types.filter(Files::isDirectory).forEach(dir -> addTypeFolder(root, dir));
+        } catch (IOException e) {
+            System.err.println("Ошибка обхода папки изображений " + rootPath + ": " + e.getMessage());
+        }
+    }
+
+    private void addTypeFolder(Folder root, Path dir) {
+        String entityType = dir.getFileName().toString().replace("/", "");
+        typeFolders.add(dir);
+        register(new Folder(dir, root.images, entityType, root.watch));
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(file -> update(root, entityType, file));
+        } catch (IOException e) {
+            System.err.println("Ошибка обхода папки изображений " + dir + ": " + e.getMessage());
+        }
+    }
+
+    private void register(Folder folder) {
+        if (!folder.watch || watcher == null) return;
+        try {
+            folders.put(folder.path.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), folder);
+        } catch (IOException e) {
+            System.err.println("Не удалось отслеживать папку " + folder.path + ": " + e.getMessage());
+        }
+    }
+
+    private void update(Folder root, String entityType, Path file) {
+        String key = entityType + "/" + file.getFileName();
+        try {
+            if (Files.isRegularFile(file)) {
+                root.images.put(key, new Entry(file.toUri().toURL(), Files.getLastModifiedTime(file).toMillis()));
+            } else {
+                root.images.remove(key);
+            }
+        } catch (IOException e) {
+            root.images.remove(key);
+        }
+    }
+
+    private void watchLoop() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watcher.take();
+                Folder folder = folders.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (folder == null) continue;
+                    if (event.kind() == OVERFLOW) {
+                        // События потеряны: папка обходится заново
+                        if (folder.entityType == null) {
+                            rescan(folder);
+                        } else {
+                            folder.images.keySet().removeIf(name -> name.startsWith(folder.entityType + "/"));
+                            addTypeFolder(rootOf(folder), folder.path);
+                        }
+                        continue;
+                    }
+                    Path changed = folder.path.resolve((Path) event.context());
+                    if (folder.entityType == null) {
+                        // Новая папка типа сущности в корне
+                        if (event.kind() == ENTRY_CREATE && Files.isDirectory(changed)) {
+                            addTypeFolder(folder, changed);
+                        }
+                    } else {
+                        update(folder, folder.entityType, changed);
+                    }
+                }
+                if (!key.reset()) {
+                    folders.remove(key);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Завершение приложения
+        }
+    }
+
+    private void rescan(Folder root) {
+        root.images.clear();
+        try (Stream<Path> types = Files.list(root.path)) {
+            types.filter(Files::isDirectory).forEach(dir -> addTypeFolder(root, dir));
+        } catch (IOException e) {
+            System.err.println("Ошибка обхода папки изображений " + root.path + ": " + e.getMessage());
+        }
+    }
+
+    private Folder rootOf(Folder folder) {
+        for (Folder root : roots) {
+            if (folder.path.startsWith(root.path)) return root;
+        }
+        return folder;
+    }
+
+    private static FileSystem openFileSystem(URI uri) throws IOException {
+        try {
+            return FileSystems.newFileSystem(uri, Collections.emptyMap());
+        } catch (FileSystemAlreadyExistsException e) {
+            return FileSystems.getFileSystem(uri);
+        }
+    }
+
+    /**
+     * Папка изображений: корень (entityType == null) или папка типа сущности
+     */
+    private static final class Folder {
+        final Path path;
+        final Map<String, Entry> images;
+        final String entityType;
+        final boolean watch;
+
+        Folder(Path path, Map<String, Entry> images, String entityType, boolean watch) {
+            this.path = path;
+            this.images = images;
+            this.entityType = entityType;
+            this.watch = watch;
+        }
+    }
+
+    private static final class Entry {
+        final URL url;
+        final long modified;
+
+        Entry(URL url, long modified) {
+            this.url = url;
+            this.modified = modified;
+        }
+    }
+}
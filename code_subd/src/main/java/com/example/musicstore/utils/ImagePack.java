@@ -0,0 +1,408 @@
+package com.example.musicstore.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Файл-пакет изображений: все изображения в одном файле, адресация по SHA-256
+ * Файл только дописывается. В нем два вида записей:
+ *   BLOB: тип (1 байт), SHA-256 (32 байта), длина (4 байта), содержимое;
+ *   NAME: тип (1 байт), длина имени (2 байта), имя в UTF-8, SHA-256 (32 байта).
+ * Одинаковое содержимое хранится один раз, имена ссылаются на него по хэшу;
+ * при повторной привязке имени действует последняя запись.
+ *
+ * При открытии файл просматривается по заголовкам записей и строится индекс
+ * имя -> хэш -> смещение. Недописанная последняя запись (сбой во время записи)
+ * отрезается. Чтение идет через MappedByteBuffer: get возвращает срез
+ * отображенного файла без копирования содержимого.
+ *
+ * Содержимое, на которое не ссылается ни одно имя, и устаревшие записи имен
+ * удаляются сжатием (compact): живые записи переписываются в новый файл,
+ * который затем атомарно заменяет старый.
+ *
+ * Пакет открывается одним процессом: на время работы удерживается блокировка
+ * файла {пакет}.lock (отдельного, чтобы она переживала замену пакета при сжатии).
+ * Если пакет уже открыт другим экземпляром приложения, конструктор бросает LockedException.
+ */
+public class ImagePack implements AutoCloseable {
+
+    private static final byte BLOB = 1;
+    private static final byte NAME = 2;
+    private static final int HASH_BYTES = 32;
+    private static final int BLOB_HEADER = 1 + HASH_BYTES + 4;
+
+    private final Path file;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private FileChannel channel;
+    private MappedByteBuffer mapped;
+    private long size;
+
+    // Содержимое по хэшу и хэш по имени
+    private final Map<String, Blob> blobs = new HashMap<>();
+    private final Map<String, String> names = new HashMap<>();
+    // Записи имен в файле, включая замененные (для решения о сжатии)
+    private int nameRecords;
+
+    public ImagePack(Path file) throws IOException {
+        this.file = file;
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        lockChannel = FileChannel.open(file.resolveSibling(file.getFileName() + ".lock"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock acquired;
+        try {
+            acquired = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Пакет уже открыт в этом процессе
+            acquired = null;
+        }
+        if (acquired == null) {
+            lockChannel.close();
+            throw new LockedException(file);
+        }
+        lock = acquired;
+        try {
+            open();
+        } catch (IOException | RuntimeException e) {
+            lockChannel.close();
+            throw e;
+        }
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        blobs.clear();
+        names.clear();
+        nameRecords = 0;
+        size = scan();
+        if (size < channel.size()) {
+            System.err.println("Пакет изображений " + file + ": отрезана неполная запись (" + (channel.size() - size) + " байт)");
+            channel.truncate(size);
+        }
+        mapped = null;
+    }
+
+    /**
+     * Просмотр заголовков записей
+     * @return длина файла до первой неполной или поврежденной записи
+     */
+    private long scan() throws IOException {
+        long fileSize = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(BLOB_HEADER);
+        long position = 0;
+        while (position < fileSize) {
+            header.clear().limit(3);
+            if (channel.read(header, position) < 3) break;
+            byte type = header.get(0);
+            if (type == BLOB) {
+                header.clear();
+                if (readFully(header, position) < BLOB_HEADER) break;
+                String hash = hex(header, 1);
+                int length = header.getInt(1 + HASH_BYTES);
+                long end = position + BLOB_HEADER + length;
+                if (length < 0 || end > fileSize) break;
+                blobs.putIfAbsent(hash, new Blob(position + BLOB_HEADER, length));
+                position = end;
+            } else if (type == NAME) {
+                int nameLength = header.getShort(1) & 0xFFFF;
+                ByteBuffer record = ByteBuffer.allocate(nameLength + HASH_BYTES);
+                if (readFully(record, position + 3) < record.capacity()) break;
+                String name = new String(record.array(), 0, nameLength, StandardCharsets.UTF_8);
+                String hash = hex(record, nameLength);
+                // Запись имени всегда дописывается после содержимого, на которое ссылается
+                if (!blobs.containsKey(hash)) break;
+                names.put(name, hash);
+                nameRecords++;
+                position += 3 + record.capacity();
+            } else {
+                break;
+            }
+        }
+        return position;
+    }
+
+    private int readFully(ByteBuffer buffer, long position) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + total);
+            if (read < 0) break;
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * Сохранение изображения под именем
+     * Если такое содержимое уже есть в пакете, дописывается только запись имени
+     * @return SHA-256 содержимого
+     */
+    public synchronized String put(String name, byte[] data) throws IOException {
+        String hash = HexFormat.of().formatHex(digest().digest(data));
+        if (!blobs.containsKey(hash)) {
+            ByteBuffer record = ByteBuffer.allocate(BLOB_HEADER + data.length);
+            record.put(BLOB).put(HexFormat.of().parseHex(hash)).putInt(data.length).put(data).flip();
+            append(record);
+            blobs.put(hash, new Blob(size - data.length, data.length));
+        }
+        bind(name, hash);
+        return hash;
+    }
+
+    /**
+     * Дописывание содержимого из потока (например, BLOB из базы) с проверкой хэша
+     * Поток читается порциями во временный файл рядом с пакетом без блокировки
+     * пакета: чтение и запись других изображений не ждут сети. В пакет дописывается
+     * только проверенное содержимое - копированием между каналами под блокировкой
+     * @param expectedHash ожидаемый SHA-256 содержимого
+     */
+    public void putStream(String expectedHash, InputStream in) throws IOException {
+        if (contains(expectedHash)) return;
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), ".blob", ".tmp");
+        try (FileChannel downloaded = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MessageDigest digest = digest();
+            byte[] chunk = new byte[64 * 1024];
+            long length = 0;
+            for (int read; (read = in.read(chunk)) > 0; ) {
+                digest.update(chunk, 0, read);
+                ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, read);
+                while (buffer.hasRemaining()) {
+                    length += downloaded.write(buffer);
+                }
+            }
+            String hash = HexFormat.of().formatHex(digest.digest());
+            if (!hash.equals(expectedHash) || length > Integer.MAX_VALUE) {
+                throw new IOException("хэш содержимого не совпадает с " + expectedHash);
+            }
+            append(hash, downloaded, (int) length);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Дописывание записи содержимого из проверенного временного файла
+     * Если запись не удалась, файл пакета обрезается до прежней длины
+     */
+    private synchronized void append(String hash, FileChannel source, int length) throws IOException {
+        // Пока содержимое скачивалось, его мог сохранить другой поток
+        if (blobs.containsKey(hash)) return;
+        long start = size;
+        try {
+            ByteBuffer header = ByteBuffer.allocate(BLOB_HEADER);
+            header.put(BLOB).put(HexFormat.of().parseHex(hash)).putInt(length).flip();
+            writeFully(header, start);
+            long position = start + BLOB_HEADER;
+            for (long copied = 0; copied < length; ) {
+                long transferred = channel.transferFrom(source.position(copied), position + copied, length - copied);
+                if (transferred <= 0) {
+                    throw new IOException("временный файл короче ожидаемого (" + copied + " из " + length + " байт)");
+                }
+                copied += transferred;
+            }
+            size = position + length;
+            blobs.put(hash, new Blob(position, length));
+        } finally {
+            if (size == start) {
+                channel.truncate(start);
+            }
+        }
+    }
+
+    /**
+     * Привязка имени к уже сохраненному содержимому
+     */
+    public synchronized void bind(String name, String hash) throws IOException {
+        if (!blobs.containsKey(hash)) {
+            throw new IllegalArgumentException("В пакете нет содержимого " + hash);
+        }
+        if (hash.equals(names.get(name))) return;
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("Слишком длинное имя изображения: " + name);
+        }
+        ByteBuffer record = ByteBuffer.allocate(3 + nameBytes.length + HASH_BYTES);
+        record.put(NAME).putShort((short) nameBytes.length).put(nameBytes).put(HexFormat.of().parseHex(hash)).flip();
+        append(record);
+        names.put(name, hash);
+        nameRecords++;
+    }
+
+    public synchronized boolean contains(String hash) {
+        return blobs.containsKey(hash);
+    }
+
+    /**
+     * Хэш содержимого, привязанного к имени, или null
+     */
+    public synchronized String hashOf(String name) {
+        return names.get(name);
+    }
+
+    /**
+     * Содержимое по хэшу: срез отображенного в память файла (только чтение) или null
+     */
+    public synchronized ByteBuffer get(String hash) throws IOException {
+        Blob blob = blobs.get(hash);
+        if (blob == null) return null;
+        if (mapped == null || mapped.capacity() < blob.offset + blob.length) {
+            // Файл вырос с последнего отображения: отображается заново целиком
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        return mapped.slice((int) blob.offset, blob.length).asReadOnlyBuffer();
+    }
+
+    /**
+     * Содержимое по имени или null
+     */
+    public synchronized ByteBuffer getByName(String name) throws IOException {
+        String hash = names.get(name);
+        return hash == null ? null : get(hash);
+    }
+
+    /**
+     * Сжатие: перезапись пакета только с содержимым, на которое ссылаются имена
+     * @return освобождено байт
+     */
+    public synchronized long compact() throws IOException {
+        long before = size;
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), ".pack", ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                Set<String> written = new HashSet<>();
+                for (Map.Entry<String, String> name : names.entrySet()) {
+                    String hash = name.getValue();
+                    if (written.add(hash)) {
+                        Blob blob = blobs.get(hash);
+                        ByteBuffer header = ByteBuffer.allocate(BLOB_HEADER);
+                        header.put(BLOB).put(HexFormat.of().parseHex(hash)).putInt(blob.length).flip();
+                        while (header.hasRemaining()) out.write(header);
+                        // Содержимое копируется между каналами без чтения в память процесса
+                        for (long copied = 0; copied < blob.length; ) {
+                            copied += channel.transferTo(blob.offset + copied, blob.length - copied, out);
+                        }
+                    }
+                    byte[] nameBytes = name.getKey().getBytes(StandardCharsets.UTF_8);
+                    ByteBuffer record = ByteBuffer.allocate(3 + nameBytes.length + HASH_BYTES);
+                    record.put(NAME).putShort((short) nameBytes.length).put(nameBytes).put(HexFormat.of().parseHex(hash)).flip();
+                    while (record.hasRemaining()) out.write(record);
+                }
+                out.force(true);
+            }
+            channel.close();
+            mapped = null;
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+            if (!channel.isOpen()) {
+                open();
+            }
+        }
+        long freed = before - size;
+        System.out.println("Пакет изображений сжат: " + before / 1024 + " КБ -> " + size / 1024 + " КБ");
+        return freed;
+    }
+
+    /**
+     * Стоит ли сжимать пакет: больше половины файла занято неиспользуемыми записями
+     */
+    public synchronized boolean needsCompaction() {
+        long live = 0;
+        for (String hash : new HashSet<>(names.values())) {
+            live += BLOB_HEADER + blobs.get(hash).length;
+        }
+        return size > 0 && (live * 2 < size || nameRecords > names.size() * 2 + 64);
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+
+    public synchronized int nameCount() {
+        return names.size();
+    }
+
+    public synchronized int blobCount() {
+        return blobs.size();
+    }
+
+    private void append(ByteBuffer record) throws IOException {
+        size += writeFully(record, size);
+    }
+
+    private int writeFully(ByteBuffer buffer, long position) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            total += channel.write(buffer, position + total);
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        mapped = null;
+        try {
+            channel.close();
+        } finally {
+            lock.release();
+            lockChannel.close();
+        }
+    }
+
+    private static String hex(ByteBuffer buffer, int offset) {
+        byte[] hash = new byte[HASH_BYTES];
+        buffer.get(offset, hash);
+        return HexFormat.of().formatHex(hash);
+    }
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Пакет уже открыт другим процессом (или другим объектом в этом процессе)
+     */
+    public static final class LockedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public LockedException(Path file) {
+            super("Пакет изображений уже используется: " + file);
+        }
+    }
+
+    /**
+     * Расположение содержимого в файле
+     */
+    private static final class Blob {
+        final long offset;
+        final int length;
+
+        Blob(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
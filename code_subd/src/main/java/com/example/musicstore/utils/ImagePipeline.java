@@ -0,0 +1,222 @@
+package com.example.musicstore.utils;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Подготовка изображений сущностей в нескольких размерах
+ * Выбранный пользователем файл декодируется один раз, из него строятся
+ * уменьшенные копии (миниатюра и превью), которые сохраняются в JPEG со сжатием
+ * рядом с оригиналом: имя.jpg (оригинал), имя@preview.jpg, имя@thumb.jpg.
+ * Куда записываются файлы, определяет Sink: в папки (directories) или в базу (ImageStore).
+ * Обработка идет в отдельном фоновом потоке, ход выполнения сообщается через
+ * progress (от 0 до 1, в фоновом потоке).
+ *
+ * Для отображения выбирается наименьший размер, который не меньше области
+ * просмотра (Size.fitting); у старых изображений без копий используется оригинал.
+ *
+ * Качество JPEG задается системным свойством musicstore.images.jpegQuality
+ */
+public final class ImagePipeline {
+
+    /**
+     * Размер изображения: наибольшая сторона в пикселях (0 - оригинал)
+     */
+    public enum Size {
+        THUMB(160, "thumb"),
+        PREVIEW(480, "preview"),
+        FULL(0, null);
+
+        private final int maxSide;
+        private final String suffix;
+
+        Size(int maxSide, String suffix) {
+            this.maxSide = maxSide;
+            this.suffix = suffix;
+        }
+
+        public int getMaxSide() {
+            return maxSide;
+        }
+
+        /**
+         * Имя файла изображения этого размера
+         * @param fileName имя файла оригинала (name.jpg)
+         */
+        public String fileName(String fileName) {
+            if (suffix == null) return fileName;
+            int dot = fileName.lastIndexOf('.');
+            String base = dot < 0 ? fileName : fileName.substring(0, dot);
+            return base + "@" + suffix + ".jpg";
+        }
+
+        /**
+         * Наименьший размер, заполняющий область просмотра без увеличения
+         */
+        public static Size fitting(double width, double height) {
+            double side = Math.max(width, height);
+            for (Size size : values()) {
+                if (size.maxSide == 0 || size.maxSide >= side) {
+                    return size;
+                }
+            }
+            return FULL;
+        }
+    }
+
+    private static final float JPEG_QUALITY = Float.parseFloat(System.getProperty("musicstore.images.jpegQuality", "0.85"));
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "image-pipeline");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Получатель подготовленных файлов изображения
+     */
+    public interface Sink {
+        void write(String fileName, byte[] data) throws IOException;
+    }
+
+    private ImagePipeline() {
+    }
+
+    /**
+     * Запись файлов в каждую из папок
+     */
+    public static Sink directories(List<Path> targetDirs) {
+        return (fileName, data) -> {
+            for (Path dir : targetDirs) {
+                Files.createDirectories(dir);
+                writeAtomically(dir.resolve(fileName), data);
+            }
+        };
+    }
+
+    /**
+     * Фоновая подготовка изображения: копирование оригинала и создание уменьшенных копий
+     * @param source выбранный файл
+     * @param fileName имя файла оригинала
+     * @param sink получатель файлов всех размеров
+     * @param progress ход выполнения от 0 до 1 (вызывается в фоновом потоке)
+     * @return future, завершающийся после записи всех размеров
+     */
+    public static CompletableFuture<Void> ingest(File source, String fileName, Sink sink, DoubleConsumer progress) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                process(source, fileName, sink, progress);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, EXECUTOR);
+    }
+
+    private static void process(File source, String fileName, Sink sink, DoubleConsumer progress) throws IOException {
+        progress.accept(0);
+        BufferedImage original = ImageIO.read(source);
+        if (original == null) {
+            throw new IOException("Формат изображения не поддерживается: " + source.getName());
+        }
+        progress.accept(0.3);
+
+        sink.write(fileName, Files.readAllBytes(source.toPath()));
+        progress.accept(0.4);
+
+        // Копии строятся от большей к меньшей: миниатюра уменьшается из превью
+        BufferedImage current = original;
+        Size[] sizes = {Size.PREVIEW, Size.THUMB};
+        for (int i = 0; i < sizes.length; i++) {
+            current = scale(current, sizes[i].getMaxSide());
+            byte[] jpeg = encodeJpeg(current);
+            sink.write(sizes[i].fileName(fileName), jpeg);
+            progress.accept(0.4 + 0.6 * (i + 1) / sizes.length);
+        }
+        System.out.println("Изображение подготовлено: " + fileName + " (" + original.getWidth() + "x" + original.getHeight() + ")");
+    }
+
+    /**
+     * Уменьшение изображения до наибольшей стороны maxSide
+     * Большое уменьшение выполняется в несколько шагов вдвое для качества сглаживания
+     */
+    static BufferedImage scale(BufferedImage image, int maxSide) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        double ratio = Math.min(1.0, (double) maxSide / Math.max(width, height));
+        int targetWidth = Math.max(1, (int) Math.round(width * ratio));
+        int targetHeight = Math.max(1, (int) Math.round(height * ratio));
+
+        BufferedImage current = image;
+        do {
+            width = Math.max(targetWidth, width / 2);
+            height = Math.max(targetHeight, height / 2);
+            if (current != image || current.getType() != BufferedImage.TYPE_INT_RGB || width != current.getWidth()) {
+                current = draw(current, width, height);
+            }
+        } while (width != targetWidth || height != targetHeight);
+        return current;
+    }
+
+    /**
+     * Перерисовка в RGB без прозрачности (прозрачные области - белые, как в JPEG)
+     */
+    private static BufferedImage draw(BufferedImage image, int width, int height) {
+        BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = result.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(image, 0, 0, width, height, Color.WHITE, null);
+        } finally {
+            g.dispose();
+        }
+        return result;
+    }
+
+    static byte[] encodeJpeg(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(bytes)) {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Запись через временный файл: читатель не увидит наполовину записанное изображение
+     */
+    private static void writeAtomically(Path target, byte[] data) throws IOException {
+        Path temp = Files.createTempFile(target.getParent(), ".image", ".tmp");
+        try {
+            Files.write(temp, data);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
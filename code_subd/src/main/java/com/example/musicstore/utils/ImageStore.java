@@ -0,0 +1,280 @@
+package com.example.musicstore.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Хранение изображений сущностей в базе данных (таблица entity_images)
+ * Изображение хранится в BLOB вместе с SHA-256 содержимого, поэтому его видят
+ * все рабочие места. Каждый клиент держит дисковый кэш - пакет изображений
+ * (ImagePack) с адресацией по хэшу: при повторном обращении из базы читается
+ * только хэш, а само изображение по сети передается один раз. Одинаковые
+ * изображения разных сущностей хранятся в пакете один раз.
+ *
+ * Содержимое читается через getBinaryStream и дописывается в пакет порциями, без
+ * загрузки BLOB целиком в память; запись остается в пакете только после проверки хэша.
+ * Если пакет в основном занят замененными изображениями, он сжимается при открытии.
+ * Если пакет уже открыт другим экземпляром приложения, этот экземпляр работает с
+ * временным пакетом, который удаляется при завершении.
+ *
+ * Таблица создается миграцией db/migrations/004_entity_images.sql. Если ее нет,
+ * isAvailable() возвращает false и изображения хранятся в локальных папках, как раньше.
+ *
+ * Параметры задаются системными свойствами musicstore.images.*: packFile, hashTtlMs
+ */
+public class ImageStore {
+
+    private static final String HASH_QUERY =
+            "SELECT sha256 FROM entity_images WHERE entity_type = ? AND image_name = ?";
+    private static final String DATA_QUERY =
+            "SELECT data FROM entity_images WHERE sha256 = ? LIMIT 1";
+    private static final String UPSERT =
+            "INSERT INTO entity_images (entity_type, image_name, sha256, byte_size, data) VALUES (?, ?, ?, ?, ?) " +
+            "ON DUPLICATE KEY UPDATE sha256 = VALUES(sha256), byte_size = VALUES(byte_size), data = VALUES(data)";
+
+    private static final ImageStore INSTANCE = new ImageStore(
+            Paths.get(System.getProperty("musicstore.images.packFile",
+                    Paths.get(System.getProperty("user.home"), ".musicstore", "images.pack").toString())),
+            Long.getLong("musicstore.images.hashTtlMs", 30_000L));
+
+    static {
+        Database.addShutdownAction(() -> {
+            System.out.println(INSTANCE.getStats());
+            INSTANCE.close();
+        });
+    }
+
+    private final Path packFile;
+    private final long hashTtlNanos;
+    private ImagePack pack;
+    // Временный пакет этого процесса (null - используется общий пакет)
+    private Path ownPack;
+
+    // Хэши изображений по "тип/имя": чтобы не спрашивать базу при каждом выборе записи
+    private final ConcurrentHashMap<String, Hash> hashes = new ConcurrentHashMap<>();
+    // Есть ли в базе таблица entity_images (null - еще не проверено)
+    private volatile Boolean available;
+
+    // Статистика
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong downloads = new AtomicLong();
+    private final AtomicLong downloadedBytes = new AtomicLong();
+    private final AtomicLong uploads = new AtomicLong();
+
+    public ImageStore(Path packFile, long hashTtlMillis) {
+        if (hashTtlMillis < 0) {
+            throw new IllegalArgumentException("Некорректный TTL хэшей изображений: " + hashTtlMillis);
+        }
+        this.packFile = packFile;
+        this.hashTtlNanos = hashTtlMillis * 1_000_000L;
+    }
+
+    public static ImageStore getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Хранятся ли изображения в базе данных
+     */
+    public boolean isAvailable() {
+        Boolean result = available;
+        if (result == null) {
+            result = Database.tableExists("entity_images");
+            available = result;
+            System.out.println("Хранение изображений: " + (result ? "база данных, кэш " + packFile : "локальные папки"));
+        }
+        return result;
+    }
+
+    /**
+     * Наличие изображения в дисковом кэше
+     * Если изображения еще нет в пакете, оно читается из базы и дописывается в пакет.
+     * Обращается к базе данных: вызывается только в фоновом потоке
+     * @return SHA-256 изображения (для чтения через read) или null, если изображения нет в базе
+     */
+    public String fetch(String entityType, String imageName) {
+        if (!isAvailable()) return null;
+        String sha256 = lookupHash(entityType, imageName);
+        if (sha256 == null) return null;
+
+        try {
+            ImagePack pack = pack();
+            if (pack.contains(sha256)) {
+                diskHits.incrementAndGet();
+            } else if (!download(pack, sha256)) {
+                return null;
+            }
+            pack.bind(entityType + "/" + imageName, sha256);
+            return sha256;
+        } catch (IOException | SQLException e) {
+            System.err.println("Ошибка загрузки изображения " + entityType + "/" + imageName + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Содержимое изображения из пакета (срез отображенного в память файла) или null
+     */
+    public ByteBuffer read(String sha256) {
+        try {
+            return pack().get(sha256);
+        } catch (IOException e) {
+            System.err.println("Ошибка чтения пакета изображений: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Сохранение изображения в базу данных и в локальный кэш
+     * Если в базе уже то же содержимое, BLOB повторно не передается
+     */
+    public void save(String entityType, String imageName, byte[] data) throws IOException {
+        // Свое изображение кладется в кэш сразу: загрузившему клиенту не нужно скачивать его обратно
+        String sha256 = pack().put(entityType + "/" + imageName, data);
+
+        String key = entityType + "/" + imageName;
+        hashes.remove(key);
+        if (sha256.equals(lookupHash(entityType, imageName))) return;
+
+        try (Connection conn = Database.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(UPSERT)) {
+            stmt.setString(1, entityType);
+            stmt.setString(2, imageName);
+            stmt.setString(3, sha256);
+            stmt.setInt(4, data.length);
+            stmt.setBinaryStream(5, new ByteArrayInputStream(data), data.length);
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new IOException("Не удалось сохранить изображение в базу: " + e.getMessage(), e);
+        } finally {
+            hashes.remove(key);
+        }
+        uploads.incrementAndGet();
+    }
+
+    /**
+     * Сброс запомненного хэша (например, перед принудительным обновлением изображения)
+     */
+    public void invalidate(String entityType, String imageName) {
+        hashes.remove(entityType + "/" + imageName);
+    }
+
+    private String lookupHash(String entityType, String imageName) {
+        String key = entityType + "/" + imageName;
+        Hash hash = hashes.get(key);
+        if (hash != null && System.nanoTime() - hash.checkedAt < hashTtlNanos) {
+            return hash.value;
+        }
+        List<Map<String, Object>> rows = com.example.musicstore.Database.query(HASH_QUERY, entityType, imageName);
+        String value = rows.isEmpty() ? null : String.valueOf(rows.get(0).get("sha256"));
+        hashes.put(key, new Hash(value));
+        return value;
+    }
+
+    /**
+     * Потоковое чтение BLOB в пакет с проверкой хэша
+     */
+    private boolean download(ImagePack pack, String sha256) throws IOException, SQLException {
+        try (Connection conn = Database.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(DATA_QUERY)) {
+            stmt.setString(1, sha256);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) return false;
+                long before = pack.size();
+                try (InputStream in = rs.getBinaryStream(1)) {
+                    pack.putStream(sha256, in);
+                }
+                downloads.incrementAndGet();
+                downloadedBytes.addAndGet(pack.size() - before);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Пакет изображений (открывается при первом обращении)
+     */
+    private synchronized ImagePack pack() throws IOException {
+        if (pack == null) {
+            try {
+                pack = new ImagePack(packFile);
+            } catch (ImagePack.LockedException e) {
+                ownPack = Files.createTempFile("musicstore-images-", ".pack");
+                System.out.println(e.getMessage() + ": используется временный пакет " + ownPack);
+                pack = new ImagePack(ownPack);
+            }
+            if (pack.needsCompaction()) {
+                pack.compact();
+            }
+        }
+        return pack;
+    }
+
+    private synchronized void close() {
+        if (pack == null) return;
+        try {
+            pack.close();
+        } catch (IOException e) {
+            System.err.println("Ошибка закрытия пакета изображений: " + e.getMessage());
+        }
+        pack = null;
+        if (ownPack != null) {
+            try {
+                Files.deleteIfExists(ownPack);
+                Files.deleteIfExists(ownPack.resolveSibling(ownPack.getFileName() + ".lock"));
+            } catch (IOException e) {
+                System.err.println("Не удалось удалить временный пакет изображений: " + e.getMessage());
+            }
+            ownPack = null;
+        }
+    }
+
+    public Stats getStats() {
+        return new Stats(diskHits.get(), downloads.get(), downloadedBytes.get(), uploads.get());
+    }
+
+    /**
+     * Запомненный хэш изображения (null - изображения в базе нет)
+     */
+    private static final class Hash {
+        final String value;
+        final long checkedAt = System.nanoTime();
+
+        Hash(String value) {
+            this.value = value;
+        }
+    }
+
+    public static final class Stats {
+        public final long diskHits;
+        public final long downloads;
+        public final long downloadedBytes;
+        public final long uploads;
+
+        Stats(long diskHits, long downloads, long downloadedBytes, long uploads) {
+            this.diskHits = diskHits;
+            this.downloads = downloads;
+            this.downloadedBytes = downloadedBytes;
+            this.uploads = uploads;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Хранилище изображений: из дискового кэша=%d, загружено из базы=%d (%d КБ), сохранено в базу=%d",
+                    diskHits, downloads, downloadedBytes / 1024, uploads);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.musicstore.utils;
+
+/**
+ * Подключение к серверу MySQL
+ * Параметры задаются системными свойствами musicstore.db.url, musicstore.db.user, musicstore.db.password
+ */
+public class MySqlBackend implements DatabaseBackend {
+
+    public static final String NAME = "mysql";
+
+    private static final String DEFAULT_URL = "jdbc:mysql://localhost:3306/music_store" +
+            "?useServerPrepStmts=true&useCursorFetch=true&rewriteBatchedStatements=true";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String getUrl() {
+        return System.getProperty("musicstore.db.url", DEFAULT_URL);
+    }
+
+    @Override
+    public String getUser() {
+        return System.getProperty("musicstore.db.user", "root");
+    }
+
+    @Override
+    public String getPassword() {
+        return System.getProperty("musicstore.db.password", "mysql");
+    }
+}
@@ -0,0 +1,241 @@
+package com.example.musicstore.utils;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Компактный результат запроса
+ * Все строки разделяют одну схему (имя колонки -> индекс), а значения строки
+ * хранятся в массиве Object[] вместо отдельной HashMap на каждую строку.
+ * Каждая строка доступна как Map<String, Object>, поэтому таблицы JavaFX
+ * и остальной код, работающий с картами, не меняются.
+ */
+public class ResultTable extends AbstractList<Map<String, Object>> implements RandomAccess {
+
+    private final Schema schema;
+    private final ArrayList<Row> rows;
+
+    public ResultTable(Schema schema) {
+        this(schema, 16);
+    }
+
+    public ResultTable(Schema schema, int expectedRows) {
+        this.schema = schema;
+        this.rows = new ArrayList<>(expectedRows);
+    }
+
+    /**
+     * Чтение всех строк результата запроса
+     * Метаданные колонок читаются один раз, а не для каждой ячейки
+     */
+    public static ResultTable from(ResultSet rs) throws SQLException {
+        Schema schema = Schema.of(rs.getMetaData());
+        ResultTable table = new ResultTable(schema);
+        int columnCount = schema.size();
+        while (rs.next()) {
+            table.rows.add(new Row(schema, readValues(rs, columnCount)));
+        }
+        table.rows.trimToSize();
+        return table;
+    }
+
+    /**
+     * Чтение текущей строки ResultSet в отдельную строку со схемой
+     * Используется при потоковом чтении, когда весь результат не материализуется
+     */
+    public static Row readRow(Schema schema, ResultSet rs) throws SQLException {
+        return new Row(schema, readValues(rs, schema.size()));
+    }
+
+    /**
+     * Чтение значений текущей строки ResultSet
+     * NULL заменяется пустой строкой, как и в прежней реализации на HashMap
+     */
+    static Object[] readValues(ResultSet rs, int columnCount) throws SQLException {
+        Object[] values = new Object[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            Object value = rs.getObject(i + 1);
+            values[i] = value != null ? value : "";
+        }
+        return values;
+    }
+
+    /**
+     * Добавление строки со значениями в порядке колонок схемы
+     */
+    public Row addRow(Object... values) {
+        if (values.length != schema.size()) {
+            throw new IllegalArgumentException("Ожидалось значений: " + schema.size() + ", получено: " + values.length);
+        }
+        Row row = new Row(schema, values);
+        rows.add(row);
+        return row;
+    }
+
+    public Schema getSchema() {
+        return schema;
+    }
+
+    @Override
+    public Map<String, Object> get(int index) {
+        return rows.get(index);
+    }
+
+    @Override
+    public int size() {
+        return rows.size();
+    }
+
+    /**
+     * Схема результата: имена колонок и их индексы
+     */
+    public static final class Schema {
+        private final String[] labels;
+        private final Map<String, Integer> indexByLabel;
+
+        public Schema(String... labels) {
+            this.labels = labels.clone();
+            this.indexByLabel = new HashMap<>(labels.length * 2);
+            for (int i = 0; i < labels.length; i++) {
+                // при повторяющихся именах колонок (SELECT *, JOIN) побеждает последняя, как в HashMap.put
+                indexByLabel.put(labels[i], i);
+            }
+        }
+
+        public static Schema of(ResultSetMetaData metaData) throws SQLException {
+            String[] labels = new String[metaData.getColumnCount()];
+            for (int i = 0; i < labels.length; i++) {
+                labels[i] = metaData.getColumnLabel(i + 1);
+            }
+            return new Schema(labels);
+        }
+
+        public int indexOf(String label) {
+            Integer index = indexByLabel.get(label);
+            return index != null ? index : -1;
+        }
+
+        public String label(int index) {
+            return labels[index];
+        }
+
+        public int size() {
+            return labels.length;
+        }
+    }
+
+    /**
+     * Строка результата в виде карты с фиксированным набором ключей
+     * Значения существующих колонок можно менять (put, Entry.setValue),
+     * добавлять новые колонки и удалять существующие нельзя
+     */
+    public static final class Row extends AbstractMap<String, Object> {
+        private final Schema schema;
+        private final Object[] values;
+
+        Row(Schema schema, Object[] values) {
+            this.schema = schema;
+            this.values = values;
+        }
+
+        @Override
+        public Object get(Object key) {
+            int index = key instanceof String ? schema.indexOf((String) key) : -1;
+            return index >= 0 ? values[index] : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String && schema.indexOf((String) key) >= 0;
+        }
+
+        @Override
+        public Object put(String key, Object value) {
+            int index = schema.indexOf(key);
+            if (index < 0) {
+                throw new UnsupportedOperationException("Колонка '" + key + "' отсутствует в результате запроса");
+            }
+            Object old = values[index];
+            values[index] = value;
+            return old;
+        }
+
+        @Override
+        public int size() {
+            return distinctColumns();
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return new AbstractSet<Entry<String, Object>>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    return new Iterator<Entry<String, Object>>() {
+                        private int next = advance(0);
+
+                        private int advance(int from) {
+                            // пропускаем повторяющиеся имена, чтобы набор ключей совпадал с get()
+                            while (from < schema.size() && schema.indexOf(schema.label(from)) != from) {
+                                from++;
+                            }
+                            return from;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < schema.size();
+                        }
+
+                        @Override
+                        public Entry<String, Object> next() {
+                            if (!hasNext()) throw new NoSuchElementException();
+                            final int index = next;
+                            next = advance(next + 1);
+                            return new Entry<String, Object>() {
+                                @Override
+                                public String getKey() {
+                                    return schema.label(index);
+                                }
+
+                                @Override
+                                public Object getValue() {
+                                    return values[index];
+                                }
+
+                                @Override
+                                public Object setValue(Object value) {
+                                    Object old = values[index];
+                                    values[index] = value;
+                                    return old;
+                                }
+
+                                @Override
+                                public boolean equals(Object o) {
+                                    if (!(o instanceof Entry)) return false;
+                                    Entry<?, ?> e = (Entry<?, ?>) o;
+                                    return getKey().equals(e.getKey()) && Objects.equals(getValue(), e.getValue());
+                                }
+
+                                @Override
+                                public int hashCode() {
+                                    return getKey().hashCode() ^ Objects.hashCode(getValue());
+                                }
+                            };
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return distinctColumns();
+                }
+            };
+        }
+
+        private int distinctColumns() {
+            return schema.indexByLabel.size();
+        }
+    }
+}
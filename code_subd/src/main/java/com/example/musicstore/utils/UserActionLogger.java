@@ -1,25 +1,297 @@
 package com.example.musicstore.utils;
 
 import com.example.musicstore.Database;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Журнал действий пользователей с отложенной записью
+ * logAction() только помещает запись в очередь, а фоновый поток записывает
+ * накопленные действия в user_actions пакетами. При переполнении очереди
+ * действует политика musicstore.log.overflow:
+ * BLOCK - ждать освобождения места, DROP - отбросить запись,
+ * SPILL - дописать запись в локальный файл, который загружается в базу позже.
+ *
+ * Пакет записывается одной транзакцией: он либо записан целиком, либо не записан
+ * вовсе, поэтому повторная запись неудачного пакета (или файла) не дублирует строки.
+ *
+ * Параметры задаются системными свойствами musicstore.log.*:
+ * queueCapacity, batchSize, flushIntervalMs, overflow, spillFile
+ */
 public class UserActionLogger {
 
-    private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    public enum OverflowPolicy { BLOCK, DROP, SPILL }
+
+    /**
+     * Запись пакета действий в базу
+     * Возвращает true, если записаны все строки; false - если не записана ни одна
+     */
+    interface BatchWriter {
+        boolean write(List<Object[]> rows);
+    }
+
+    private static final String INSERT_QUERY =
+            "INSERT INTO user_actions (user_email, action_date, action_type, entity_type, action_details, ip_address) " +
+                    "VALUES (?, ?, ?, ?, ?, ?)";
+
+    private static final UserActionLogger INSTANCE = new UserActionLogger(
+            Integer.getInteger("musicstore.log.queueCapacity", 10_000),
+            Integer.getInteger("musicstore.log.batchSize", 200),
+            Long.getLong("musicstore.log.flushIntervalMs", 500L),
+            OverflowPolicy.valueOf(System.getProperty("musicstore.log.overflow", OverflowPolicy.BLOCK.name()).toUpperCase()),
+            Paths.get(System.getProperty("musicstore.log.spillFile", "user_actions.spill")),
+            UserActionLogger::insert);
+
+    static {
+        // Запись оставшихся действий при завершении, до закрытия пула соединений
+        com.example.musicstore.utils.Database.addShutdownAction(INSTANCE::shutdown);
+    }
+
+    private final int queueCapacity;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final OverflowPolicy overflow;
+    private final Path spillFile;
+    private final BatchWriter batchWriter;
+
+    // Очередь без блокировок; размер ограничивается отдельным счетчиком
+    private final Queue<Object[]> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    // Запись в базу выполняется либо фоновым потоком, либо flush()
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Object spillMonitor = new Object();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    // Статистика
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+
+    UserActionLogger(int queueCapacity, int batchSize, long flushIntervalMillis, OverflowPolicy overflow,
+                     Path spillFile, BatchWriter batchWriter) {
+        if (queueCapacity <= 0 || batchSize <= 0 || flushIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Некорректные параметры журнала: capacity=" + queueCapacity +
+                    ", batch=" + batchSize + ", interval=" + flushIntervalMillis);
+        }
+        this.queueCapacity = queueCapacity;
+        this.batchSize = batchSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.overflow = overflow;
+        this.spillFile = spillFile;
+        this.batchWriter = batchWriter;
+
+        writer = new Thread(this::runWriter, "user-action-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
 
     public static void logAction(String userEmail, String actionType, String entityType, String details) {
+        INSTANCE.log(userEmail, actionType, entityType, details);
+    }
+
+    /**
+     * Запись всех накопленных действий в базу
+     * Вызывается при выходе из системы и перед чтением истории действий
+     */
+    public static void flush() {
+        INSTANCE.flushPending();
+    }
+
+    /**
+     * Статистика журнала (в очереди, записано, отброшено, сохранено в файл)
+     */
+    public static String getStats() {
+        return INSTANCE.stats();
+    }
+
+    /**
+     * Вставка пакета в user_actions одной транзакцией
+     */
+    private static boolean insert(List<Object[]> rows) {
+        return Database.executeBatch(INSERT_QUERY, rows, Database.DEFAULT_BATCH_SIZE, Math.max(1, rows.size())) >= 0;
+    }
+
+    void log(String userEmail, String actionType, String entityType, String details) {
         String ipAddress = getClientIpAddress();
-        String timestamp = LocalDateTime.now().format(formatter);
+        Object[] row = {nullToEmpty(userEmail), new Timestamp(System.currentTimeMillis()), nullToEmpty(actionType),
+                nullToEmpty(entityType), nullToEmpty(details), nullToEmpty(ipAddress)};
+
+        if (closed) {
+            // После остановки записываем сразу
+            writeBatch(List.<Object[]>of(row));
+            return;
+        }
 
-        String query = String.format(
-                "INSERT INTO user_actions (user_email, action_date, action_type, entity_type, action_details, ip_address) " +
-                        "VALUES ('%s', '%s', '%s', '%s', '%s', '%s')",
-                sanitize(userEmail), timestamp, sanitize(actionType),
-                sanitize(entityType), sanitize(details), sanitize(ipAddress)
-        );
+        while (!tryEnqueue(row)) {
+            switch (overflow) {
+                case DROP:
+                    dropped.incrementAndGet();
+                    return;
+                case SPILL:
+                    spill(List.<Object[]>of(row));
+                    return;
+                default:
+                    // BLOCK: ждем, пока фоновый поток освободит место
+                    LockSupport.unpark(writer);
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+        }
+
+        if (queued.get() >= batchSize) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    private boolean tryEnqueue(Object[] row) {
+        if (queued.incrementAndGet() > queueCapacity) {
+            queued.decrementAndGet();
+            return false;
+        }
+        queue.offer(row);
+        return true;
+    }
+
+    void flushPending() {
+        writeLock.lock();
+        try {
+            List<Object[]> batch;
+            while (!(batch = drain()).isEmpty()) {
+                writeBatch(batch);
+            }
+            loadSpillFile();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void runWriter() {
+        while (!closed) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis));
+            try {
+                flushPending();
+            } catch (RuntimeException e) {
+                System.err.println("Ошибка записи журнала действий: " + e.getMessage());
+            }
+        }
+    }
+
+    private List<Object[]> drain() {
+        List<Object[]> batch = new ArrayList<>(batchSize);
+        Object[] row;
+        while (batch.size() < batchSize && (row = queue.poll()) != null) {
+            queued.decrementAndGet();
+            batch.add(row);
+        }
+        return batch;
+    }
+
+    /**
+     * Пакетная запись; если база недоступна, записи сохраняются в локальный файл
+     */
+    private void writeBatch(List<Object[]> batch) {
+        if (!batchWriter.write(batch)) {
+            failedBatches.incrementAndGet();
+            spill(batch);
+        } else {
+            written.addAndGet(batch.size());
+        }
+    }
+
+    private void spill(List<Object[]> rows) {
+        synchronized (spillMonitor) {
+            try (BufferedWriter out = Files.newBufferedWriter(spillFile, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                for (Object[] row : rows) {
+                    StringBuilder line = new StringBuilder();
+                    for (int i = 0; i < row.length; i++) {
+                        if (i > 0) line.append('\t');
+                        line.append(escape(row[i].toString()));
+                    }
+                    out.write(line.toString());
+                    out.newLine();
+                }
+                spilled.addAndGet(rows.size());
+            } catch (IOException e) {
+                dropped.addAndGet(rows.size());
+                System.err.println("Не удалось сохранить действия в файл " + spillFile + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Загрузка в базу действий, сохраненных в локальный файл
+     * Все строки файла записываются одной транзакцией; файл удаляется только после
+     * ее фиксации, а при ошибке остается без изменений для следующей попытки
+     */
+    private void loadSpillFile() {
+        synchronized (spillMonitor) {
+            if (!Files.exists(spillFile)) return;
+            try {
+                List<Object[]> rows = new ArrayList<>();
+                for (String line : Files.readAllLines(spillFile, StandardCharsets.UTF_8)) {
+                    if (line.isEmpty()) continue;
+                    String[] fields = line.split("\t", -1);
+                    if (fields.length != 6) continue;
+                    rows.add(new Object[]{unescape(fields[0]), Timestamp.valueOf(unescape(fields[1])), unescape(fields[2]),
+                            unescape(fields[3]), unescape(fields[4]), unescape(fields[5])});
+                }
+                if (rows.isEmpty() || batchWriter.write(rows)) {
+                    Files.delete(spillFile);
+                    written.addAndGet(rows.size());
+                } else {
+                    failedBatches.incrementAndGet();
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Не удалось загрузить действия из файла " + spillFile + ": " + e.getMessage());
+            }
+        }
+    }
+
+    void shutdown() {
+        closed = true;
+        LockSupport.unpark(writer);
+        flushPending();
+    }
+
+    String stats() {
+        return String.format("Журнал действий: в очереди=%d, записано=%d, отброшено=%d, в файле=%d, ошибок записи=%d",
+                queued.get(), written.get(), dropped.get(), spilled.get(), failedBatches.get());
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
 
-        Database.executeUpdate(query);
+    private static String unescape(String value) {
+        StringBuilder result = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                result.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
     }
 
     private static String getClientIpAddress() {
@@ -28,8 +300,7 @@ public class UserActionLogger {
         return "127.0.0.1";
     }
 
-    private static String sanitize(String input) {
-        if (input == null) return "";
-        return input.replace("'", "''");
+    private static String nullToEmpty(String input) {
+        return input == null ? "" : input;
     }
-}
\ No newline at end of file
+}
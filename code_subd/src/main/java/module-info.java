@@ -15,4 +15,6 @@ module com.example.musicstore {
     exports com.example.musicstore.models;
     exports com.example.musicstore.services;
     exports com.example.musicstore.utils;
+
+    uses com.example.musicstore.utils.DatabaseBackend;
 }
\ No newline at end of file
@@ -0,0 +1,9 @@
+-- Колонка полного имени музыканта для поиска по имени без CONCAT в условии
+-- Применяется к существующей базе MySQL; новая база создается сразу по schema.sql
+
+ALTER TABLE musicians
+    ADD COLUMN full_name VARCHAR(310)
+        GENERATED ALWAYS AS (CONCAT_WS(' ', first_name, NULLIF(middle_name, ''), last_name)) VIRTUAL
+        AFTER last_name;
+
+CREATE INDEX idx_musicians_full_name ON musicians (full_name);
@@ -0,0 +1,68 @@
+-- Счетчики версий таблиц для отслеживания изменений (services.TableChangeMonitor)
+-- Каждое изменение строки увеличивает версию своей таблицы. Применяется к базе MySQL;
+-- без этой миграции версии вычисляются по количеству строк и MAX(updated_at).
+-- Каскадное удаление в MySQL не вызывает триггеры: связи удаленной записи
+-- обновляются вместе с основной таблицей, от которой зависят их вкладки.
+
+CREATE TABLE IF NOT EXISTS table_versions (
+    table_name VARCHAR(64) PRIMARY KEY,
+    version BIGINT NOT NULL DEFAULT 0
+);
+
+INSERT IGNORE INTO table_versions (table_name) VALUES
+    ('ensembles'),
+    ('musicians'),
+    ('compositions'),
+    ('records'),
+    ('ensemble_members'),
+    ('performances'),
+    ('record_tracks');
+
+CREATE TRIGGER trg_ensembles_insert AFTER INSERT ON ensembles FOR EACH ROW
+    UPDATE table_versions SET version = version + 1 WHERE table_name = 'ensembles';
+CREATE TRIGGER trg_ensembles_update AFTER UPDATE ON ensembles FOR EACH ROW
+    UPDATE table_versions SET version = version + 1 WHERE table_name = 'ensembles';
+CREATE TRIGGER trg_ensembles_delete AFTER DELETE ON ensembles FOR EACH ROW
+    UPDATE table_versions SET version = version + 1 WHERE table_name = 'ensembles';
+
+CREATE TRIGGER trg_musicians_insert AFTER INSERT ON musicians FOR EACH ROW
+    UPDATE table_versions SET version = version + 1 WHERE table_name = 'musicians';
+CREATE TRIGGER trg_musicians_update AFTER UPDATE ON musicians FOR EACH ROW
+    UPDATE table_versions SET version = version + 1 WHERE table_name = 'musicians';
+CREATE TRIGGER trg_musicians_delete AFTER DELETE ON musicians FOR EACH ROW
+    UPDATE table_versions SET version = version + 1 WHERE table_name = 'musicians';
+
+CREATE TRIGGER trg_compositions_insert AFTER INSERT ON compositions FOR EACH ROW
+    UPDATE table_versions SET version = version + 1 WHERE table_name = 'compositions';
+CREATE TRIGGER trg_compositions_update AFTER UPDATE ON compositions FOR EACH ROW
+    UPDATE table_versions SET version = version + 1 WHERE table_name = 'compositions';
+CREATE TRIGGER trg_compositions_delete AFTER DELETE ON compositions FOR EACH ROW
+    UPDATE table_versions SET version = version + 1 WHERE table_name = 'compositions';
+
+CREATE TRIGGER trg_records_insert AFTER INSERT ON records FOR EACH ROW
+    UPDATE table_versions SET version = version + 1 WHERE table_name = 'records';
+CREATE TRIGGER trg_records_update AFTER UPDATE ON records FOR EACH ROW
+    UPDATE table_versions SET version = version + 1 WHERE table_name = 'records';
+CREATE TRIGGER trg_records_delete AFTER DELETE ON records FOR EACH ROW
+    UPDATE table_versions SET version = version + 1 WHERE table_name = 'records';
+
+CREATE TRIGGER trg_ensemble_members_insert AFTER INSERT ON ensemble_members FOR EACH ROW
+    UPDATE table_versions SET version = version + 1 WHERE table_name = 'ensemble_members';
+CREATE TRIGGER trg_ensemble_members_update AFTER UPDATE ON ensemble_members FOR EACH ROW
+    UPDATE table_versions SET version = version + 1 WHERE table_name = 'ensemble_members';
+CREATE TRIGGER trg_ensemble_members_delete AFTER DELETE ON ensemble_members FOR EACH ROW
+    UPDATE table_versions SET version = version + 1 WHERE table_name = 'ensemble_members';
+
+CREATE TRIGGER trg_performances_insert AFTER INSERT ON performances FOR EACH ROW
+    UPDATE table_versions SET version = version + 1 WHERE table_name = 'performances';
+CREATE TRIGGER trg_performances_update AFTER UPDATE ON performances FOR EACH ROW
+    UPDATE table_versions SET version = version + 1 WHERE table_name = 'performances';
+CREATE TRIGGER trg_performances_delete AFTER DELETE ON performances FOR EACH ROW
+    UPDATE table_versions SET version = version + 1 WHERE table_name = 'performances';
+
+CREATE TRIGGER trg_record_tracks_insert AFTER INSERT ON record_tracks FOR EACH ROW
+    UPDATE table_versions SET version = version + 1 WHERE table_name = 'record_tracks';
+CREATE TRIGGER trg_record_tracks_update AFTER UPDATE ON record_tracks FOR EACH ROW
+    UPDATE table_versions SET version = version + 1 WHERE table_name = 'record_tracks';
+CREATE TRIGGER trg_record_tracks_delete AFTER DELETE ON record_tracks FOR EACH ROW
+    UPDATE table_versions SET version = version + 1 WHERE table_name = 'record_tracks';
@@ -0,0 +1,22 @@
+-- Журнал удалений основных таблиц для догрузки изменений (EntityCache.sync)
+-- Клиент читает записи с tombstone_id больше последнего прочитанного и убирает
+-- удаленные строки из кэша. Без этой миграции удаления находятся сверкой ключей.
+-- Старые записи можно удалять: клиенту нужны только удаления с момента его загрузки.
+
+CREATE TABLE IF NOT EXISTS deleted_rows (
+    tombstone_id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    table_name VARCHAR(64) NOT NULL,
+    row_id BIGINT NOT NULL,
+    deleted_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE INDEX idx_deleted_rows_table ON deleted_rows (table_name, tombstone_id);
+
+CREATE TRIGGER trg_ensembles_tombstone AFTER DELETE ON ensembles FOR EACH ROW
+    INSERT INTO deleted_rows (table_name, row_id) VALUES ('ensembles', OLD.ensemble_id);
+CREATE TRIGGER trg_musicians_tombstone AFTER DELETE ON musicians FOR EACH ROW
+    INSERT INTO deleted_rows (table_name, row_id) VALUES ('musicians', OLD.musician_id);
+CREATE TRIGGER trg_compositions_tombstone AFTER DELETE ON compositions FOR EACH ROW
+    INSERT INTO deleted_rows (table_name, row_id) VALUES ('compositions', OLD.composition_id);
+CREATE TRIGGER trg_records_tombstone AFTER DELETE ON records FOR EACH ROW
+    INSERT INTO deleted_rows (table_name, row_id) VALUES ('records', OLD.record_id);
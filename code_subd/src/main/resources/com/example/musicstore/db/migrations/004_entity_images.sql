@@ -0,0 +1,16 @@
+-- Изображения сущностей в базе данных (utils.ImageStore)
+-- Ключ - тип сущности и имя файла (в том числе уменьшенные копии: имя@thumb.jpg).
+-- sha256 - хэш содержимого: клиенты кэшируют изображения на диске по хэшу
+-- и читают BLOB из базы только для хэша, которого у них еще нет.
+
+CREATE TABLE IF NOT EXISTS entity_images (
+    entity_type VARCHAR(32) NOT NULL,
+    image_name VARCHAR(255) NOT NULL,
+    sha256 CHAR(64) NOT NULL,
+    byte_size INT NOT NULL,
+    data LONGBLOB NOT NULL,
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    PRIMARY KEY (entity_type, image_name)
+);
+
+CREATE INDEX idx_entity_images_sha256 ON entity_images (sha256);
@@ -0,0 +1,116 @@
+-- Схема базы данных music_store
+-- Совместима с MySQL и со встроенной H2 в режиме MODE=MySQL
+
+CREATE TABLE IF NOT EXISTS users (
+    user_id INT AUTO_INCREMENT PRIMARY KEY,
+    email VARCHAR(255) NOT NULL UNIQUE,
+    password VARCHAR(255) NOT NULL,
+    role VARCHAR(20) NOT NULL DEFAULT 'user',
+    full_name VARCHAR(255),
+    first_name VARCHAR(100),
+    last_name VARCHAR(100),
+    phone VARCHAR(50),
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS ensembles (
+    ensemble_id INT AUTO_INCREMENT PRIMARY KEY,
+    name VARCHAR(255) NOT NULL,
+    type VARCHAR(100),
+    description TEXT,
+    image VARCHAR(255),
+    created_by VARCHAR(255),
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS musicians (
+    musician_id INT AUTO_INCREMENT PRIMARY KEY,
+    first_name VARCHAR(100) NOT NULL,
+    middle_name VARCHAR(100),
+    last_name VARCHAR(100) NOT NULL,
+    -- "Имя Отчество Фамилия" для поиска музыканта по имени
+    full_name VARCHAR(310) GENERATED ALWAYS AS (CONCAT_WS(' ', first_name, NULLIF(middle_name, ''), last_name)),
+    bio TEXT,
+    image VARCHAR(255),
+    created_by VARCHAR(255),
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS compositions (
+    composition_id INT AUTO_INCREMENT PRIMARY KEY,
+    title VARCHAR(255) NOT NULL,
+    creation_year INT,
+    image VARCHAR(255),
+    created_by VARCHAR(255),
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS records (
+    record_id INT AUTO_INCREMENT PRIMARY KEY,
+    title VARCHAR(255) NOT NULL,
+    wholesale_price DECIMAL(10, 2) NOT NULL DEFAULT 0,
+    retail_price DECIMAL(10, 2) NOT NULL DEFAULT 0,
+    disc_count INT NOT NULL DEFAULT 1,
+    current_year_sales INT NOT NULL DEFAULT 0,
+    remaining_stock INT NOT NULL DEFAULT 0,
+    image VARCHAR(255),
+    created_by VARCHAR(255),
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS ensemble_members (
+    ensemble_id INT NOT NULL,
+    musician_id INT NOT NULL,
+    role VARCHAR(100),
+    PRIMARY KEY (ensemble_id, musician_id),
+    FOREIGN KEY (ensemble_id) REFERENCES ensembles (ensemble_id) ON DELETE CASCADE,
+    FOREIGN KEY (musician_id) REFERENCES musicians (musician_id) ON DELETE CASCADE
+);
+
+CREATE TABLE IF NOT EXISTS performances (
+    ensemble_id INT NOT NULL,
+    composition_id INT NOT NULL,
+    arrangement VARCHAR(255),
+    PRIMARY KEY (ensemble_id, composition_id),
+    FOREIGN KEY (ensemble_id) REFERENCES ensembles (ensemble_id) ON DELETE CASCADE,
+    FOREIGN KEY (composition_id) REFERENCES compositions (composition_id) ON DELETE CASCADE
+);
+
+CREATE TABLE IF NOT EXISTS record_tracks (
+    record_id INT NOT NULL,
+    composition_id INT NOT NULL,
+    track_number INT NOT NULL,
+    PRIMARY KEY (record_id, composition_id),
+    FOREIGN KEY (record_id) REFERENCES records (record_id) ON DELETE CASCADE,
+    FOREIGN KEY (composition_id) REFERENCES compositions (composition_id) ON DELETE CASCADE
+);
+
+CREATE TABLE IF NOT EXISTS user_actions (
+    action_id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    user_email VARCHAR(255) NOT NULL,
+    action_date DATETIME NOT NULL,
+    action_type VARCHAR(100) NOT NULL,
+    entity_type VARCHAR(100),
+    action_details TEXT,
+    ip_address VARCHAR(45)
+);
+
+CREATE INDEX idx_musicians_full_name ON musicians (full_name);
+
+CREATE INDEX idx_user_actions_email_date ON user_actions (user_email, action_date);
+
+CREATE TABLE IF NOT EXISTS entity_images (
+    entity_type VARCHAR(32) NOT NULL,
+    image_name VARCHAR(255) NOT NULL,
+    sha256 CHAR(64) NOT NULL,
+    byte_size INT NOT NULL,
+    data LONGBLOB NOT NULL,
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    PRIMARY KEY (entity_type, image_name)
+);
+
+CREATE INDEX idx_entity_images_sha256 ON entity_images (sha256);
@@ -0,0 +1,135 @@
+package com.example.musicstore;
+
+import com.example.musicstore.models.SaleResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Проверка продаж пластинок под конкурентной нагрузкой
+ * Требует доступной базы данных music_store, иначе тесты пропускаются
+ * (без сервера MySQL можно запустить со встроенной базой: -Dmusicstore.db.backend=embedded)
+ */
+public class DatabaseSalesTest {
+
+    private static final int SELLERS = 64;
+
+    private String title;
+    private int recordId;
+
+    @BeforeEach
+    void setUp() {
+        assumeTrue(Database.testConnection(), "База данных недоступна");
+
+        title = "Stress Test Record " + System.nanoTime();
+        assertTrue(Database.update("INSERT INTO records (title, wholesale_price, retail_price, disc_count, " +
+                "current_year_sales, remaining_stock) VALUES (?, 10, 15, 1, 0, 0)", title));
+        List<Map<String, Object>> rows = Database.query("SELECT record_id FROM records WHERE title = ?", title);
+        recordId = ((Number) rows.get(0).get("record_id")).intValue();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (title != null) {
+            Database.update("DELETE FROM records WHERE title = ?", title);
+        }
+    }
+
+    // Тест 1: Одновременные продажи не теряются
+    @Test
+    void testNoLostUpdatesUnderParallelSellers() throws Exception {
+        int salesPerSeller = 50;
+        int stock = SELLERS * salesPerSeller;
+        Database.update("UPDATE records SET remaining_stock = ? WHERE record_id = ?", stock, recordId);
+
+        AtomicInteger succeeded = runSellers(salesPerSeller);
+
+        SaleResult last = totals();
+        assertEquals(stock, succeeded.get());
+        assertEquals(stock, last.getCurrentYearSales());
+        assertEquals(0, last.getRemainingStock());
+    }
+
+    // Тест 2: Остаток не уходит в минус при попытке продать больше, чем есть
+    @Test
+    void testStockNeverGoesNegative() throws Exception {
+        int stock = 100;
+        Database.update("UPDATE records SET remaining_stock = ? WHERE record_id = ?", stock, recordId);
+
+        AtomicInteger succeeded = runSellers(5);
+
+        SaleResult last = totals();
+        assertEquals(stock, succeeded.get());
+        assertEquals(stock, last.getCurrentYearSales());
+        assertEquals(0, last.getRemainingStock());
+        assertEquals(SaleResult.Status.INSUFFICIENT_STOCK, Database.sellRecord(recordId, 1).getStatus());
+    }
+
+    // Тест 3: Продажа несуществующей пластинки
+    @Test
+    void testUnknownRecord() {
+        assertEquals(SaleResult.Status.NOT_FOUND, Database.sellRecord(-1, 1).getStatus());
+    }
+
+    // Тест 4: Пакет продаж списывает весь остаток и отклоняет только непокрытую часть
+    @Test
+    void testBatchAppliesAvailableStock() {
+        Database.update("UPDATE records SET remaining_stock = ? WHERE record_id = ?", 7, recordId);
+
+        Map<Integer, Long> rejected = Database.applySalesBatch(Map.of(recordId, 10L, -1, 3L));
+
+        assertEquals(Map.of(recordId, 3L, -1, 3L), rejected);
+        SaleResult last = totals();
+        assertEquals(7, last.getCurrentYearSales());
+        assertEquals(0, last.getRemainingStock());
+    }
+
+    /**
+     * Запуск SELLERS параллельных продавцов, каждый продает по одному экземпляру salesPerSeller раз
+     * @return количество успешных продаж
+     */
+    private AtomicInteger runSellers(int salesPerSeller) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(SELLERS);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger succeeded = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int i = 0; i < SELLERS; i++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int s = 0; s < salesPerSeller; s++) {
+                    SaleResult result = Database.sellRecord(recordId, 1);
+                    assertNotEquals(SaleResult.Status.ERROR, result.getStatus());
+                    if (result.isSuccess()) {
+                        succeeded.incrementAndGet();
+                        assertTrue(result.getRemainingStock() >= 0);
+                    }
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(2, TimeUnit.MINUTES);
+        }
+        executor.shutdown();
+        return succeeded;
+    }
+
+    private SaleResult totals() {
+        Map<String, Object> row = Database.query(
+                "SELECT current_year_sales, remaining_stock FROM records WHERE record_id = ?", recordId).get(0);
+        return new SaleResult(SaleResult.Status.OK, recordId,
+                ((Number) row.get("current_year_sales")).intValue(), ((Number) row.get("remaining_stock")).intValue());
+    }
+}
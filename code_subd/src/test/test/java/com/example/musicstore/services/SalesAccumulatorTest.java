@@ -0,0 +1,153 @@
+package com.example.musicstore.services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Проверка накопителя продаж без базы данных: запись выполняет подставной SalesWriter
+ */
+public class SalesAccumulatorTest {
+
+    // Периодический сброс и сброс по количеству продаж не мешают тестам
+    private static final long INTERVAL_MS = 60_000;
+    private static final int EVENTS = 1_000_000;
+
+    private final List<Map<Integer, Long>> writes = new ArrayList<>();
+    private SalesAccumulator accumulator;
+
+    /**
+     * Накопитель, передающий пакеты в writer и запоминающий их
+     */
+    private SalesAccumulator create(Function<Map<Integer, Long>, Map<Integer, Long>> writer) {
+        accumulator = new SalesAccumulator(INTERVAL_MS, EVENTS, deltas -> {
+            synchronized (writes) {
+                writes.add(new HashMap<>(deltas));
+            }
+            return writer.apply(deltas);
+        });
+        return accumulator;
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (accumulator != null) {
+            accumulator.shutdown();
+        }
+    }
+
+    // Тест 1: Продажи одной пластинки суммируются в одну строку пакета
+    @Test
+    void testCoalescing() {
+        SalesAccumulator sales = create(deltas -> Map.of());
+        sales.record(1, 2);
+        sales.record(1, 3);
+        sales.record(2, 1);
+
+        assertTrue(sales.flush());
+        assertEquals(List.of(Map.of(1, 5L, 2, 1L)), writes);
+        assertEquals(3, sales.getStats().flushedEvents);
+        assertEquals(6, sales.getStats().flushedUnits);
+        assertEquals(2, sales.getStats().rowsWritten);
+
+        // Повторный сброс без новых продаж ничего не пишет
+        assertTrue(sales.flush());
+        assertEquals(1, writes.size());
+    }
+
+    // Тест 2: Продажи неудачного пакета возвращаются в накопитель и пишутся следующим сбросом
+    @Test
+    void testFailedWriteIsRequeued() {
+        int[] calls = {0};
+        SalesAccumulator sales = create(deltas -> {
+            calls[0]++;
+            if (calls[0] == 1) return null;
+            if (calls[0] == 2) throw new IllegalStateException("соединение потеряно");
+            return Map.of();
+        });
+        sales.record(7, 4);
+
+        assertFalse(sales.flush());
+        assertEquals(1, sales.getStats().pendingEvents);
+        assertEquals(4, sales.getStats().pendingUnits);
+
+        sales.record(7, 1);
+        assertFalse(sales.flush());
+        assertEquals(2, sales.getStats().failedFlushes);
+
+        assertTrue(sales.flush());
+        assertEquals(Map.of(7, 5L), writes.get(2));
+        assertEquals(0, sales.getStats().pendingUnits);
+        assertEquals(2, sales.getStats().flushedEvents);
+        assertEquals(5, sales.getStats().flushedUnits);
+    }
+
+    // Тест 3: Отклоненная часть продаж не считается записанной, остальное передается обработчикам
+    @Test
+    void testPartialRejection() {
+        SalesAccumulator sales = create(deltas -> Map.of(1, 2L, 3, 1L));
+        List<Map<Integer, Long>> applied = new ArrayList<>();
+        List<Map<Integer, Long>> rejected = new ArrayList<>();
+        sales.addFlushListener((written, refused) -> {
+            applied.add(written);
+            rejected.add(refused);
+        });
+        sales.record(1, 5);
+        sales.record(2, 4);
+        sales.record(3, 1);
+
+        assertTrue(sales.flush());
+        assertEquals(List.of(Map.of(1, 3L, 2, 4L)), applied);
+        assertEquals(List.of(Map.of(1, 2L, 3, 1L)), rejected);
+        assertEquals(7, sales.getStats().flushedUnits);
+        assertEquals(3, sales.getStats().rejectedUnits);
+        // Отклоненные продажи не возвращаются в накопитель
+        assertEquals(0, sales.getStats().pendingUnits);
+    }
+
+    // Тест 4: Остановка записывает накопленное, продажи после остановки пишутся сразу
+    @Test
+    void testRecordAfterShutdown() {
+        SalesAccumulator sales = create(deltas -> Map.of());
+        sales.record(1, 2);
+
+        sales.shutdown();
+        assertEquals(List.of(Map.of(1, 2L)), writes);
+
+        sales.record(4, 3);
+        assertEquals(List.of(Map.of(1, 2L), Map.of(4, 3L)), writes);
+        assertEquals(0, sales.getStats().pendingUnits);
+    }
+
+    // Тест 5: Продажи из нескольких потоков во время остановки не теряются
+    @Test
+    void testConcurrentRecordDuringShutdown() throws InterruptedException {
+        SalesAccumulator sales = create(deltas -> Map.of());
+        Thread[] sellers = new Thread[8];
+        for (int i = 0; i < sellers.length; i++) {
+            sellers[i] = new Thread(() -> {
+                for (int s = 0; s < 1_000; s++) {
+                    sales.record(1, 1);
+                }
+            });
+            sellers[i].start();
+        }
+        sales.shutdown();
+        for (Thread seller : sellers) {
+            seller.join();
+        }
+
+        long written = 0;
+        for (Map<Integer, Long> write : writes) {
+            written += write.getOrDefault(1, 0L);
+        }
+        assertEquals(8_000, written);
+    }
+}
@@ -0,0 +1,233 @@
+package com.example.musicstore.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ImagePackTest {
+
+    @TempDir
+    Path dir;
+
+    private static byte[] image(int seed, int size) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static long checksum(byte[] data) {
+        long sum = 0;
+        for (byte b : data) {
+            sum = sum * 31 + b;
+        }
+        return sum;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.duplicate().get(data);
+        return data;
+    }
+
+    // Тест 1: Одинаковое содержимое хранится один раз, имена переживают повторное открытие
+    @Test
+    void testDeduplicationAndReopen() throws IOException {
+        Path file = dir.resolve("images.pack");
+        byte[] cover = image(1, 10_000);
+        try (ImagePack pack = new ImagePack(file)) {
+            String hash = pack.put("records/abbey_road.jpg", cover);
+            assertEquals(hash, pack.put("records/abbey_road_remaster.jpg", cover.clone()));
+            pack.put("ensembles/beatles.jpg", image(2, 5_000));
+
+            assertEquals(2, pack.blobCount());
+            assertEquals(3, pack.nameCount());
+            assertTrue(pack.getByName("records/abbey_road.jpg").isReadOnly());
+        }
+
+        try (ImagePack pack = new ImagePack(file)) {
+            assertEquals(3, pack.nameCount());
+            assertArrayEquals(cover, bytes(pack.getByName("records/abbey_road_remaster.jpg")));
+            assertNull(pack.getByName("records/missing.jpg"));
+        }
+    }
+
+    // Тест 2: Потоковая запись с неверным хэшем не оставляет следов, неполная запись отрезается при открытии
+    @Test
+    void testRejectedStreamAndTornTail() throws IOException {
+        Path file = dir.resolve("images.pack");
+        long size;
+        try (ImagePack pack = new ImagePack(file)) {
+            pack.put("musicians/lennon.jpg", image(3, 2_000));
+            size = pack.size();
+            String wrongHash = "00".repeat(32);
+            assertThrows(IOException.class, () -> pack.putStream(wrongHash, new ByteArrayInputStream(image(4, 3_000))));
+            assertFalse(pack.contains(wrongHash));
+            assertEquals(size, pack.size());
+        }
+        assertEquals(size, Files.size(file));
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5}));
+        }
+        try (ImagePack pack = new ImagePack(file)) {
+            assertEquals(size, pack.size());
+            assertEquals(1, pack.nameCount());
+        }
+    }
+
+    // Тест 3: Пока содержимое скачивается, чтение и запись других изображений не ждут
+    @Test
+    void testStreamDoesNotBlockPack() throws Exception {
+        Path file = dir.resolve("images.pack");
+        byte[] cover = image(5, 4_000);
+        byte[] streamed = image(6, 6_000);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        String hash;
+        try (ImagePack other = new ImagePack(dir.resolve("other.pack"))) {
+            hash = other.put("records/let_it_be.jpg", streamed);
+        }
+        try (ImagePack pack = new ImagePack(file)) {
+            pack.put("records/help.jpg", cover);
+
+            // Поток, отдающий половину содержимого и ждущий сигнала (медленная сеть)
+            InputStream slow = new InputStream() {
+                private final InputStream data = new ByteArrayInputStream(streamed);
+
+                @Override
+                public int read() throws IOException {
+                    return data.read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (data.available() <= streamed.length / 2) {
+                        started.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            throw new IOException(e);
+                        }
+                    }
+                    return data.read(b, off, Math.min(len, streamed.length / 2));
+                }
+            };
+            CompletableFuture<Void> download = CompletableFuture.runAsync(() -> {
+                try {
+                    pack.putStream(hash, slow);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            assertArrayEquals(cover, bytes(pack.getByName("records/help.jpg")));
+            pack.put("records/abbey_road.jpg", image(7, 3_000));
+            assertFalse(pack.contains(hash));
+
+            release.countDown();
+            download.get(5, TimeUnit.SECONDS);
+            pack.bind("records/let_it_be.jpg", hash);
+            assertArrayEquals(streamed, bytes(pack.getByName("records/let_it_be.jpg")));
+            assertArrayEquals(cover, bytes(pack.getByName("records/help.jpg")));
+        }
+        try (ImagePack pack = new ImagePack(file)) {
+            assertEquals(3, pack.nameCount());
+            assertEquals(3, pack.blobCount());
+        }
+    }
+
+    // Тест 4: Сжатие удаляет замененное содержимое и сохраняет актуальные имена
+    @Test
+    void testCompaction() throws IOException {
+        Path file = dir.resolve("images.pack");
+        byte[] latest = image(99, 20_000);
+        try (ImagePack pack = new ImagePack(file)) {
+            for (int i = 0; i < 10; i++) {
+                pack.put("compositions/yesterday.jpg", image(i, 20_000));
+            }
+            pack.put("compositions/yesterday.jpg", latest);
+            pack.put("compositions/help.jpg", latest);
+            assertTrue(pack.needsCompaction());
+
+            long freed = pack.compact();
+            assertTrue(freed > 10 * 20_000);
+            assertEquals(1, pack.blobCount());
+            assertFalse(pack.needsCompaction());
+            assertArrayEquals(latest, bytes(pack.getByName("compositions/help.jpg")));
+        }
+        try (ImagePack pack = new ImagePack(file)) {
+            assertEquals(2, pack.nameCount());
+            assertArrayEquals(latest, bytes(pack.getByName("compositions/yesterday.jpg")));
+        }
+    }
+
+    // Тест 5: Пакет, открытый в одном месте, нельзя открыть второй раз до закрытия
+    @Test
+    void testPackIsLocked() throws IOException {
+        Path file = dir.resolve("images.pack");
+        try (ImagePack pack = new ImagePack(file)) {
+            pack.put("ensembles/queen.jpg", image(8, 1_000));
+            assertThrows(ImagePack.LockedException.class, () -> new ImagePack(file));
+            // Блокировка сохраняется после замены файла при сжатии
+            pack.compact();
+            assertThrows(ImagePack.LockedException.class, () -> new ImagePack(file));
+        }
+        try (ImagePack pack = new ImagePack(file)) {
+            assertEquals(1, pack.nameCount());
+        }
+    }
+
+    // Тест 6: Замер чтения 2000 изображений целиком: отдельные файлы против пакета
+    // Только выводит время: соотношение зависит от файловой системы и кэша ОС
+    @Test
+    void testLookupComparedToPerFileReads() throws IOException {
+        int count = 2_000;
+        Path files = Files.createDirectories(dir.resolve("records"));
+        String[] names = new String[count];
+        try (ImagePack pack = new ImagePack(dir.resolve("images.pack"))) {
+            for (int i = 0; i < count; i++) {
+                byte[] data = image(i, 8_000 + i % 4_000);
+                names[i] = "record_" + i + ".jpg";
+                Files.write(files.resolve(names[i]), data);
+                pack.put("records/" + names[i], data);
+            }
+
+            // Прогрев, затем по три прохода каждым способом
+            long fileChecksum = 0, packChecksum = 0;
+            long fileNanos = Long.MAX_VALUE, packNanos = Long.MAX_VALUE;
+            for (int pass = 0; pass < 4; pass++) {
+                long start = System.nanoTime();
+                for (String name : names) {
+                    fileChecksum += checksum(Files.readAllBytes(files.resolve(name)));
+                }
+                if (pass > 0) fileNanos = Math.min(fileNanos, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                for (String name : names) {
+                    // Содержимое копируется из отображенного файла, как при декодировании
+                    packChecksum += checksum(bytes(pack.getByName("records/" + name)));
+                }
+                if (pass > 0) packNanos = Math.min(packNanos, System.nanoTime() - start);
+            }
+
+            System.out.printf("%d изображений: отдельные файлы = %.2f мс, пакет = %.2f мс%n",
+                    count, fileNanos / 1e6, packNanos / 1e6);
+            assertEquals(fileChecksum, packChecksum);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.musicstore.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class ResultTableTest {
+
+    // Колонки таблицы records
+    private static final String[] RECORD_COLUMNS = {"record_id", "title", "wholesale_price", "retail_price",
+            "disc_count", "release_date", "last_year_sales", "current_year_sales", "remaining_stock",
+            "image", "created_by", "created_at", "updated_at"};
+
+    private static Object[] recordValues(int i) {
+        return new Object[]{i, "Record " + i, new BigDecimal("10.50"), new BigDecimal("15.00"), 1, "",
+                i % 100, i % 50, i % 30, "", "", "", ""};
+    }
+
+    // Тест 1: Строка ведет себя как карта
+    @Test
+    void testRowMapView() {
+        ResultTable table = new ResultTable(new ResultTable.Schema("record_id", "title", "current_year_sales"));
+        table.addRow(1, "Abbey Road", 10);
+
+        Map<String, Object> row = table.get(0);
+        assertEquals("Abbey Road", row.get("title"));
+        assertEquals(10, row.get("current_year_sales"));
+        assertNull(row.get("missing"));
+        assertTrue(row.containsKey("record_id"));
+        assertFalse(row.containsKey("missing"));
+        assertEquals(3, row.size());
+
+        Map<String, Object> expected = new HashMap<>();
+        expected.put("record_id", 1);
+        expected.put("title", "Abbey Road");
+        expected.put("current_year_sales", 10);
+        assertEquals(expected, row);
+        assertEquals(expected.hashCode(), row.hashCode());
+    }
+
+    // Тест 2: Изменение существующих колонок разрешено, добавление новых - нет
+    @Test
+    void testRowUpdates() {
+        ResultTable table = new ResultTable(new ResultTable.Schema("name", "type"));
+        table.addRow("Квартет", "камерный");
+
+        Map<String, Object> row = table.get(0);
+        assertEquals("Квартет", row.put("name", "Квинтет"));
+        assertEquals("Квинтет", row.get("name"));
+
+        for (Map.Entry<String, Object> entry : row.entrySet()) {
+            entry.setValue(entry.getValue().toString().toUpperCase());
+        }
+        assertEquals("КАМЕРНЫЙ", row.get("type"));
+
+        assertThrows(UnsupportedOperationException.class, () -> row.put("description", "x"));
+        assertThrows(UnsupportedOperationException.class, () -> row.remove("name"));
+    }
+
+    // Тест 3: Повторяющиеся имена колонок (как при JOIN) - побеждает последняя
+    @Test
+    void testDuplicateLabels() {
+        ResultTable table = new ResultTable(new ResultTable.Schema("id", "title", "id"));
+        table.addRow(1, "a", 2);
+
+        Map<String, Object> row = table.get(0);
+        assertEquals(2, row.get("id"));
+        assertEquals(2, row.size());
+        assertEquals(2, row.entrySet().size());
+    }
+
+    // Тест 4: Замер выделения памяти на 100 000 строк таблицы records
+    @Test
+    void testAllocationComparedToHashMapRows() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled());
+
+        int rowCount = 100_000;
+        Object[][] source = new Object[rowCount][];
+        for (int i = 0; i < rowCount; i++) {
+            source[i] = recordValues(i);
+        }
+        long threadId = Thread.currentThread().getId();
+
+        // До: отдельная HashMap на каждую строку
+        long start = bean.getThreadAllocatedBytes(threadId);
+        List<Map<String, Object>> hashMapRows = new ArrayList<>();
+        for (Object[] values : source) {
+            Map<String, Object> row = new HashMap<>();
+            for (int c = 0; c < RECORD_COLUMNS.length; c++) {
+                row.put(RECORD_COLUMNS[c], values[c]);
+            }
+            hashMapRows.add(row);
+        }
+        long hashMapBytes = bean.getThreadAllocatedBytes(threadId) - start;
+
+        // После: общая схема и массив значений на строку
+        start = bean.getThreadAllocatedBytes(threadId);
+        ResultTable table = new ResultTable(new ResultTable.Schema(RECORD_COLUMNS), rowCount);
+        for (Object[] values : source) {
+            table.addRow(values.clone());
+        }
+        long tableBytes = bean.getThreadAllocatedBytes(threadId) - start;
+
+        System.out.printf("100000 строк records: HashMap = %.1f МБ, ResultTable = %.1f МБ%n",
+                hashMapBytes / 1e6, tableBytes / 1e6);
+
+        assertEquals(hashMapRows.size(), table.size());
+        assertEquals(hashMapRows.get(rowCount - 1), table.get(rowCount - 1));
+        assertTrue(tableBytes * 3 < hashMapBytes, "ResultTable должна выделять заметно меньше памяти");
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.musicstore.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Проверка политик переполнения журнала действий без базы данных
+ * Очередь на две записи, пакет из одной записи; подставной BatchWriter задерживает
+ * первую запись, пока тест заполняет очередь
+ */
+public class UserActionLoggerTest {
+
+    // Фоновый поток просыпается только по заполнению пакета
+    private static final long INTERVAL_MS = 60_000;
+
+    @TempDir
+    Path dir;
+
+    private final List<String> written = new ArrayList<>();
+    private final CountDownLatch writing = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private Path spillFile;
+    private UserActionLogger logger;
+
+    /**
+     * Журнал, запись которого ждет release; accept решает, записывается ли пакет
+     */
+    private UserActionLogger create(UserActionLogger.OverflowPolicy overflow, Predicate<List<Object[]>> accept) {
+        spillFile = dir.resolve("user_actions.spill");
+        logger = new UserActionLogger(2, 1, INTERVAL_MS, overflow, spillFile, rows -> {
+            writing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            if (!accept.test(rows)) return false;
+            synchronized (written) {
+                for (Object[] row : rows) {
+                    written.add((String) row[4]);
+                }
+            }
+            return true;
+        });
+        return logger;
+    }
+
+    /**
+     * Первая запись занимает фоновый поток, следующие две заполняют очередь
+     */
+    private void fillQueue() throws InterruptedException {
+        logger.log("user@test", "Тест", "Система", "1");
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+        logger.log("user@test", "Тест", "Система", "2");
+        logger.log("user@test", "Тест", "Система", "3");
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        if (logger != null) {
+            logger.shutdown();
+        }
+    }
+
+    // Тест 1: BLOCK - запись ждет места в очереди и не теряется
+    @Test
+    void testBlockWaitsForSpace() throws InterruptedException {
+        create(UserActionLogger.OverflowPolicy.BLOCK, rows -> true);
+        fillQueue();
+
+        Thread blocked = new Thread(() -> logger.log("user@test", "Тест", "Система", "4"));
+        blocked.start();
+        blocked.join(200);
+        assertTrue(blocked.isAlive(), "Запись должна ждать освобождения очереди");
+
+        release.countDown();
+        blocked.join(5_000);
+        assertFalse(blocked.isAlive());
+        logger.flushPending();
+        assertEquals(List.of("1", "2", "3", "4"), written);
+    }
+
+    // Тест 2: DROP - запись сверх емкости очереди отбрасывается сразу
+    @Test
+    void testDropDiscardsOverflow() throws InterruptedException {
+        create(UserActionLogger.OverflowPolicy.DROP, rows -> true);
+        fillQueue();
+        logger.log("user@test", "Тест", "Система", "4");
+
+        release.countDown();
+        logger.flushPending();
+        assertEquals(List.of("1", "2", "3"), written);
+        assertTrue(logger.stats().contains("отброшено=1"));
+        assertFalse(Files.exists(spillFile));
+    }
+
+    // Тест 3: SPILL - запись сверх емкости уходит в файл и загружается при следующем сбросе
+    @Test
+    void testSpillWritesOverflowToFile() throws Exception {
+        create(UserActionLogger.OverflowPolicy.SPILL, rows -> true);
+        fillQueue();
+        logger.log("user@test", "Тест", "Система", "4\tс табуляцией");
+
+        assertEquals(1, Files.readAllLines(spillFile).size());
+        release.countDown();
+        logger.flushPending();
+        assertEquals(List.of("1", "2", "3", "4\tс табуляцией"), written);
+        assertFalse(Files.exists(spillFile));
+    }
+
+    // Тест 4: Неудачная загрузка файла не записывает его частично, повтор не дублирует строки
+    @Test
+    void testFailedSpillLoadIsRetriedWithoutDuplicates() throws Exception {
+        // Пакеты из очереди - по одной строке, файл - две строки
+        AtomicBoolean databaseBack = new AtomicBoolean();
+        create(UserActionLogger.OverflowPolicy.SPILL, rows -> rows.size() == 1 || databaseBack.get());
+        fillQueue();
+        logger.log("user@test", "Тест", "Система", "4");
+        logger.log("user@test", "Тест", "Система", "5");
+
+        release.countDown();
+        logger.flushPending();
+        assertEquals(List.of("1", "2", "3"), written);
+        assertEquals(2, Files.readAllLines(spillFile).size());
+
+        databaseBack.set(true);
+        logger.flushPending();
+        assertEquals(List.of("1", "2", "3", "4", "5"), written);
+        assertFalse(Files.exists(spillFile));
+    }
+}